@@ -0,0 +1,121 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumentation test checking that binding the rows of a RecyclerView with InventoryCursorAdapter,
+ * including the layout pass that follows, doesn't allocate objects once the view holder buffers
+ * have been warmed up.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryCursorAdapterAllocationTest {
+
+    private static final int ROWS = 20;             // Number of rows in the cursor.
+    private static final int WARM_UP = 3;           // Number of passes over all the rows before counting.
+    private static final int MEASURED = 10;         // Number of passes over all the rows while counting.
+    private static final int WIDTH_PX = 1080;       // Width of the list.
+    private static final int HEIGHT_PX = 100000;    // Height of the list, so every row is laid out.
+
+    @Test
+    public void bindViewDoesNotAllocate() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+
+                // Rows have different images, but every row keeps its view holder, so the
+                // drawables are only loaded by the first bind.
+                MatrixCursor cursor = new MatrixCursor(new String[]{
+                        ProductEntry._ID,
+                        ProductEntry.COLUMN_NAME_VERSION,
+                        ProductEntry.COLUMN_NAME_PRODUCT,
+                        ProductEntry.COLUMN_NAME_IMAGE,
+                        ProductEntry.COLUMN_NAME_PRICE,
+                        ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+                        ProductEntry.COLUMN_NAME_QUANTITY});
+                for (int i = 0; i < ROWS; i++) {
+                    long image = ProductEntry.IMAGE_TYPE_NONE + 1 + i % (ProductEntry.IMAGE_TYPE_COUNT - 1);
+                    cursor.addRow(new Object[]{(long) i + 1, 0L, "Product " + i, image,
+                            (long) 1999 * i, "Supplier " + (i % 3), (long) i * 7});
+                }
+
+                InventoryCursorAdapter adapter = new InventoryCursorAdapter(context, null, null);
+                adapter.setCursor(cursor);
+                RecyclerView recyclerView = new RecyclerView(context);
+                recyclerView.setLayoutManager(new LinearLayoutManager(context));
+                recyclerView.setItemAnimator(null);
+                recyclerView.setAdapter(adapter);
+                layOut(recyclerView);
+                assertEquals(ROWS, recyclerView.getChildCount());
+
+                // Warm up the buffers of the view holders and of the views.
+                rebindAllRows(recyclerView, WARM_UP);
+
+                // Count the allocations of the current thread while binding and laying out.
+                int allocations = countAllocations(recyclerView);
+
+                View lastRow = recyclerView.findViewHolderForAdapterPosition(ROWS - 1).itemView;
+                assertEquals("Units: " + (ROWS - 1) * 7,
+                        ((TextView) lastRow.findViewById(R.id.list_item_quantity)).getText().toString());
+                assertEquals(0, allocations);
+            }
+        });
+    }
+
+    /**
+     * Helper method to count the allocations of the current thread while rebinding all the rows
+     * MEASURED times. The thread allocation counter of Debug is deprecated, but it is the only one
+     * that counts the objects allocated by a single thread: the runtime statistics that replace it
+     * count the allocations of every thread, including the binder and GC threads.
+     *
+     * @param recyclerView is the list.
+     * @return the number of objects allocated.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(RecyclerView recyclerView) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        rebindAllRows(recyclerView, MEASURED);
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Helper method to bind every row of the list again and lay the list out, several times.
+     *
+     * @param recyclerView is the list.
+     * @param passes       is the number of times.
+     */
+    private static void rebindAllRows(RecyclerView recyclerView, int passes) {
+        for (int pass = 0; pass < passes; pass++) {
+            recyclerView.getAdapter().notifyItemRangeChanged(0, ROWS);
+            layOut(recyclerView);
+        }
+    }
+
+    /**
+     * Helper method to measure and lay out the list, binding the rows that have changed.
+     *
+     * @param recyclerView is the list.
+     */
+    private static void layOut(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT_PX, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH_PX, HEIGHT_PX);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Concurrency benchmark for InventoryProvider. Several readers query single products while a
+ * writer keeps selling and restocking units, first with the default rollback journal and then with
+ * the write-ahead log configured by InventoryDbHelper.onConfigure(). Read/write throughput and p99
+ * read latency of both runs are written to logcat, along with the settings in effect on the primary
+ * connection and on the read connections of the write-ahead log run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryConcurrencyBenchmark {
+
+    private static final String LOG_TAG = InventoryConcurrencyBenchmark.class.getSimpleName();
+
+    private static final int PRODUCTS = 2000;               // Number of products in the database.
+    private static final int READERS = 4;                   // Number of reader threads.
+    private static final long DURATION_MS = 5000;           // Duration of every run.
+    private static final int MAX_SAMPLES = 1 << 18;         // Maximum latency samples per reader.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("benchmark_");
+        provider = fixture.getProvider();
+
+        // Fill the database, with enough units for selling one of any product at any time.
+        fixture.insertProducts(fixture.getProducts(PRODUCTS, 1000));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void readersAgainstSteadyWriter() throws Exception {
+        provider.getDbHelper().getWritableDatabase().disableWriteAheadLogging();
+        Result rollback = run();
+        provider.getDbHelper().getWritableDatabase().enableWriteAheadLogging();
+        Result wal = run();
+        String[] settings = getConnectionSettings();
+
+        Log.i(LOG_TAG, "rollback journal: " + rollback);
+        Log.i(LOG_TAG, "write-ahead log:  " + wal);
+        Log.i(LOG_TAG, "primary connection: " + settings[0]);
+        Log.i(LOG_TAG, "read connection:    " + settings[1]);
+        assertTrue(rollback.reads > 0 && rollback.writes > 0);
+        assertTrue(wal.reads > 0 && wal.writes > 0);
+    }
+
+    /**
+     * Run READERS reader threads and one writer thread against the provider for DURATION_MS.
+     *
+     * @return the throughput and read latency of the run.
+     */
+    private Result run() throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong writes = new AtomicLong();
+        final long[][] samples = new long[READERS][MAX_SAMPLES];
+        final int[] sampleCounts = new int[READERS];
+        final CountDownLatch done = new CountDownLatch(READERS + 1);
+
+        // Writer: sell and restock one unit of random products as fast as possible.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(0);
+                Bundle extras = new Bundle();
+                int delta = -1;
+                while (running.get()) {
+                    extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, delta);
+                    provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(1 + random.nextInt(PRODUCTS)), extras);
+                    writes.incrementAndGet();
+                    delta = -delta;
+                }
+                done.countDown();
+            }
+        }).start();
+
+        // Readers: query random single products and record the latency of every query.
+        for (int reader = 0; reader < READERS; reader++) {
+            final int index = reader;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(index + 1);
+                    while (running.get() && sampleCounts[index] < MAX_SAMPLES) {
+                        long start = System.nanoTime();
+                        Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(PRODUCTS)), null, null, null, null);
+                        if (cursor != null) {
+                            cursor.moveToFirst();
+                            cursor.close();
+                        }
+                        samples[index][sampleCounts[index]++] = System.nanoTime() - start;
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        done.await();
+
+        // Merge the latency samples of all the readers.
+        int reads = 0;
+        for (int count : sampleCounts) reads += count;
+        long[] latencies = new long[reads];
+        int position = 0;
+        for (int reader = 0; reader < READERS; reader++) {
+            System.arraycopy(samples[reader], 0, latencies, position, sampleCounts[reader]);
+            position += sampleCounts[reader];
+        }
+        Arrays.sort(latencies);
+        long p99 = reads == 0 ? 0 : latencies[(int) Math.min(reads - 1, (long) Math.ceil(reads * 0.99) - 1)];
+        return new Result(reads, writes.get(), p99);
+    }
+
+    /**
+     * Helper method to read the settings in effect on the primary connection and on a read
+     * connection of the pool, which only exists with write-ahead logging. The current thread holds
+     * the primary connection with a transaction, so the queries of another thread get a read
+     * connection.
+     *
+     * @return the settings of the primary connection and of a read connection.
+     */
+    private String[] getConnectionSettings() throws InterruptedException {
+        final SQLiteDatabase db = provider.getDbHelper().getWritableDatabase();
+        final String[] settings = new String[2];
+        db.beginTransactionNonExclusive();
+        try {
+            settings[0] = getSettings(db);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    settings[1] = getSettings(db);
+                }
+            });
+            reader.start();
+            reader.join();
+        } finally {
+            db.endTransaction();
+        }
+        return settings;
+    }
+
+    /**
+     * Helper method to read the settings of the connection used by the current thread.
+     *
+     * @param db is the database.
+     * @return the journal mode, synchronous mode and cache size of the connection.
+     */
+    private static String getSettings(SQLiteDatabase db) {
+        return "journal_mode=" + DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null)
+                + ", synchronous=" + DatabaseUtils.longForQuery(db, "PRAGMA synchronous", null)
+                + ", cache_size=" + DatabaseUtils.longForQuery(db, "PRAGMA cache_size", null);
+    }
+
+    /**
+     * Throughput and read latency of a single run.
+     */
+    private static class Result {
+        final long reads;
+        final long writes;
+        final long p99ReadNanos;
+
+        Result(long reads, long writes, long p99ReadNanos) {
+            this.reads = reads;
+            this.writes = writes;
+            this.p99ReadNanos = p99ReadNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.0f reads/s, %.0f writes/s, p99 read latency %.3f ms",
+                    reads * 1000.0 / DURATION_MS, writes * 1000.0 / DURATION_MS, p99ReadNanos / 1e6);
+        }
+    }
+}
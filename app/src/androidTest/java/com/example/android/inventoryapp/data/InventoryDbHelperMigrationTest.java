@@ -0,0 +1,233 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockSnapshotEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for the migrations of InventoryDbHelper. Every test starts from a populated
+ * database with the schema of version 1, as created by the first release of the app.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryDbHelperMigrationTest {
+
+    // Schema of the "products" table in version 1 of the database.
+    private static final String SQL_CREATE_PRODUCTS_V1 = "CREATE TABLE products (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT NOT NULL, " +
+            "description TEXT , " +
+            "image TEXT NOT NULL DEFAULT \"image_type_none\", " +
+            "price INTEGER NOT NULL DEFAULT 0, " +
+            "current_quantity INTEGER NOT NULL DEFAULT 0, " +
+            "supplier_name TEXT NOT NULL, " +
+            "supplier_address TEXT NOT NULL, " +
+            "supplier_order_quantity INTEGER DEFAULT 1)";
+
+    private static final int PRODUCTS = 50;     // Number of products in the version 1 database.
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "migration_");
+        context.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+
+        // Create and populate a version 1 database.
+        SQLiteDatabase db = context.openOrCreateDatabase(InventoryDbHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL(SQL_CREATE_PRODUCTS_V1);
+        for (int i = 0; i < PRODUCTS; i++) {
+            db.execSQL("INSERT INTO products (name, description, image, price, current_quantity, " +
+                            "supplier_name, supplier_address, supplier_order_quantity) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                    new Object[]{"Product " + i, "Description " + i, "image_type_hotels", 100 * i, i,
+                            "Supplier " + (i % 5), "supplier" + (i % 5) + "@example.com", 1 + i % 3});
+        }
+        db.setVersion(1);
+        db.close();
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeKeepsAllProducts() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(InventoryDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, null, null, null, null, null, ProductEntry._ID);
+        try {
+            assertEquals(PRODUCTS, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(i + 1, cursor.getLong(cursor.getColumnIndex(ProductEntry._ID)));
+                assertEquals("Product " + i, cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRODUCT)));
+                assertEquals("Description " + i, cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_DESCRIPTION)));
+                assertEquals(ProductEntry.IMAGE_TYPE_HOTELS, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_IMAGE)));
+                assertEquals(100 * i, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRICE)));
+                assertEquals(i, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_QUANTITY)));
+                assertEquals("Supplier " + (i % 5), cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT)));
+                assertEquals("supplier" + (i % 5) + "@example.com", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL)));
+                assertEquals(1 + i % 3, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY)));
+            }
+        } finally {
+            cursor.close();
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeKeepsLastId() {
+        // Delete the last product, so its _id must not be reused after the table is rebuilt.
+        SQLiteDatabase v1 = context.openOrCreateDatabase(InventoryDbHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        v1.execSQL("DELETE FROM products WHERE _id = " + PRODUCTS);
+        v1.close();
+
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, "New product");
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, "Supplier");
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL, "supplier@example.com");
+        long id = db.insert(ProductEntry.TABLE_NAME, null, values);
+        helper.close();
+
+        assertEquals(PRODUCTS + 1, id);
+    }
+
+    @Test
+    public void updateIncreasesVersion() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_PRICE, 999);
+        db.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + " = 1", null);
+        db.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + " = 1", null);
+        long version = DatabaseUtils.longForQuery(db, "SELECT " + ProductEntry.COLUMN_NAME_VERSION +
+                " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = 1", null);
+        long otherVersion = DatabaseUtils.longForQuery(db, "SELECT " + ProductEntry.COLUMN_NAME_VERSION +
+                " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = 2", null);
+        helper.close();
+
+        assertEquals(2, version);
+        assertEquals(0, otherVersion);
+    }
+
+    @Test
+    public void upgradeStartsStockLedger() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_NAME_QUANTITY + " = " +
+                ProductEntry.COLUMN_NAME_QUANTITY + " + 10 WHERE " + ProductEntry._ID + " = 1");
+        long snapshots = DatabaseUtils.queryNumEntries(db, StockSnapshotEntry.TABLE_NAME);
+        long movements = DatabaseUtils.queryNumEntries(db, StockMovementEntry.TABLE_NAME);
+        long ledgerQuantity = DatabaseUtils.longForQuery(db, "SELECT s." + StockSnapshotEntry.COLUMN_NAME_QUANTITY +
+                " + SUM(m." + StockMovementEntry.COLUMN_NAME_DELTA + ") FROM " + StockSnapshotEntry.TABLE_NAME + " s JOIN " +
+                StockMovementEntry.TABLE_NAME + " m ON m." + StockMovementEntry.COLUMN_NAME_PRODUCT_ID + " = s." +
+                StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " WHERE s." + StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " = 1", null);
+        helper.close();
+
+        // Every product starts from a snapshot of its quantity, and later changes are movements.
+        assertEquals(PRODUCTS, snapshots);
+        assertEquals(1, movements);
+        assertEquals(10, ledgerQuantity);
+    }
+
+    @Test
+    public void upgradeCreatesIndexes() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        List<String> indexes = getSchema(helper.getReadableDatabase(), "index");
+        helper.close();
+
+        assertTrue(containsName(indexes, InventoryDbHelper.INDEX_PRODUCT));
+        assertTrue(containsName(indexes, InventoryDbHelper.INDEX_SUPPLIER_CONTACT));
+        assertTrue(containsName(indexes, InventoryDbHelper.INDEX_QUANTITY));
+        assertTrue(containsName(indexes, InventoryDbHelper.INDEX_STOCK_MOVEMENTS_PRODUCT));
+        assertTrue(containsName(indexes, InventoryDbHelper.INDEX_STOCK_MOVEMENTS_TIMESTAMP));
+    }
+
+    @Test
+    public void upgradeIndexesProductsForSearch() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long matches = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + ProductEntry.FTS_TABLE_NAME +
+                " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH 'descr*'", null);
+        long docId = DatabaseUtils.longForQuery(db, "SELECT docid FROM " + ProductEntry.FTS_TABLE_NAME +
+                " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH 'product 7'", null);
+        helper.close();
+
+        // Every existing product is indexed by name and description.
+        assertEquals(PRODUCTS, matches);
+        assertEquals(8, docId);
+    }
+
+    @Test
+    public void upgradedSchemaMatchesNewSchema() {
+        InventoryDbHelper helper = new InventoryDbHelper(context);
+        List<String> upgraded = getSchema(helper.getReadableDatabase(), null);
+        helper.close();
+
+        // Create a new database from scratch and compare both schemas.
+        context.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        helper = new InventoryDbHelper(context);
+        List<String> created = getSchema(helper.getReadableDatabase(), null);
+        helper.close();
+
+        assertEquals(created, upgraded);
+    }
+
+    /**
+     * Helper method to read the definition of the schema objects of a database.
+     *
+     * @param db   is the database.
+     * @param type is the type of the schema objects to read ("table", "index", "trigger"...), or
+     *             null for all of them.
+     * @return a list of "name: sql" strings, sorted by name.
+     */
+    private static List<String> getSchema(SQLiteDatabase db, String type) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE name NOT LIKE 'sqlite_%'" +
+                " AND name != 'android_metadata'" + (type == null ? "" : " AND type = '" + type + "'") +
+                " ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) schema.add(cursor.getString(0) + ": " + cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    /**
+     * Helper method to determine whether a schema returned by getSchema() contains an object.
+     *
+     * @param schema is the schema.
+     * @param name   is the name of the object.
+     * @return true if the schema contains an object with the given name, false otherwise.
+     */
+    private static boolean containsName(List<String> schema, String name) {
+        for (String entry : schema) {
+            if (entry.startsWith(name + ": ")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumentation tests for the writes of InventoryProvider that apply many rows at once, through
+ * bulkInsert() and applyBatch(): they must skip or report the rows that can't be applied and
+ * notify their listeners only once, whenever anything has been committed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderBatchTest {
+
+    private static final int PRODUCTS = 50;         // Number of products in every batch.
+    private static final int LONG_BATCH = 1000;     // Number of products in batches with yield points.
+    private static final long SETTLE_MS = 1000;     // Time for delivering pending notifications.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("batch_");
+        provider = fixture.getProvider();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void bulkInsertSkipsInvalidRowsAndNotifiesOnce() {
+        Cursor list = provider.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        AtomicInteger listRequeries = countNotifications(list);
+
+        ContentValues[] values = fixture.getProducts(PRODUCTS);
+        values[3].put(ProductEntry.COLUMN_NAME_PRODUCT, "");
+        values[7].put(ProductEntry.COLUMN_NAME_PRICE, -1);
+        int inserted = provider.bulkInsert(ProductEntry.CONTENT_URI, values);
+        SystemClock.sleep(SETTLE_MS);
+
+        try {
+            assertEquals(PRODUCTS - 2, inserted);
+            assertEquals(PRODUCTS - 2, countProducts());
+            assertEquals(1, listRequeries.get());
+        } finally {
+            list.close();
+        }
+    }
+
+    @Test
+    public void bulkInsertCallReportsRejectedRows() {
+        ContentValues[] values = fixture.getProducts(PRODUCTS);
+        values[3].put(ProductEntry.COLUMN_NAME_PRODUCT, "");
+        values[7].put(ProductEntry.COLUMN_NAME_PRICE, -1);
+        values[7].put(ProductEntry.COLUMN_NAME_QUANTITY, -1);
+
+        Bundle result = ProductEntry.bulkInsert(fixture.newContentResolver(), values);
+
+        assertEquals(PRODUCTS - 2, result.getInt(InventoryContract.EXTRA_BULK_INSERTED));
+        assertArrayEquals(new int[]{3, 7}, result.getIntArray(InventoryContract.EXTRA_REJECTED_ROWS));
+        assertArrayEquals(new int[]{ProductEntry.SQL_ERROR_PRODUCT_NAME, ProductEntry.SQL_ERROR_PRODUCT_PRICE},
+                result.getIntArray(InventoryContract.EXTRA_REJECTED_ERRORS));
+        assertArrayEquals(new int[]{ProductValidator.VIOLATION_PRODUCT_NAME,
+                        ProductValidator.VIOLATION_PRODUCT_PRICE | ProductValidator.VIOLATION_PRODUCT_QUANTITY},
+                result.getIntArray(InventoryContract.EXTRA_REJECTED_VIOLATIONS));
+        assertEquals(PRODUCTS - 2, countProducts());
+    }
+
+    @Test
+    public void insertsRejectMissingRequiredColumns() {
+        ContentValues values = fixture.getGenerator().getProduct(0);
+        values.remove(ProductEntry.COLUMN_NAME_PRICE);
+        assertNull(provider.insert(ProductEntry.CONTENT_URI, values));
+
+        ContentValues[] rows = fixture.getProducts(PRODUCTS);
+        rows[5].remove(ProductEntry.COLUMN_NAME_IMAGE);
+        Bundle result = ProductEntry.bulkInsert(fixture.newContentResolver(), rows);
+
+        assertEquals(PRODUCTS - 1, result.getInt(InventoryContract.EXTRA_BULK_INSERTED));
+        assertArrayEquals(new int[]{5}, result.getIntArray(InventoryContract.EXTRA_REJECTED_ROWS));
+        assertArrayEquals(new int[]{ProductEntry.SQL_ERROR_PRODUCT_IMAGE}, result.getIntArray(InventoryContract.EXTRA_REJECTED_ERRORS));
+        assertEquals(PRODUCTS - 1, countProducts());
+    }
+
+    @Test
+    public void batchResolvesBackReferencesAndNotifiesOnce() throws OperationApplicationException {
+        Cursor list = provider.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        AtomicInteger listRequeries = countNotifications(list);
+
+        // Insert a product, then set its quantity through a back reference to its _id.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(fixture.getGenerator().getProduct(0)).build());
+        operations.add(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                .withSelection(ProductEntry._ID + " = ?", new String[1])
+                .withSelectionBackReference(0, 0)
+                .withValue(ProductEntry.COLUMN_NAME_QUANTITY, 42).build());
+        ContentProviderResult[] results = provider.applyBatch(operations);
+        SystemClock.sleep(SETTLE_MS);
+
+        try {
+            assertEquals(1, (int) results[1].count);
+            Cursor product = provider.query(results[0].uri, new String[]{ProductEntry.COLUMN_NAME_QUANTITY}, null, null, null);
+            try {
+                assertTrue(product.moveToFirst());
+                assertEquals(42, product.getInt(0));
+            } finally {
+                product.close();
+            }
+            assertEquals(1, listRequeries.get());
+        } finally {
+            list.close();
+        }
+    }
+
+    @Test
+    public void failedBatchWithoutYieldsChangesNothing() {
+        Cursor list = provider.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        AtomicInteger listRequeries = countNotifications(list);
+
+        try {
+            provider.applyBatch(newFailingBatch(PRODUCTS, false));
+            fail("The batch must fail");
+        } catch (OperationApplicationException e) {
+            // Expected.
+        }
+        SystemClock.sleep(SETTLE_MS);
+
+        try {
+            assertEquals(0, countProducts());
+            assertEquals(0, listRequeries.get());
+        } finally {
+            list.close();
+        }
+    }
+
+    @Test
+    public void failedBatchNotifiesOperationsCommittedAtYieldPoints() throws InterruptedException {
+        Cursor list = provider.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        AtomicInteger listRequeries = countNotifications(list);
+
+        // Another thread keeps waiting for the database, so the batch yields at its yield points.
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, 1);
+                while (running.get())
+                    provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(Integer.MAX_VALUE), extras);
+            }
+        });
+        writer.start();
+        try {
+            provider.applyBatch(newFailingBatch(LONG_BATCH, true));
+            fail("The batch must fail");
+        } catch (OperationApplicationException e) {
+            // Expected.
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        SystemClock.sleep(SETTLE_MS);
+
+        // Only the operations after the last yield point have been rolled back.
+        try {
+            int committed = countProducts();
+            assertTrue(committed > 0 && committed < LONG_BATCH);
+            assertEquals(1, listRequeries.get());
+        } finally {
+            list.close();
+        }
+    }
+
+    /**
+     * Helper method to build a batch that inserts products and then fails.
+     *
+     * @param products     is the number of products inserted by the batch.
+     * @param yieldAllowed is true if the batch can yield at any operation, false otherwise.
+     * @return the operations of the batch.
+     */
+    private ArrayList<ContentProviderOperation> newFailingBatch(int products, boolean yieldAllowed) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : fixture.getProducts(products)) {
+            operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(values).withYieldAllowed(yieldAllowed).build());
+        }
+
+        // The first product exists, so this assertion fails. It is not a yield point, so the
+        // last products are never committed.
+        operations.add(ContentProviderOperation.newAssertQuery(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1))
+                .withExpectedCount(0).build());
+        return operations;
+    }
+
+    /**
+     * Helper method to count the products of the database.
+     *
+     * @return the number of products.
+     */
+    private int countProducts() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to count the change notifications received by a cursor.
+     *
+     * @param cursor is the cursor.
+     * @return the counter of notifications.
+     */
+    private static AtomicInteger countNotifications(Cursor cursor) {
+        final AtomicInteger count = new AtomicInteger();
+        cursor.registerContentObserver(new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                count.incrementAndGet();
+            }
+        });
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumentation tests for the export of all the products as CSV and JSON files streamed by
+ * InventoryProvider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderExportTest {
+
+    // More products than fit in a single chunk of the export.
+    private static final int PRODUCTS = 1234;
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+    private ContentValues[] values;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("export_");
+        provider = fixture.getProvider();
+
+        values = fixture.getProducts(PRODUCTS);
+        // Fields that must be quoted or escaped.
+        values[0].put(ProductEntry.COLUMN_NAME_DESCRIPTION, "Big, \"red\"\nbox");
+        fixture.insertProducts(values);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void csvExportHasEveryProduct() throws IOException {
+        ParcelFileDescriptor file = provider.openFile(ProductEntry.EXPORT_URI, "r");
+        List<String> lines = readLines(new ParcelFileDescriptor.AutoCloseInputStream(file));
+
+        // Header, the quoted description split in two lines, and one line for every product.
+        assertEquals(PRODUCTS + 2, lines.size());
+        assertEquals("_id,name,description,image,price,current_quantity,supplier_name,supplier_email," +
+                "supplier_order_quantity", lines.get(0));
+        String first = toCsvLine(1, values[0]);
+        assertEquals(first.substring(0, first.indexOf('\n')), lines.get(1));
+        assertEquals(first.substring(first.indexOf('\n') + 1), lines.get(2));
+        assertEquals(toCsvLine(PRODUCTS, values[PRODUCTS - 1]), lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void jsonExportIsChosenByType() throws IOException, JSONException {
+        AssetFileDescriptor file = provider.openTypedAssetFile(ProductEntry.EXPORT_URI, "application/*", null);
+        StringBuilder json = new StringBuilder();
+        for (String line : readLines(file.createInputStream())) json.append(line).append('\n');
+        JSONArray products = new JSONArray(json.toString());
+
+        assertEquals(PRODUCTS, products.length());
+        assertEquals("Big, \"red\"\nbox", products.getJSONObject(0).getString(ProductEntry.COLUMN_NAME_DESCRIPTION));
+        assertEquals((long) values[PRODUCTS - 1].getAsLong(ProductEntry.COLUMN_NAME_PRICE),
+                products.getJSONObject(PRODUCTS - 1).getLong(ProductEntry.COLUMN_NAME_PRICE));
+    }
+
+    @Test
+    public void failedExportIsReportedToTheReader() throws IOException {
+        // The products can't be read, so the writer fails with an SQLiteException.
+        provider.getDbHelper().getWritableDatabase().execSQL("DROP TABLE " + ProductEntry.TABLE_NAME);
+
+        ParcelFileDescriptor file = provider.openFile(ProductEntry.EXPORT_URI, "r");
+        try {
+            readLines(new FileInputStream(file.getFileDescriptor()));
+            file.checkError();
+            fail("A failed export must be reported");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void streamTypesMatchFilter() {
+        assertArrayEquals(new String[]{ProductEntry.CONTENT_CSV_TYPE, ProductEntry.CONTENT_JSON_TYPE},
+                provider.getStreamTypes(ProductEntry.EXPORT_URI, "*/*"));
+        assertArrayEquals(new String[]{ProductEntry.CONTENT_CSV_TYPE},
+                provider.getStreamTypes(ProductEntry.EXPORT_URI, "text/*"));
+        assertEquals(ProductEntry.CONTENT_JSON_TYPE,
+                provider.getType(ProductEntry.buildExportUri(ProductEntry.EXPORT_FORMAT_JSON)));
+    }
+
+    /**
+     * Helper method to build the expected CSV line of a generated product. Only descriptions may
+     * need quotes, as generated names and suppliers never have commas, quotes or line breaks.
+     *
+     * @param id     is the _id of the product.
+     * @param values are the values of the product.
+     * @return the CSV line, without the line break at its end.
+     */
+    private static String toCsvLine(long id, ContentValues values) {
+        String description = values.getAsString(ProductEntry.COLUMN_NAME_DESCRIPTION);
+        if (description != null && description.matches("(?s).*[,\"\n].*"))
+            description = "\"" + description.replace("\"", "\"\"") + "\"";
+        return id + "," + values.getAsString(ProductEntry.COLUMN_NAME_PRODUCT) + "," +
+                (description == null ? "" : description) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_IMAGE) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_PRICE) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_QUANTITY) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL) + "," +
+                values.getAsString(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY);
+    }
+
+    /**
+     * Helper method to read all the lines of a stream.
+     *
+     * @param stream is the stream. It is closed once it has been read.
+     * @return the lines.
+     */
+    private static List<String> readLines(InputStream stream) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+/**
+ * InventoryProvider on a database of its own, for instrumentation tests and benchmarks. Every
+ * fixture starts with an empty database, whose file name has a prefix of the test, and deletes it
+ * when it is closed. Products are generated by a ProductGenerator with a fixed seed, so the
+ * products of every test are always the same.
+ */
+final class InventoryProviderFixture {
+
+    private static final long SEED = 20170718;  // Seed of the generated products.
+
+    private final Context context;
+    private final InventoryProvider provider;
+    private final ProductGenerator generator = new ProductGenerator(SEED);
+
+    /**
+     * Constructor for this class. Creates the content provider on an empty database.
+     *
+     * @param prefix is the prefix of the database file, like "ledger_".
+     */
+    InventoryProviderFixture(String prefix) {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), prefix);
+        context.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        provider = new InventoryProvider();
+        provider.attachInfo(context, null);
+    }
+
+    /**
+     * Get the content provider.
+     *
+     * @return the content provider.
+     */
+    InventoryProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Get the generator of the products.
+     *
+     * @return the generator.
+     */
+    ProductGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Create a content resolver that only resolves the authority of the content provider.
+     *
+     * @return the content resolver.
+     */
+    MockContentResolver newContentResolver() {
+        MockContentResolver contentResolver = new MockContentResolver();
+        contentResolver.addProvider(InventoryContract.CONTENT_AUTHORITY, provider);
+        return contentResolver;
+    }
+
+    /**
+     * Generate products 0 to count - 1, ready to be inserted. Product n gets the _id n + 1 when
+     * they are inserted in order into an empty database.
+     *
+     * @param count is the number of products.
+     * @return the values of the products.
+     */
+    ContentValues[] getProducts(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) values[i] = generator.getProduct(i);
+        return values;
+    }
+
+    /**
+     * Generate products 0 to count - 1, all of them with the same current quantity.
+     *
+     * @param count    is the number of products.
+     * @param quantity is the current quantity of every product.
+     * @return the values of the products.
+     */
+    ContentValues[] getProducts(int count, int quantity) {
+        ContentValues[] values = getProducts(count);
+        for (ContentValues product : values) product.put(ProductEntry.COLUMN_NAME_QUANTITY, quantity);
+        return values;
+    }
+
+    /**
+     * Insert products through bulkInsert().
+     *
+     * @param values are the values of the products.
+     * @return the values of the products.
+     */
+    ContentValues[] insertProducts(ContentValues[] values) {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, values);
+        return values;
+    }
+
+    /**
+     * Close the database of the content provider and delete it.
+     */
+    void close() {
+        provider.getDbHelper().close();
+        context.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+}
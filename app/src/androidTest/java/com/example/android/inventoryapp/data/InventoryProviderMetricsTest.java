@@ -0,0 +1,120 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryContract.ProviderMetricsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for the metrics of InventoryProvider, as read through the metrics URI and
+ * the dump() output.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderMetricsTest {
+
+    private static final int PRODUCTS = 10;     // Number of products in the database.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("metrics_");
+        provider = fixture.getProvider();
+        fixture.insertProducts(fixture.getProducts(PRODUCTS));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void callsAndRowsAreCounted() {
+        provider.query(ProductEntry.CONTENT_URI, null, null, null, null).close();
+        provider.query(ProductEntry.CONTENT_URI, null, null, null, null).close();
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_QUANTITY, 5);
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), values, null, null);
+        provider.getType(ProductEntry.STATS_URI);
+
+        assertEquals("1,10", readMetrics("products", "bulk_insert"));
+        assertEquals("2,20", readMetrics("products", "query"));
+        assertEquals("1,1", readMetrics("products/#", "update"));
+        assertEquals("1,1", readMetrics("products/stats", "get_type"));
+    }
+
+    @Test
+    public void resetClearsMetrics() {
+        provider.query(ProductEntry.CONTENT_URI, null, null, null, null).close();
+        provider.delete(ProviderMetricsEntry.CONTENT_URI, null, null);
+
+        // Only the reset itself is left.
+        Cursor cursor = provider.query(ProviderMetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("delete", cursor.getString(cursor.getColumnIndex(ProviderMetricsEntry.COLUMN_NAME_OPERATION)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void dumpListsOperations() {
+        provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null, null, null).close();
+        StringWriter output = new StringWriter();
+        provider.dump(null, new PrintWriter(output), new String[]{"--reset"});
+
+        assertTrue(output.toString().contains("products/#"));
+        assertTrue(output.toString().contains("Metrics reset."));
+        assertEquals(null, readMetrics("products/#", "query"));
+    }
+
+    @Test
+    public void latenciesFallInBuckets() {
+        assertEquals(0, ProviderMetrics.getBucket(0));
+        assertEquals(0, ProviderMetrics.getBucket(1023));
+        assertEquals(1, ProviderMetrics.getBucket(1024));
+        assertEquals(ProviderMetrics.BUCKETS - 1, ProviderMetrics.getBucket(Long.MAX_VALUE));
+        assertEquals(1, ProviderMetrics.getBucketLimit(0));
+        assertEquals(2, ProviderMetrics.getBucketLimit(1));
+    }
+
+    /**
+     * Helper method to read the metrics of an operation from the metrics URI.
+     *
+     * @param uri       is the name of the URI, like "products/#".
+     * @param operation is the name of the operation.
+     * @return the number of calls and rows as "calls,rows", or null if the operation hasn't been
+     * called.
+     */
+    private String readMetrics(String uri, String operation) {
+        Cursor cursor = provider.query(ProviderMetricsEntry.CONTENT_URI, new String[]{ProviderMetricsEntry.COLUMN_NAME_URI,
+                ProviderMetricsEntry.COLUMN_NAME_OPERATION, ProviderMetricsEntry.COLUMN_NAME_CALLS,
+                ProviderMetricsEntry.COLUMN_NAME_ROWS}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (uri.equals(cursor.getString(0)) && operation.equals(cursor.getString(1)))
+                    return cursor.getLong(2) + "," + cursor.getLong(3);
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
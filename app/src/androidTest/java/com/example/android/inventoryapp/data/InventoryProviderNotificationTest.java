@@ -0,0 +1,148 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for the change notifications of InventoryProvider. Every notification
+ * received by a cursor is a requery for the loader that owns it, so the tests count them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderNotificationTest {
+
+    private static final int PRODUCTS = 100;        // Number of products in the database.
+    private static final int SALES = 1000;          // Number of single-unit sales in the burst.
+    private static final long SETTLE_MS = 1000;     // Time for delivering pending notifications.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+    private ContentValues[] values;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("notification_");
+        provider = fixture.getProvider();
+        values = fixture.insertProducts(fixture.getProducts(PRODUCTS, SALES));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void salesOnlyRequeryTheSoldProduct() {
+        long soldId = 1;
+        long otherId = 2;
+        Cursor page = provider.query(ProductEntry.buildPageUri(ProductEntry._ID, 50, null, 0), null, null, null, null);
+        Cursor search = provider.query(ProductEntry.buildSearchUri(values[0].getAsString(ProductEntry.COLUMN_NAME_PRODUCT)),
+                null, null, null, null);
+        Cursor sold = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, soldId), null, null, null, null);
+        Cursor other = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, otherId), null, null, null, null);
+        AtomicInteger pageRequeries = countNotifications(page);
+        AtomicInteger searchRequeries = countNotifications(search);
+        AtomicInteger soldRequeries = countNotifications(sold);
+        AtomicInteger otherRequeries = countNotifications(other);
+
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, -1);
+        for (int i = 0; i < SALES; i++)
+            provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(soldId), extras);
+        SystemClock.sleep(SETTLE_MS);
+
+        try {
+            assertEquals(0, pageRequeries.get());
+            assertEquals(0, searchRequeries.get());
+            assertEquals(0, otherRequeries.get());
+            assertTrue(soldRequeries.get() > 0);
+        } finally {
+            page.close();
+            search.close();
+            sold.close();
+            other.close();
+        }
+    }
+
+    @Test
+    public void insertionRequeriesListsOnly() {
+        Cursor page = provider.query(ProductEntry.buildPageUri(ProductEntry._ID, 50, null, 0), null, null, null, null);
+        Cursor product = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null, null, null);
+        AtomicInteger pageRequeries = countNotifications(page);
+        AtomicInteger productRequeries = countNotifications(product);
+
+        provider.insert(ProductEntry.CONTENT_URI, fixture.getGenerator().getProduct(PRODUCTS));
+        SystemClock.sleep(SETTLE_MS);
+
+        try {
+            assertTrue(pageRequeries.get() > 0);
+            assertEquals(0, productRequeries.get());
+        } finally {
+            page.close();
+            product.close();
+        }
+    }
+
+    @Test
+    public void sortKeyChangesRequeryPagesSortedByThem() {
+        String supplier = ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT;
+        Cursor page = provider.query(ProductEntry.buildPageUri(supplier, 50, null, 0), null, null, null, null);
+        AtomicInteger pageRequeries = countNotifications(page);
+
+        try {
+            // Sales don't change the order of the page.
+            Bundle extras = new Bundle();
+            extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, -1);
+            provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, "1", extras);
+            SystemClock.sleep(SETTLE_MS);
+            assertEquals(0, pageRequeries.get());
+
+            // A new value of the sort column does.
+            ContentValues supplierValues = new ContentValues();
+            supplierValues.put(supplier, "Another supplier");
+            provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), supplierValues, null, null);
+            SystemClock.sleep(SETTLE_MS);
+            assertTrue(pageRequeries.get() > 0);
+        } finally {
+            page.close();
+        }
+
+        // Pages can't be sorted by quantity, as sales don't requery the lists.
+        assertNull(provider.query(ProductEntry.buildPageUri(ProductEntry.COLUMN_NAME_QUANTITY, 50, null, 0),
+                null, null, null, null));
+    }
+
+    /**
+     * Helper method to count the change notifications received by a cursor.
+     *
+     * @param cursor is the cursor.
+     * @return the counter of notifications.
+     */
+    private static AtomicInteger countNotifications(Cursor cursor) {
+        final AtomicInteger count = new AtomicInteger();
+        cursor.registerContentObserver(new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                count.incrementAndGet();
+            }
+        });
+        return count;
+    }
+}
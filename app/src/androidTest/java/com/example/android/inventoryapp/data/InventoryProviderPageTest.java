@@ -0,0 +1,142 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Instrumentation tests for the pages of products read from InventoryProvider: walking all the
+ * pages must return every product once and in order, also when many products share the value of
+ * the sort column or a selection is given, and invalid page queries must return null.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderPageTest {
+
+    private static final int PRODUCTS = 50;     // Number of products in the database.
+    private static final int PAGE_SIZE = 7;     // Number of products in every page.
+    private static final int SUPPLIERS = 3;     // Number of different suppliers of the products.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("page_");
+        provider = fixture.getProvider();
+
+        // Product n has supplier n % SUPPLIERS, so every supplier is shared by many products.
+        ContentValues[] values = fixture.getProducts(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) values[i].put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, "Supplier " + i % SUPPLIERS);
+        fixture.insertProducts(values);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void pagesByIdReturnEveryProductOnce() {
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= PRODUCTS; id++) expected.add(id);
+
+        assertEquals(expected, readAllPages(ProductEntry._ID, null, null));
+    }
+
+    @Test
+    public void pagesWithTiesReturnEveryProductOnce() {
+        // Products sorted by supplier, and then by _id.
+        List<Long> expected = new ArrayList<>();
+        for (int supplier = 0; supplier < SUPPLIERS; supplier++) {
+            for (long id = supplier + 1; id <= PRODUCTS; id += SUPPLIERS) expected.add(id);
+        }
+
+        assertEquals(expected, readAllPages(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, null, null));
+    }
+
+    @Test
+    public void pagesKeepTheSelection() {
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= PRODUCTS; id += SUPPLIERS) expected.add(id);
+
+        assertEquals(expected, readAllPages(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+                ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT + " = ?", new String[]{"Supplier 0"}));
+    }
+
+    @Test
+    public void invalidPagesReturnNull() {
+        String supplier = ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT;
+        Uri firstPage = ProductEntry.buildPageUri(supplier, PAGE_SIZE, null, 0);
+
+        // Keys without the value of the sort column, without the _id or with an invalid _id.
+        assertNull(query(firstPage.buildUpon().appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER, "1").build()));
+        assertNull(query(firstPage.buildUpon().appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID, "10").build()));
+        assertNull(query(ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER, "ten").build()));
+
+        // Sort orders, page sizes and sort columns that can't be used.
+        assertNull(provider.query(firstPage, null, null, null, ProductEntry.COLUMN_NAME_PRODUCT));
+        assertNull(query(ProductEntry.buildPageUri(supplier, 0, null, 0)));
+        assertNull(query(ProductEntry.buildPageUri(ProductEntry.COLUMN_NAME_PRICE, PAGE_SIZE, null, 0)));
+
+        // The quantity is indexed, but its changes don't notify the lists.
+        assertNull(query(ProductEntry.buildPageUri(ProductEntry.COLUMN_NAME_QUANTITY, PAGE_SIZE, null, 0)));
+    }
+
+    /**
+     * Helper method to read all the pages of products, one after another.
+     *
+     * @param sortColumn    is the column used for sorting the products.
+     * @param selection     is an optional filter for the products.
+     * @param selectionArgs are the arguments for the optional filter.
+     * @return the _id of all the products read, in order.
+     */
+    private List<Long> readAllPages(String sortColumn, String selection, String[] selectionArgs) {
+        List<Long> ids = new ArrayList<>();
+        String afterValue = null;
+        long afterId = 0;
+        int pageCount;
+        do {
+            Cursor page = provider.query(ProductEntry.buildPageUri(sortColumn, PAGE_SIZE, afterValue, afterId),
+                    new String[]{ProductEntry._ID, sortColumn}, selection, selectionArgs, null);
+            try {
+                pageCount = page.getCount();
+                while (page.moveToNext()) ids.add(page.getLong(0));
+                if (page.moveToLast()) {
+                    afterId = page.getLong(0);
+                    afterValue = page.getString(1);
+                }
+            } finally {
+                page.close();
+            }
+        } while (pageCount == PAGE_SIZE);
+        return ids;
+    }
+
+    /**
+     * Helper method to query a page URI without projection, selection or sort order.
+     *
+     * @param uri is the page URI.
+     * @return the cursor, or null if the query is not valid.
+     */
+    private Cursor query(Uri uri) {
+        Cursor cursor = provider.query(uri, null, null, null, null);
+        if (cursor != null) cursor.close();
+        return cursor;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Instrumentation tests for the full-text search of InventoryProvider: the index must follow every
+ * change of the products, results must be ranked and limited, and snippets must be plain text.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderSearchTest {
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("search_");
+        provider = fixture.getProvider();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void searchFollowsProductChanges() {
+        fixture.insertProducts(new ContentValues[]{newProduct("Red chair", "Wooden chair"), newProduct("Blue table", "Oak table")});
+        assertEquals(Arrays.asList(1L), search("red"));
+        assertEquals(Arrays.asList(2L), search("oak"));
+
+        // Updated names and descriptions are indexed again.
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, "Green chair");
+        values.put(ProductEntry.COLUMN_NAME_DESCRIPTION, "Pine chair");
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), values, null, null);
+        assertEquals(new ArrayList<Long>(), search("red"));
+        assertEquals(new ArrayList<Long>(), search("wooden"));
+        assertEquals(Arrays.asList(1L), search("green pine"));
+
+        // Deleted products are removed from the index.
+        provider.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 2), null, null);
+        assertEquals(new ArrayList<Long>(), search("oak"));
+    }
+
+    @Test
+    public void nameMatchesRankFirst() {
+        fixture.insertProducts(new ContentValues[]{
+                newProduct("Armchair", "Goes with the lamp"),
+                newProduct("Desk lamp", "Bright"),
+                newProduct("Bookcase", "Lamp not included"),
+                newProduct("Floor lamp", "Tall")});
+
+        // Name matches sorted by name, and then description matches sorted by name.
+        assertEquals(Arrays.asList(2L, 4L, 1L, 3L), search("lamp"));
+    }
+
+    @Test
+    public void resultsAreLimited() {
+        ContentValues[] values = new ContentValues[ProductEntry.DEFAULT_SEARCH_LIMIT + 10];
+        for (int i = 0; i < values.length; i++) values[i] = newProduct(String.format("Chair %03d", i), null);
+        values[values.length - 1].put(ProductEntry.COLUMN_NAME_PRODUCT, "Stool");
+        values[values.length - 1].put(ProductEntry.COLUMN_NAME_DESCRIPTION, "Chair without back");
+        fixture.insertProducts(values);
+
+        // The best ranked products are returned, so the description match is left out.
+        List<Long> results = search("chair");
+        assertEquals(ProductEntry.DEFAULT_SEARCH_LIMIT, results.size());
+        assertEquals(Arrays.asList(1L, 2L, 3L), results.subList(0, 3));
+        assertEquals(Arrays.asList(1L, 2L, 3L), search(ProductEntry.buildSearchUri("chair", 3)));
+        assertNull(provider.query(ProductEntry.buildSearchUri("chair", 0), null, null, null, null));
+    }
+
+    @Test
+    public void snippetsArePlainText() {
+        fixture.insertProducts(new ContentValues[]{newProduct("Box", "Big <b>red</b> & blue box")});
+
+        Cursor cursor = provider.query(ProductEntry.buildSearchUri("blue"), new String[]{ProductEntry.COLUMN_NAME_SNIPPET},
+                null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Big <b>red</b> & " + ProductEntry.SNIPPET_MATCH_START + "blue" + ProductEntry.SNIPPET_MATCH_END +
+                    " box", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to generate a product with a given name and description.
+     *
+     * @param name        is the name of the product.
+     * @param description is the description of the product, or null.
+     * @return the values of the product.
+     */
+    private ContentValues newProduct(String name, String description) {
+        ContentValues values = fixture.getGenerator().getProduct(0);
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, name);
+        values.put(ProductEntry.COLUMN_NAME_DESCRIPTION, description);
+        return values;
+    }
+
+    /**
+     * Helper method to search products.
+     *
+     * @param text is the text to search.
+     * @return the _id of the products found, in the order of the results.
+     */
+    private List<Long> search(String text) {
+        return search(ProductEntry.buildSearchUri(text));
+    }
+
+    /**
+     * Helper method to query a search URI.
+     *
+     * @param uri is the search URI.
+     * @return the _id of the products found, in the order of the results.
+     */
+    private List<Long> search(Uri uri) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = provider.query(uri, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            while (cursor.moveToNext()) ids.add(cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scaling suite for InventoryProvider on a device. For every table size, a new database is filled
+ * with ProductGenerator through bulkInsert() and the operations of MainActivity and
+ * ProductActivity are timed: reading a page of the list, reading the whole list, looking up a
+ * single product, selling a unit and deleting all the products (clearDatabase). The time per
+ * operation at every size, and how fast it grows from one size to the next, are written to logcat
+ * and as JSON to the external files directory of the app, as scaling.json.
+ * <p>
+ * Filling a million products takes minutes, so the suite only runs when asked to:
+ * <pre>
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.scaling=true
+ * </pre>
+ * Table sizes are given by the scalingSizes argument (10000,100000,1000000 by default).
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryScalingBenchmark {
+
+    private static final String LOG_TAG = InventoryScalingBenchmark.class.getSimpleName();
+
+    private static final String DEFAULT_SIZES = "10000,100000,1000000";     // Default table sizes.
+
+    private static final int PAGE_SIZE = 50;            // Number of products in every page, as in MainActivity.
+    private static final int PAGE_QUERIES = 200;        // Number of page queries per size.
+    private static final int POINT_QUERIES = 2000;      // Number of single product queries per size.
+    private static final int SALES = 2000;              // Number of units sold per size.
+
+    // Columns queried by MainActivity for the list of products.
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_VERSION,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_QUANTITY};
+
+    // Names of the timed operations, in the order of the results of every size.
+    private static final String[] OPERATIONS = {"fill", "list_page", "list_full", "point_lookup", "sale", "clear_database"};
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("scaling")));
+    }
+
+    @After
+    public void tearDown() {
+        closeProvider();
+    }
+
+    @Test
+    public void operationsScaleWithRows() throws IOException {
+        String[] sizes = InstrumentationRegistry.getArguments().getString("scalingSizes", DEFAULT_SIZES).split(",");
+        int[] rows = new int[sizes.length];
+        double[][] nanosPerOperation = new double[sizes.length][];
+        for (int size = 0; size < sizes.length; size++) {
+            rows[size] = Integer.parseInt(sizes[size].trim());
+            nanosPerOperation[size] = run(rows[size]);
+        }
+
+        // Growth of every operation between consecutive sizes, as the exponent k of rows^k: about 0
+        // for constant time, 1 for linear time.
+        List<String> results = new ArrayList<>();
+        for (int size = 0; size < sizes.length; size++) {
+            for (int operation = 0; operation < OPERATIONS.length; operation++) {
+                double nanos = nanosPerOperation[size][operation];
+                String exponent = "null";
+                if (size > 0) {
+                    exponent = String.format(Locale.US, "%.2f", Math.log(nanos / nanosPerOperation[size - 1][operation]) /
+                            Math.log((double) rows[size] / rows[size - 1]));
+                }
+                results.add(String.format(Locale.US, "{\"operation\": \"%s\", \"rows\": %d, \"nanos_per_operation\": %.0f, " +
+                        "\"growth_exponent\": %s}", OPERATIONS[operation], rows[size], nanos, exponent));
+                Log.i(LOG_TAG, String.format(Locale.US, "%-14s %8d rows: %12.0f ns/op, growth exponent %s",
+                        OPERATIONS[operation], rows[size], nanos, exponent));
+            }
+        }
+        writeResults(new File(InstrumentationRegistry.getTargetContext().getExternalFilesDir(null), "scaling.json"), results);
+    }
+
+    /**
+     * Fill a new database with the given number of products and time every operation on it.
+     *
+     * @param rows is the number of products.
+     * @return the time per operation of every operation, in nanoseconds, in the order of
+     * OPERATIONS. Filling the database is timed per product.
+     */
+    private double[] run(int rows) {
+        closeProvider();
+        fixture = new InventoryProviderFixture("scaling_");
+        provider = fixture.getProvider();
+        Random random = new Random(rows);
+        double[] nanos = new double[OPERATIONS.length];
+
+        // Fill the database.
+        long start = System.nanoTime();
+        assertEquals(rows, fixture.getGenerator().insertProducts(provider, 0, rows));
+        nanos[0] = (System.nanoTime() - start) / (double) rows;
+
+        // Pages of the list at random positions, as MainActivity loads them while scrolling.
+        start = System.nanoTime();
+        for (int i = 0; i < PAGE_QUERIES; i++) {
+            long afterId = random.nextInt(rows);
+            Cursor cursor = provider.query(ProductEntry.buildPageUri(ProductEntry._ID, PAGE_SIZE,
+                    afterId == 0 ? null : String.valueOf(afterId), afterId), LIST_PROJECTION, null, null, null);
+            while (cursor.moveToNext()) cursor.getString(2);
+            cursor.close();
+        }
+        nanos[1] = (System.nanoTime() - start) / (double) PAGE_QUERIES;
+
+        // The whole list at once.
+        start = System.nanoTime();
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, LIST_PROJECTION, null, null, null);
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getString(2);
+            count++;
+        }
+        cursor.close();
+        nanos[2] = System.nanoTime() - start;
+        assertEquals(rows, count);
+
+        // Single products, as ProductActivity reads them.
+        start = System.nanoTime();
+        for (int i = 0; i < POINT_QUERIES; i++) {
+            cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(rows)),
+                    null, null, null, null);
+            cursor.moveToFirst();
+            cursor.close();
+        }
+        nanos[3] = (System.nanoTime() - start) / (double) POINT_QUERIES;
+
+        // Sales of a unit, as the sale button of the list makes them.
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, -1);
+        start = System.nanoTime();
+        for (int i = 0; i < SALES; i++)
+            provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(1 + random.nextInt(rows)), extras);
+        nanos[4] = (System.nanoTime() - start) / (double) SALES;
+
+        // Deletion of all the products, as MainActivity.clearDatabase() does.
+        start = System.nanoTime();
+        assertEquals(rows, provider.delete(ProductEntry.CONTENT_URI, null, null));
+        nanos[5] = System.nanoTime() - start;
+        return nanos;
+    }
+
+    /**
+     * Helper method to write all the results as a JSON document.
+     *
+     * @param file    is the output file.
+     * @param results are the JSON objects of every result.
+     */
+    private static void writeResults(File file, List<String> results) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("{\"benchmark\": \"scaling\", \"database_version\": " + InventoryDbHelper.DATABASE_VERSION +
+                    ", \"results\": [\n");
+            for (int i = 0; i < results.size(); i++)
+                writer.write("  " + results.get(i) + (i + 1 < results.size() ? ",\n" : "\n"));
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file);
+    }
+
+    /**
+     * Helper method to close and delete the database of the current provider, if any.
+     */
+    private void closeProvider() {
+        if (fixture != null) fixture.close();
+        fixture = null;
+        provider = null;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockSnapshotEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumentation tests for the stock movements ledger: every quantity change made through
+ * InventoryProvider must be recorded, compaction must keep the rebuilt quantities and verification
+ * must report the products whose quantity doesn't match the ledger.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryStockLedgerTest {
+
+    private static final int PRODUCTS = 10;     // Number of products in the database.
+    private static final int QUANTITY = 100;    // Initial quantity of every product.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("ledger_");
+        provider = fixture.getProvider();
+        fixture.insertProducts(fixture.getProducts(PRODUCTS, QUANTITY));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void everyQuantityChangeIsRecorded() {
+        adjustQuantity(1, -1);
+        adjustQuantity(1, -2);
+        adjustQuantity(2, 5);
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_QUANTITY, 7);
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 3), values, null, null);
+
+        // Updates that don't change the quantity are not recorded.
+        values.clear();
+        values.put(ProductEntry.COLUMN_NAME_PRICE, 999);
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 4), values, null, null);
+
+        // One movement for the initial quantity of every product, and one for every change.
+        assertEquals(PRODUCTS + 4, countRows(StockMovementEntry.TABLE_NAME));
+        assertNoDrift(provider.call(InventoryContract.METHOD_VERIFY_STOCK, null, null));
+    }
+
+    @Test
+    public void invalidAdjustmentsAreRejected() {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, -1);
+        for (Bundle result : new Bundle[]{
+                provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, null, extras),
+                provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, "one", extras),
+                provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, "1", null),
+                provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, "1", new Bundle())}) {
+            assertEquals(ProductEntry.QUANTITY_NOT_ADJUSTED, result.getInt(InventoryContract.EXTRA_QUANTITY));
+        }
+
+        // Nothing has been recorded.
+        assertEquals(PRODUCTS, countRows(StockMovementEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void compactionKeepsQuantities() {
+        adjustQuantity(1, -10);
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_COMPACT_BEFORE, Long.MAX_VALUE);
+        Bundle result = provider.call(InventoryContract.METHOD_COMPACT_STOCK_MOVEMENTS, null, extras);
+        adjustQuantity(1, -5);
+
+        assertEquals(PRODUCTS + 1, result.getInt(InventoryContract.EXTRA_MOVEMENTS_COMPACTED));
+        assertEquals(1, countRows(StockMovementEntry.TABLE_NAME));
+        assertEquals(PRODUCTS, countRows(StockSnapshotEntry.TABLE_NAME));
+        assertNoDrift(provider.call(InventoryContract.METHOD_VERIFY_STOCK, null, null));
+    }
+
+    @Test
+    public void verificationReportsDrift() {
+        adjustQuantity(1, -10);
+        SQLiteDatabase db = provider.getDbHelper().getWritableDatabase();
+        db.delete(StockMovementEntry.TABLE_NAME, StockMovementEntry.COLUMN_NAME_DELTA + " = -10", null);
+
+        Bundle result = provider.call(InventoryContract.METHOD_VERIFY_STOCK, null, null);
+        assertEquals(PRODUCTS, result.getInt(InventoryContract.EXTRA_PRODUCTS_CHECKED));
+        assertArrayEquals(new long[]{1}, result.getLongArray(InventoryContract.EXTRA_DRIFT_PRODUCT_IDS));
+        assertArrayEquals(new long[]{QUANTITY - 10}, result.getLongArray(InventoryContract.EXTRA_DRIFT_QUANTITIES));
+        assertArrayEquals(new long[]{QUANTITY}, result.getLongArray(InventoryContract.EXTRA_DRIFT_LEDGER_QUANTITIES));
+    }
+
+    @Test
+    public void deletedProductsCloseTheLedger() {
+        adjustQuantity(1, -10);
+        provider.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null);
+
+        // The movements of the deleted product are kept, and the last one takes it down to zero.
+        SQLiteDatabase db = provider.getDbHelper().getReadableDatabase();
+        assertEquals(PRODUCTS + 2, countRows(StockMovementEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT SUM(" + StockMovementEntry.COLUMN_NAME_DELTA + ") FROM " +
+                StockMovementEntry.TABLE_NAME + " WHERE " + StockMovementEntry.COLUMN_NAME_PRODUCT_ID + " = 1", null));
+
+        // Compaction removes the deleted product from the ledger.
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_COMPACT_BEFORE, Long.MAX_VALUE);
+        provider.call(InventoryContract.METHOD_COMPACT_STOCK_MOVEMENTS, null, extras);
+        assertEquals(0, countRows(StockMovementEntry.TABLE_NAME));
+        assertEquals(PRODUCTS - 1, countRows(StockSnapshotEntry.TABLE_NAME));
+    }
+
+    /**
+     * Helper method to add a number of units to the current quantity of a product.
+     */
+    private void adjustQuantity(long productId, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, delta);
+        provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(productId), extras);
+    }
+
+    /**
+     * Helper method to count the rows of a table.
+     */
+    private long countRows(String table) {
+        return DatabaseUtils.queryNumEntries(provider.getDbHelper().getReadableDatabase(), table);
+    }
+
+    /**
+     * Helper method to check that a verification has checked every product without finding drift.
+     */
+    private static void assertNoDrift(Bundle result) {
+        assertEquals(PRODUCTS, result.getInt(InventoryContract.EXTRA_PRODUCTS_CHECKED));
+        assertEquals(0, result.getLongArray(InventoryContract.EXTRA_DRIFT_PRODUCT_IDS).length);
+    }
+}
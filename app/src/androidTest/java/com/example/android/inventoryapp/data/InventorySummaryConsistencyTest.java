@@ -0,0 +1,107 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation test checking that the inventory summary maintained by triggers always matches a
+ * full aggregate of the "products" table, after a random sequence of operations made through
+ * InventoryProvider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventorySummaryConsistencyTest {
+
+    private static final long SEED = 20170718;      // Seed of the random operations.
+    private static final int OPERATIONS = 2000;     // Number of random operations.
+    private static final int CHECK_INTERVAL = 100;  // Number of operations between two checks.
+
+    // Columns of the summary, in the same order as the aggregate of SQL_AGGREGATE.
+    private static final String[] SUMMARY_PROJECTION = {
+            InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT,
+            InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS,
+            InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE,
+            InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT};
+
+    // Full aggregate of the "products" table.
+    private static final String SQL_AGGREGATE = "SELECT COUNT(*), IFNULL(SUM(" + ProductEntry.COLUMN_NAME_QUANTITY +
+            "), 0), IFNULL(SUM(" + ProductEntry.COLUMN_NAME_PRICE + " * " + ProductEntry.COLUMN_NAME_QUANTITY +
+            "), 0), IFNULL(SUM(" + ProductEntry.COLUMN_NAME_QUANTITY + " <= " + InventorySummaryEntry.LOW_STOCK_QUANTITY +
+            "), 0) FROM " + ProductEntry.TABLE_NAME;
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("summary_");
+        provider = fixture.getProvider();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void summaryMatchesAggregateAfterRandomOperations() {
+        Random random = new Random(SEED);
+        long lastId = 0;
+        for (int i = 1; i <= OPERATIONS; i++) {
+            long productId = lastId == 0 ? 1 : 1 + random.nextInt((int) lastId);
+            Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId);
+            int operation = random.nextInt(10);
+            if (operation < 3 || lastId == 0) {
+                Uri uri = provider.insert(ProductEntry.CONTENT_URI, fixture.getGenerator().getProduct(i));
+                if (uri != null) lastId = ContentUris.parseId(uri);
+            } else if (operation < 7) {
+                Bundle extras = new Bundle();
+                extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, random.nextInt(11) - 5);
+                provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(productId), extras);
+            } else if (operation < 9) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_NAME_PRICE, 1 + random.nextInt(10000));
+                if (random.nextBoolean()) values.put(ProductEntry.COLUMN_NAME_QUANTITY, random.nextInt(20));
+                provider.update(productUri, values, null, null);
+            } else {
+                provider.delete(productUri, null, null);
+            }
+
+            if (i % CHECK_INTERVAL == 0) assertSummaryMatchesAggregate();
+        }
+    }
+
+    /**
+     * Helper method to compare the summary returned by the stats URI with a full aggregate.
+     */
+    private void assertSummaryMatchesAggregate() {
+        Cursor summary = provider.query(ProductEntry.STATS_URI, SUMMARY_PROJECTION, null, null, null);
+        Cursor aggregate = provider.getDbHelper().getReadableDatabase().rawQuery(SQL_AGGREGATE, null);
+        try {
+            assertEquals(1, summary.getCount());
+            assertTrue(summary.moveToFirst());
+            assertTrue(aggregate.moveToFirst());
+            for (int column = 0; column < SUMMARY_PROJECTION.length; column++)
+                assertEquals(SUMMARY_PROJECTION[column], aggregate.getLong(column), summary.getLong(column));
+        } finally {
+            summary.close();
+            aggregate.close();
+        }
+    }
+}
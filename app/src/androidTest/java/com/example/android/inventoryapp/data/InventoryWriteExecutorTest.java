@@ -0,0 +1,114 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for InventoryWriteExecutor. Writes are queued from the main thread with a
+ * StrictMode policy that kills the process on any disk access, so they only pass if every write
+ * runs on the writer thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryWriteExecutorTest {
+
+    private static final long TIMEOUT_S = 10;   // Maximum time for the queued writes.
+
+    private InventoryProviderFixture fixture;
+    private InventoryWriteExecutor writeExecutor;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("executor_");
+
+        // Open the database here, so the main thread doesn't have to create it.
+        fixture.getProvider().getDbHelper().getWritableDatabase();
+        writeExecutor = new InventoryWriteExecutor(fixture.newContentResolver());
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void writesNeverRunOnMainThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(4);
+        final AtomicReference<Uri> insertedUri = new AtomicReference<>();
+        final AtomicInteger quantity = new AtomicInteger();
+        final AtomicInteger rowsDeleted = new AtomicInteger();
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+                try {
+                    // Insert a product, then sell and restock units and finally delete it. The
+                    // writes run in order, so every write sees the previous ones.
+                    writeExecutor.insert(fixture.getProducts(1, 10)[0], new InventoryWriteExecutor.Callback<Uri>() {
+                        @Override
+                        public void onWriteComplete(Uri result) {
+                            insertedUri.set(result);
+                            callbackThread.set(Thread.currentThread());
+                            done.countDown();
+                        }
+                    });
+                    writeExecutor.adjustQuantity(1, -3, new InventoryWriteExecutor.Callback<Integer>() {
+                        @Override
+                        public void onWriteComplete(Integer result) {
+                            done.countDown();
+                        }
+                    });
+                    writeExecutor.adjustQuantity(1, 5, new InventoryWriteExecutor.Callback<Integer>() {
+                        @Override
+                        public void onWriteComplete(Integer result) {
+                            quantity.set(result);
+                            done.countDown();
+                        }
+                    });
+                    writeExecutor.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null, new InventoryWriteExecutor.Callback<Integer>() {
+                        @Override
+                        public void onWriteComplete(Integer result) {
+                            rowsDeleted.set(result);
+                            done.countDown();
+                        }
+                    });
+                } finally {
+                    StrictMode.setThreadPolicy(oldPolicy);
+                }
+            }
+        });
+
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertNotNull(insertedUri.get());
+        assertEquals(1, ContentUris.parseId(insertedUri.get()));
+        assertEquals(12, quantity.get());
+        assertEquals(1, rowsDeleted.get());
+        assertEquals(InstrumentationRegistry.getTargetContext().getMainLooper().getThread(), callbackThread.get());
+    }
+}
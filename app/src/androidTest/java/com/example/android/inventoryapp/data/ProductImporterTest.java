@@ -0,0 +1,194 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for the chunked bulk import of products and its checkpoints.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImporterTest {
+
+    // More rows than fit in two chunks of the import.
+    private static final int ROWS = 1200;
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+    private ProductImporter importer;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        fixture = new InventoryProviderFixture("import_");
+        provider = fixture.getProvider();
+        importer = new ProductImporter(fixture.newContentResolver());
+
+        // Every 100th row has no name, so it must be rejected.
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "import_products.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(ProductEntry.COLUMN_NAME_PRODUCT + "," + ProductEntry.COLUMN_NAME_IMAGE + "," +
+                    ProductEntry.COLUMN_NAME_PRICE + "," + ProductEntry.COLUMN_NAME_QUANTITY + "," +
+                    ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT + "," + ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL + "\r\n");
+            for (int i = 0; i < ROWS; i++) {
+                ContentValues product = fixture.getGenerator().getProduct(i);
+                writer.write((i % 100 == 99 ? "" : "\"" + product.getAsString(ProductEntry.COLUMN_NAME_PRODUCT) + ", imported\"") + "," +
+                        product.getAsString(ProductEntry.COLUMN_NAME_IMAGE) + "," +
+                        product.getAsString(ProductEntry.COLUMN_NAME_PRICE) + "," +
+                        product.getAsString(ProductEntry.COLUMN_NAME_QUANTITY) + "," +
+                        product.getAsString(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT) + "," +
+                        product.getAsString(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL) + "\r\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+        file.delete();
+    }
+
+    @Test
+    public void validRowsAreInserted() throws IOException {
+        ProductImporter.Result result = importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+
+        assertEquals(ROWS, result.getRows());
+        assertEquals(ROWS - ROWS / 100, result.getInserted());
+        assertEquals(ROWS / 100, result.getRejected());
+        assertEquals(0, result.getResumedFromRow());
+        assertArrayEquals(new long[]{99, ProductEntry.SQL_ERROR_PRODUCT_NAME, ProductValidator.VIOLATION_PRODUCT_NAME},
+                result.getRejections().get(0));
+        assertEquals(ROWS - ROWS / 100, countProducts());
+
+        // Importing the same file again doesn't insert anything.
+        result = importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        assertEquals(ROWS, result.getResumedFromRow());
+        assertEquals(ROWS - ROWS / 100, countProducts());
+    }
+
+    @Test
+    public void fileIsImportedAgainAfterClearingProducts() throws IOException {
+        importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+
+        ProductImporter.Result result = importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        assertEquals(0, result.getResumedFromRow());
+        assertEquals(ROWS - ROWS / 100, result.getInserted());
+        assertEquals(ROWS - ROWS / 100, countProducts());
+    }
+
+    @Test
+    public void changedFileIsImportedAgain() throws IOException {
+        importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+
+        // A new version of the file with the same size.
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        ProductImporter.Result result = importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        assertEquals(0, result.getResumedFromRow());
+        assertEquals(2 * (ROWS - ROWS / 100), countProducts());
+    }
+
+    @Test
+    public void importResumesFromCheckpoint() throws IOException {
+        // The first chunk was committed by an interrupted run, without inserting anything.
+        String source = importer.getSourceKey(Uri.fromFile(file));
+        assertEquals(500, importChunk(source, 0, 500, new ContentValues[0]).getLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW));
+
+        ProductImporter.Result result = importer.importProducts(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        assertEquals(500, result.getResumedFromRow());
+        assertEquals(ROWS, result.getRows());
+        assertEquals(ROWS - 500 - (ROWS - 500) / 100, countProducts());
+    }
+
+    @Test
+    public void importRunsOneChunkPerCall() throws IOException {
+        ProductImporter.Import fileImport = importer.newImport(Uri.fromFile(file), ProductEntry.CONTENT_CSV_TYPE);
+        try {
+            // The first call only opens the file, and every other call commits a single chunk.
+            assertFalse(fileImport.importNextChunk());
+            assertEquals(0, countProducts());
+            assertFalse(fileImport.importNextChunk());
+            assertEquals(500 - 5, countProducts());
+            assertFalse(fileImport.importNextChunk());
+            assertEquals(1000 - 10, countProducts());
+            assertNull(fileImport.getResult());
+            assertTrue(fileImport.importNextChunk());
+        } finally {
+            fileImport.close();
+        }
+
+        assertEquals(ROWS - ROWS / 100, fileImport.getResult().getInserted());
+        assertEquals(100, fileImport.getProgress());
+        assertEquals(ROWS - ROWS / 100, countProducts());
+    }
+
+    @Test
+    public void chunksAreCommittedOnce() {
+        ContentValues[] rows = fixture.getProducts(2);
+
+        assertEquals(2, importChunk("source", 0, 2, rows).getLong(InventoryContract.EXTRA_IMPORT_INSERTED));
+
+        // A chunk sent again is ignored, and a chunk after a gap is refused.
+        Bundle checkpoint = importChunk("source", 0, 2, rows);
+        assertEquals(2, checkpoint.getLong(InventoryContract.EXTRA_IMPORT_INSERTED));
+        assertNull(importChunk("source", 4, 6, rows));
+        assertEquals(2, countProducts());
+        assertFalse(checkpoint.getBoolean(InventoryContract.EXTRA_IMPORT_COMPLETED));
+    }
+
+    /**
+     * Helper method to send a chunk of an import to the content provider.
+     *
+     * @param source   is the identifier of the imported file.
+     * @param firstRow is the number of the first row of the chunk.
+     * @param nextRow  is the number of the row right after the chunk.
+     * @param rows     are the values of the rows of the chunk.
+     * @return the checkpoint returned by the content provider.
+     */
+    private Bundle importChunk(String source, long firstRow, long nextRow, ContentValues[] rows) {
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_IMPORT_FIRST_ROW, firstRow);
+        extras.putLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW, nextRow);
+        extras.putParcelableArray(InventoryContract.EXTRA_IMPORT_VALUES, rows);
+        return provider.call(InventoryContract.METHOD_IMPORT_CHUNK, source, extras);
+    }
+
+    /**
+     * Helper method to count the products of the database.
+     *
+     * @return the number of products.
+     */
+    private int countProducts() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
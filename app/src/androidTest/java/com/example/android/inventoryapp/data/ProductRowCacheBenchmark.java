@@ -0,0 +1,146 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark for the cache of single product rows of InventoryProvider. The same product is opened
+ * repeatedly with the projection of ProductActivity, first with the cache invalidated before every
+ * open (so every open reads the database) and then with the cache warm. The mean latency of both
+ * runs is written to logcat, and the cache counters must show that warm opens never read the
+ * database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductRowCacheBenchmark {
+
+    private static final String LOG_TAG = ProductRowCacheBenchmark.class.getSimpleName();
+
+    private static final int PRODUCTS = 100;    // Number of products in the database.
+    private static final int OPENS = 2000;      // Number of opens of the product in every run.
+
+    // Columns queried by ProductActivity.
+    private static final String[] DETAIL_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY};
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("cache_");
+        provider = fixture.getProvider();
+        fixture.insertProducts(fixture.getProducts(PRODUCTS, 1000));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void repeatedOpensDontReadTheDatabase() {
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+
+        // Cold opens: every open reads the database.
+        long start = System.nanoTime();
+        for (int i = 0; i < OPENS; i++) {
+            provider.getProductCache().invalidate(1);
+            openProduct(productUri);
+        }
+        long coldNanos = System.nanoTime() - start;
+
+        // Warm opens: only the first open reads the database.
+        Bundle before = getCacheStats();
+        start = System.nanoTime();
+        for (int i = 0; i < OPENS; i++) openProduct(productUri);
+        long warmNanos = System.nanoTime() - start;
+        Bundle after = getCacheStats();
+
+        Log.i(LOG_TAG, String.format(Locale.US, "cold open: %.1f us, warm open: %.1f us",
+                coldNanos / 1e3 / OPENS, warmNanos / 1e3 / OPENS));
+        assertEquals(1, after.getInt(InventoryContract.EXTRA_CACHE_MISSES) - before.getInt(InventoryContract.EXTRA_CACHE_MISSES));
+        assertEquals(OPENS - 1, after.getInt(InventoryContract.EXTRA_CACHE_HITS) - before.getInt(InventoryContract.EXTRA_CACHE_HITS));
+    }
+
+    @Test
+    public void writesInvalidateCachedProducts() {
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+        Uri otherUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 2);
+        openProduct(productUri);
+        openProduct(otherUri);
+
+        // Updating a product only invalidates that product.
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, "Renamed");
+        provider.update(productUri, values, null, null);
+        assertEquals("Renamed", readString(productUri, ProductEntry.COLUMN_NAME_PRODUCT));
+        Bundle stats = getCacheStats();
+        openProduct(otherUri);
+        assertEquals(stats.getInt(InventoryContract.EXTRA_CACHE_HITS) + 1, getCacheStats().getInt(InventoryContract.EXTRA_CACHE_HITS));
+
+        // Quantity adjustments and deletions invalidate the product too.
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, -1);
+        provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, "1", extras);
+        assertEquals("999", readString(productUri, ProductEntry.COLUMN_NAME_QUANTITY));
+        provider.delete(productUri, null, null);
+        Cursor cursor = provider.query(productUri, DETAIL_PROJECTION, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        assertTrue(getCacheStats().getLong(InventoryContract.EXTRA_CACHE_INVALIDATIONS) >= 3);
+    }
+
+    /**
+     * Helper method to query a product as ProductActivity does.
+     */
+    private void openProduct(Uri productUri) {
+        Cursor cursor = provider.query(productUri, DETAIL_PROJECTION, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        cursor.close();
+    }
+
+    /**
+     * Helper method to read a column of a product as a string.
+     */
+    private String readString(Uri productUri, String column) {
+        Cursor cursor = provider.query(productUri, DETAIL_PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(cursor.getColumnIndexOrThrow(column));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to read the counters of the cache.
+     */
+    private Bundle getCacheStats() {
+        return provider.call(InventoryContract.METHOD_GET_PRODUCT_CACHE_STATS, null, null);
+    }
+}
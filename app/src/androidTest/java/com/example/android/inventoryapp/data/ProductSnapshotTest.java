@@ -0,0 +1,177 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumentation tests for the binary snapshots of the products written and restored by
+ * InventoryProvider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSnapshotTest {
+
+    // More products than fit in a single chunk of the snapshot.
+    private static final int PRODUCTS = 2345;
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        fixture = new InventoryProviderFixture("snapshot_");
+        provider = fixture.getProvider();
+
+        ContentValues[] values = fixture.getProducts(PRODUCTS);
+        values[0].put(ProductEntry.COLUMN_NAME_DESCRIPTION, "Café con leña");
+        fixture.insertProducts(values);
+
+        // The last product is deleted, so its _id must not be reused after a restore.
+        provider.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, PRODUCTS), null, null);
+
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "products.snapshot");
+        InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(provider.openFile(ProductEntry.SNAPSHOT_URI, "r"));
+        OutputStream output = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) output.write(buffer, 0, count);
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+        file.delete();
+    }
+
+    @Test
+    public void restoreReplacesAllProducts() throws IOException {
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+        // A product that is not in the snapshot.
+        ContentValues values = fixture.getGenerator().getProduct(PRODUCTS);
+        provider.insert(ProductEntry.CONTENT_URI, values);
+
+        Bundle result = restore(file);
+        assertEquals(PRODUCTS - 1, result.getLong(InventoryContract.EXTRA_SNAPSHOT_PRODUCTS));
+        assertEquals(PRODUCTS - 1, count(ProductEntry.CONTENT_URI));
+
+        // Rows, search, summary and ledger match the restored products.
+        Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Café con leña", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_DESCRIPTION)));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, count(ProductEntry.buildSearchUri("leña")));
+        cursor = provider.query(ProductEntry.STATS_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(PRODUCTS - 1, cursor.getLong(cursor.getColumnIndex(InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT)));
+        } finally {
+            cursor.close();
+        }
+        Bundle stock = provider.call(InventoryContract.METHOD_VERIFY_STOCK, null, null);
+        assertEquals(0, stock.getLongArray(InventoryContract.EXTRA_DRIFT_PRODUCT_IDS).length);
+
+        // _id values are never reused.
+        Uri uri = provider.insert(ProductEntry.CONTENT_URI, values);
+        assertTrue(ContentUris.parseId(uri) > PRODUCTS + 1);
+    }
+
+    @Test
+    public void corruptedSnapshotChangesNothing() throws IOException {
+        RandomAccessFile snapshot = new RandomAccessFile(file, "rw");
+        try {
+            snapshot.seek(snapshot.length() / 2);
+            int b = snapshot.read();
+            snapshot.seek(snapshot.length() / 2);
+            snapshot.write(b ^ 0x01);
+        } finally {
+            snapshot.close();
+        }
+        provider.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), null, null);
+
+        assertNull(restore(file));
+        assertEquals(PRODUCTS - 2, count(ProductEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void failedSnapshotIsReportedToTheReader() throws IOException {
+        // The products can't be read, so the writer fails with an SQLiteException.
+        provider.getDbHelper().getWritableDatabase().execSQL("DROP TABLE " + ProductEntry.TABLE_NAME);
+
+        ParcelFileDescriptor snapshot = provider.openFile(ProductEntry.SNAPSHOT_URI, "r");
+        try {
+            InputStream input = new FileInputStream(snapshot.getFileDescriptor());
+            byte[] buffer = new byte[8192];
+            while (input.read(buffer) != -1) ;
+            snapshot.checkError();
+            fail("A failed snapshot must be reported");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Helper method to restore a snapshot file through the content provider.
+     *
+     * @param snapshot is the snapshot file.
+     * @return the result of the call.
+     * @throws IOException if the file can't be opened.
+     */
+    private Bundle restore(File snapshot) throws IOException {
+        Bundle extras = new Bundle();
+        extras.putParcelable(InventoryContract.EXTRA_SNAPSHOT_FILE,
+                ParcelFileDescriptor.open(snapshot, ParcelFileDescriptor.MODE_READ_ONLY));
+        return provider.call(InventoryContract.METHOD_RESTORE_SNAPSHOT, null, extras);
+    }
+
+    /**
+     * Helper method to count the rows returned by a query.
+     *
+     * @param uri is the URI to query.
+     * @return the number of rows.
+     */
+    private int count(Uri uri) {
+        Cursor cursor = provider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
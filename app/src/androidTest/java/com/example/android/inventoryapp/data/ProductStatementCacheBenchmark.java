@@ -0,0 +1,127 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Microbenchmark for ProductStatementCache. Full row inserts, quantity-only updates and deletions
+ * by _id are run through SQLiteDatabase.insert/update/delete with ContentValues, as the provider
+ * used to do, and then through the compiled statements of the cache. Every run is a single
+ * transaction, so the results measure the cost of building and compiling the statements rather
+ * than the cost of committing. The ops/sec of every run are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductStatementCacheBenchmark {
+
+    private static final String LOG_TAG = ProductStatementCacheBenchmark.class.getSimpleName();
+
+    private static final int OPERATIONS = 5000;     // Number of operations in every run.
+
+    private InventoryProviderFixture fixture;
+    private InventoryProvider provider;
+    private SQLiteDatabase database;
+
+    @Before
+    public void setUp() {
+        fixture = new InventoryProviderFixture("statements_");
+        provider = fixture.getProvider();
+        database = provider.getDbHelper().getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void compiledStatementsAgainstContentValues() {
+        ProductStatementCache statements = provider.getStatementCache();
+        ContentValues product = newProduct();
+        ContentValues quantity = new ContentValues();
+
+        // Inserts. The first run inserts products 1 to OPERATIONS, the second run the rest.
+        long start = begin();
+        for (int i = 0; i < OPERATIONS; i++) database.insert(ProductEntry.TABLE_NAME, null, product);
+        double insertValues = end(start);
+        start = begin();
+        for (int i = 0; i < OPERATIONS; i++) statements.insert(product);
+        double insertCompiled = end(start);
+        assertEquals(2 * OPERATIONS, DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME));
+
+        // Quantity-only updates.
+        start = begin();
+        for (int i = 1; i <= OPERATIONS; i++) {
+            quantity.put(ProductEntry.COLUMN_NAME_QUANTITY, i);
+            database.update(ProductEntry.TABLE_NAME, quantity, ProductEntry._ID + "=?", new String[]{String.valueOf(i)});
+        }
+        double updateValues = end(start);
+        start = begin();
+        for (int i = 1; i <= OPERATIONS; i++) {
+            quantity.put(ProductEntry.COLUMN_NAME_QUANTITY, i);
+            statements.updateQuantity(OPERATIONS + i, quantity.get(ProductEntry.COLUMN_NAME_QUANTITY));
+        }
+        double updateCompiled = end(start);
+
+        // Deletions by _id.
+        start = begin();
+        for (int i = 1; i <= OPERATIONS; i++)
+            database.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?", new String[]{String.valueOf(i)});
+        double deleteValues = end(start);
+        start = begin();
+        for (int i = 1; i <= OPERATIONS; i++) statements.delete(OPERATIONS + i);
+        double deleteCompiled = end(start);
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME));
+
+        Log.i(LOG_TAG, String.format(Locale.US, "insert: %.0f ops/s with ContentValues, %.0f ops/s compiled", insertValues, insertCompiled));
+        Log.i(LOG_TAG, String.format(Locale.US, "update: %.0f ops/s with ContentValues, %.0f ops/s compiled", updateValues, updateCompiled));
+        Log.i(LOG_TAG, String.format(Locale.US, "delete: %.0f ops/s with ContentValues, %.0f ops/s compiled", deleteValues, deleteCompiled));
+    }
+
+    /**
+     * Helper method to create the values of a full product row, with a value for every column of
+     * the compiled insert statement.
+     */
+    private ContentValues newProduct() {
+        ContentValues values = fixture.getGenerator().getProduct(0);
+        if (!values.containsKey(ProductEntry.COLUMN_NAME_DESCRIPTION))
+            values.put(ProductEntry.COLUMN_NAME_DESCRIPTION, values.getAsString(ProductEntry.COLUMN_NAME_PRODUCT));
+        return values;
+    }
+
+    /**
+     * Helper method to start a run within a transaction.
+     *
+     * @return the start time of the run, in nanoseconds.
+     */
+    private long begin() {
+        database.beginTransaction();
+        return System.nanoTime();
+    }
+
+    /**
+     * Helper method to commit a run.
+     *
+     * @param start is the start time of the run, in nanoseconds.
+     * @return the operations per second of the run, excluding the commit.
+     */
+    private double end(long start) {
+        long nanos = System.nanoTime() - start;
+        database.setTransactionSuccessful();
+        database.endTransaction();
+        return OPERATIONS * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation tests for ProductValidator, its agreement with the "products" table and the
+ * legacy error codes of ProductEntry.checkContentValues().
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductValidatorTest {
+
+    @Test
+    public void validProductHasNoViolations() {
+        ContentValues values = newProduct();
+        assertEquals(0, ProductValidator.validate(values));
+        assertEquals(ProductEntry.SQL_OK, ProductEntry.checkContentValues(values));
+
+        // Every column of the compiled insert statement is known.
+        for (String column : ProductStatementCache.INSERT_COLUMNS) {
+            values = new ContentValues();
+            values.putNull(column);
+            assertEquals(0, ProductValidator.validate(values) & ProductValidator.VIOLATION_UNKNOWN_COLUMN);
+        }
+    }
+
+    @Test
+    public void allViolationsAreReported() {
+        ContentValues values = newProduct();
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, "");
+        values.put(ProductEntry.COLUMN_NAME_IMAGE, ProductEntry.IMAGE_TYPE_COUNT);
+        values.put(ProductEntry.COLUMN_NAME_PRICE, "12a");
+        values.put(ProductEntry.COLUMN_NAME_QUANTITY, -1);
+        values.putNull(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL);
+        values.put("unknown", 1);
+
+        assertEquals(ProductValidator.VIOLATION_PRODUCT_NAME | ProductValidator.VIOLATION_PRODUCT_IMAGE_INVALID |
+                        ProductValidator.VIOLATION_PRODUCT_PRICE | ProductValidator.VIOLATION_PRODUCT_QUANTITY |
+                        ProductValidator.VIOLATION_SUPPLIER_EMAIL | ProductValidator.VIOLATION_UNKNOWN_COLUMN,
+                ProductValidator.validate(values));
+    }
+
+    @Test
+    public void missingRequiredColumnsAreReported() {
+        ContentValues values = newProduct();
+        values.remove(ProductEntry.COLUMN_NAME_PRODUCT);
+        values.remove(ProductEntry.COLUMN_NAME_DESCRIPTION);
+        values.remove(ProductEntry.COLUMN_NAME_IMAGE);
+        values.remove(ProductEntry.COLUMN_NAME_PRICE);
+        values.remove(ProductEntry.COLUMN_NAME_QUANTITY);
+        values.remove(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY);
+
+        // Updates may leave any column out, but new products can't leave out columns without a
+        // valid default value.
+        assertEquals(0, ProductValidator.validate(values));
+        assertEquals(ProductValidator.VIOLATION_PRODUCT_NAME | ProductValidator.VIOLATION_PRODUCT_IMAGE |
+                ProductValidator.VIOLATION_PRODUCT_PRICE, ProductValidator.validateInsert(values));
+    }
+
+    @Test
+    public void rulesMatchTheTable() {
+        InventoryProviderFixture fixture = new InventoryProviderFixture("validator_");
+        SQLiteDatabase db = fixture.getProvider().getDbHelper().getWritableDatabase();
+        Cursor columns = db.rawQuery("PRAGMA table_info(" + ProductEntry.TABLE_NAME + ")", null);
+        try {
+            List<String> writableColumns = new ArrayList<>();
+            while (columns.moveToNext()) {
+                String column = columns.getString(columns.getColumnIndex("name"));
+                if (column.equals(ProductEntry._ID) || column.equals(ProductEntry.COLUMN_NAME_VERSION)) continue;
+                writableColumns.add(column);
+
+                // Every writable column is checked with the type of the table.
+                assertEquals(column, columns.getString(columns.getColumnIndex("type")), ProductValidator.getType(column));
+
+                // A column is required if a product without it can't be inserted, or if it gets a
+                // default value that is not valid.
+                ContentValues values = newProduct();
+                values.remove(column);
+                long id = db.insert(ProductEntry.TABLE_NAME, null, values);
+                boolean required = id == -1 || ProductValidator.validate(readColumn(db, id, column)) != 0;
+                assertEquals(column, required, ProductValidator.isRequired(column));
+            }
+
+            // The validator knows no other columns.
+            assertEquals(Arrays.asList(ProductStatementCache.INSERT_COLUMNS), writableColumns);
+        } finally {
+            columns.close();
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void singleRowCallersKeepTheirErrorCodes() {
+        // Errors are returned in the order they were checked before: name, price, image...
+        ContentValues values = newProduct();
+        values.put(ProductEntry.COLUMN_NAME_IMAGE, ProductEntry.IMAGE_TYPE_NONE);
+        values.put(ProductEntry.COLUMN_NAME_PRICE, 0);
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, "");
+        assertEquals(ProductEntry.SQL_ERROR_PRODUCT_PRICE, ProductEntry.checkContentValues(values));
+
+        values.put(ProductEntry.COLUMN_NAME_PRICE, "150");
+        assertEquals(ProductEntry.SQL_ERROR_PRODUCT_IMAGE_INVALID, ProductEntry.checkContentValues(values));
+
+        values.putNull(ProductEntry.COLUMN_NAME_IMAGE);
+        assertEquals(ProductEntry.SQL_ERROR_PRODUCT_IMAGE, ProductEntry.checkContentValues(values));
+
+        values.put(ProductEntry.COLUMN_NAME_IMAGE, ProductEntry.IMAGE_TYPE_HOTELS);
+        assertEquals(ProductEntry.SQL_ERROR_SUPPLIER_NAME, ProductEntry.checkContentValues(values));
+
+        // Unknown columns are only reported by validate().
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, "Supplier");
+        values.put("unknown", 1);
+        assertEquals(ProductEntry.SQL_OK, ProductEntry.checkContentValues(values));
+        assertEquals(ProductEntry.SQL_ERROR_UNKNOWN_COLUMN, ProductValidator.getErrorCode(ProductValidator.validate(values)));
+    }
+
+    /**
+     * Helper method to read the value of a single column of a product.
+     *
+     * @param db     is the database.
+     * @param id     is the _id of the product.
+     * @param column is the name of the column.
+     * @return the value of the column, as stored in the table.
+     */
+    private static ContentValues readColumn(SQLiteDatabase db, long id, String column) {
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, new String[]{column}, ProductEntry._ID + " = " + id,
+                null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            ContentValues values = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, values);
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to build the values of a valid product, with a value for every column.
+     *
+     * @return the values.
+     */
+    private static ContentValues newProduct() {
+        ContentValues values = new ProductGenerator(0).getProduct(0);
+        values.put(ProductEntry.COLUMN_NAME_DESCRIPTION, "Description");
+        return values;
+    }
+}
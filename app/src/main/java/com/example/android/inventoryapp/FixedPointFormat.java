@@ -0,0 +1,160 @@
+package com.example.android.inventoryapp;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formatter and parser of prices and quantities. Prices are handled as the number of euro cents
+ * stored in the database and quantities as whole units, always with long arithmetic, so amounts
+ * are exact up to Long.MAX_VALUE. Text is written into buffers given by the caller, so views can
+ * be refreshed without allocating any object.
+ * <p>
+ * Instances are immutable and can be shared by any number of threads.
+ */
+public final class FixedPointFormat {
+
+    private static final char NO_GROUPING = 0;      // Grouping separator of formats without grouping.
+    private static final int GROUPING_SIZE = 3;     // Number of digits between grouping separators.
+
+    // Maximum number of characters appended by appendCents() or appendUnits(), enough for any long.
+    public static final int MAX_LENGTH = 32;
+
+    // Value returned by parseCents() when the text is not a valid price.
+    public static final long INVALID_CENTS = -1;
+
+    // Format for the text of input fields: '.' as decimal separator and no grouping, which is what
+    // EditText views with a numberDecimal or number input type accept.
+    public static final FixedPointFormat INPUT = new FixedPointFormat('.', NO_GROUPING);
+
+    private final char decimalSeparator;    // Character between units and decimals.
+    private final char groupingSeparator;   // Character between groups of digits, or NO_GROUPING.
+
+    /**
+     * Constructor for this class, for showing amounts with the separators of a locale.
+     *
+     * @param locale is the locale.
+     */
+    public FixedPointFormat(Locale locale) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        decimalSeparator = symbols.getDecimalSeparator();
+        groupingSeparator = symbols.getGroupingSeparator();
+    }
+
+    /**
+     * Private constructor for this class, for formats with fixed separators.
+     *
+     * @param decimalSeparator  is the character between units and decimals.
+     * @param groupingSeparator is the character between groups of digits, or NO_GROUPING.
+     */
+    private FixedPointFormat(char decimalSeparator, char groupingSeparator) {
+        this.decimalSeparator = decimalSeparator;
+        this.groupingSeparator = groupingSeparator;
+    }
+
+    /**
+     * Append an amount of cents to a buffer, as units with two decimals.
+     *
+     * @param buffer is the buffer. It must have room for MAX_LENGTH characters from offset.
+     * @param offset is the position of the buffer where the amount is appended.
+     * @param cents  is the amount of cents.
+     * @return the position of the buffer right after the appended amount.
+     */
+    public int appendCents(char[] buffer, int offset, long cents) {
+        if (cents < 0) buffer[offset++] = '-';
+
+        // Digits are taken from the negative amount, which can't overflow even for Long.MIN_VALUE.
+        long negative = cents < 0 ? cents : -cents;
+        offset = appendDigits(buffer, offset, negative / 100);
+        int decimals = (int) -(negative % 100);
+        buffer[offset++] = decimalSeparator;
+        buffer[offset++] = (char) ('0' + decimals / 10);
+        buffer[offset++] = (char) ('0' + decimals % 10);
+        return offset;
+    }
+
+    /**
+     * Append a number of units to a buffer.
+     *
+     * @param buffer is the buffer. It must have room for MAX_LENGTH characters from offset.
+     * @param offset is the position of the buffer where the number is appended.
+     * @param units  is the number of units.
+     * @return the position of the buffer right after the appended number.
+     */
+    public int appendUnits(char[] buffer, int offset, long units) {
+        if (units < 0) buffer[offset++] = '-';
+        return appendDigits(buffer, offset, units < 0 ? units : -units);
+    }
+
+    /**
+     * Parse a price typed by the user. The decimal separator may be '.' or the one of this format,
+     * followed by up to two decimals (more decimals are only accepted if they are zeros, so the
+     * price is never rounded). Signs and grouping separators are not accepted, and spaces at both
+     * ends are ignored.
+     *
+     * @param text is the text to parse.
+     * @return the price in cents, or INVALID_CENTS if the text is not a valid price or the price
+     * doesn't fit in a long.
+     */
+    public long parseCents(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+
+        long cents = 0;
+        int decimals = -1;      // Number of decimals read, or -1 before the decimal separator.
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (decimals == 2) {
+                    // Decimals beyond cents must be zeros.
+                    if (c != '0') return INVALID_CENTS;
+                    continue;
+                }
+                if (decimals >= 0) decimals++;
+                if (cents > (Long.MAX_VALUE - (c - '0')) / 10) return INVALID_CENTS;
+                cents = cents * 10 + (c - '0');
+            } else if ((c == '.' || c == decimalSeparator) && decimals == -1) {
+                decimals = 0;
+            } else {
+                return INVALID_CENTS;
+            }
+        }
+        if (!digits) return INVALID_CENTS;
+
+        // Scale the number to cents.
+        for (int i = Math.max(decimals, 0); i < 2; i++) {
+            if (cents > Long.MAX_VALUE / 10) return INVALID_CENTS;
+            cents *= 10;
+        }
+        return cents;
+    }
+
+    /**
+     * Helper method to append the digits of a number to a buffer, with grouping separators if the
+     * format has them.
+     *
+     * @param buffer   is the buffer.
+     * @param offset   is the position of the buffer where the digits are appended.
+     * @param negative is the number with negative sign, so every long value can be appended.
+     * @return the position of the buffer right after the appended digits.
+     */
+    private int appendDigits(char[] buffer, int offset, long negative) {
+        // Count the digits and write them from right to left.
+        int digits = 1;
+        for (long n = negative / 10; n != 0; n /= 10) digits++;
+        int length = digits;
+        if (groupingSeparator != NO_GROUPING) length += (digits - 1) / GROUPING_SIZE;
+
+        int position = offset + length;
+        for (int digit = 0; digit < digits; digit++) {
+            if (digit > 0 && digit % GROUPING_SIZE == 0 && groupingSeparator != NO_GROUPING)
+                buffer[--position] = groupingSeparator;
+            buffer[--position] = (char) ('0' - negative % 10);
+            negative /= 10;
+        }
+        return offset + length;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+/**
+ * Registry of the image types for the tourist products. Every image type is identified by the
+ * integer code stored in the database (ProductEntry.IMAGE_TYPE_*), which is used as the index of
+ * its drawable, its label and its position in the image type spinner, so no lookup by name is
+ * needed.
+ */
+public final class ImageTypes {
+
+    // Drawable resources for the image types, indexed by image type code.
+    private static final int[] DRAWABLES = new int[ProductEntry.IMAGE_TYPE_COUNT];
+
+    // String resources for the labels of the image types, indexed by image type code.
+    private static final int[] LABELS = new int[ProductEntry.IMAGE_TYPE_COUNT];
+
+    static {
+        register(ProductEntry.IMAGE_TYPE_NONE, R.drawable.image_type_none, R.string.image_type_none);
+        register(ProductEntry.IMAGE_TYPE_CULTURE, R.drawable.image_type_culture, R.string.image_type_culture);
+        register(ProductEntry.IMAGE_TYPE_HOTELS, R.drawable.image_type_hotels, R.string.image_type_hotels);
+        register(ProductEntry.IMAGE_TYPE_LEISURE, R.drawable.image_type_leisure, R.string.image_type_leisure);
+        register(ProductEntry.IMAGE_TYPE_NIGHT, R.drawable.image_type_night, R.string.image_type_night);
+        register(ProductEntry.IMAGE_TYPE_RESTAURANTS, R.drawable.image_type_restaurants, R.string.image_type_restaurants);
+        register(ProductEntry.IMAGE_TYPE_SHOPPING, R.drawable.image_type_shopping, R.string.image_type_shopping);
+        register(ProductEntry.IMAGE_TYPE_SHOWS, R.drawable.image_type_shows, R.string.image_type_shows);
+        register(ProductEntry.IMAGE_TYPE_TRANSPORT, R.drawable.image_type_transport, R.string.image_type_transport);
+        register(ProductEntry.IMAGE_TYPE_VISITS, R.drawable.image_type_visits, R.string.image_type_visits);
+    }
+
+    private ImageTypes() {
+    }
+
+    /**
+     * Helper method to register the resources of an image type.
+     *
+     * @param imageType is the code of the image type.
+     * @param drawable  is the drawable resource for the image type.
+     * @param label     is the string resource for the label of the image type.
+     */
+    private static void register(int imageType, int drawable, int label) {
+        DRAWABLES[imageType] = drawable;
+        LABELS[imageType] = label;
+    }
+
+    /**
+     * Helper method to get the code of a known image type.
+     *
+     * @param imageType is the code of the image type, as stored in the database.
+     * @return the same code, or IMAGE_TYPE_NONE if it is not a known image type.
+     */
+    private static int normalize(int imageType) {
+        return (imageType >= 0 && imageType < ProductEntry.IMAGE_TYPE_COUNT) ? imageType : ProductEntry.IMAGE_TYPE_NONE;
+    }
+
+    /**
+     * Get the drawable resource for an image type.
+     *
+     * @param imageType is the code of the image type.
+     * @return the drawable resource, or the one for IMAGE_TYPE_NONE if the image type is unknown.
+     */
+    public static int getDrawable(int imageType) {
+        return DRAWABLES[normalize(imageType)];
+    }
+
+    /**
+     * Get the string resource for the label of an image type.
+     *
+     * @param imageType is the code of the image type.
+     * @return the string resource, or the one for IMAGE_TYPE_NONE if the image type is unknown.
+     */
+    public static int getLabel(int imageType) {
+        return LABELS[normalize(imageType)];
+    }
+
+    /**
+     * Get the position of an image type in the image type spinner.
+     *
+     * @param imageType is the code of the image type.
+     * @return the position in the spinner, or the one for IMAGE_TYPE_NONE if the image type is
+     * unknown.
+     */
+    public static int getSpinnerPosition(int imageType) {
+        // The spinner shows the image types in the order of their codes.
+        return normalize(imageType);
+    }
+
+    /**
+     * Get the image type selected at a position of the image type spinner.
+     *
+     * @param position is the position in the spinner.
+     * @return the code of the image type, or IMAGE_TYPE_NONE if the position is not valid.
+     */
+    public static int fromSpinnerPosition(int position) {
+        return normalize(position);
+    }
+
+    /**
+     * Get the labels of all the image types, in the order they are shown in the image type spinner.
+     *
+     * @param context is the context for reading the string resources.
+     * @return the labels of the image types.
+     */
+    public static CharSequence[] getSpinnerLabels(Context context) {
+        CharSequence[] labels = new CharSequence[ProductEntry.IMAGE_TYPE_COUNT];
+        for (int imageType = 0; imageType < ProductEntry.IMAGE_TYPE_COUNT; imageType++)
+            labels[getSpinnerPosition(imageType)] = context.getText(LABELS[imageType]);
+        return labels;
+    }
+}
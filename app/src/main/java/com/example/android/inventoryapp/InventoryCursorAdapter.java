@@ -4,102 +4,339 @@ package com.example.android.inventoryapp;
  * Created by David on 18/07/2017.
  */
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.net.Uri;
+import android.graphics.Typeface;
+import android.support.v7.widget.RecyclerView;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryWriteExecutor;
 
-import java.text.DecimalFormat;
+import java.util.Locale;
 
-public class InventoryCursorAdapter extends CursorAdapter {
+public class InventoryCursorAdapter extends RecyclerView.Adapter<InventoryCursorAdapter.ViewHolder> {
+
+    /**
+     * Interface definition for a callback to be invoked when a product of the list is clicked.
+     */
+    public interface OnProductClickListener {
+        /**
+         * Called when a product has been clicked.
+         *
+         * @param productId is the _id of the product.
+         */
+        void onProductClick(long productId);
+    }
+
+    private final char[] pricePrefix;       // "Price: " text.
+    private final char[] priceSuffix;       // " €" text.
+    private final char[] unitsPrefix;       // "Units: " text.
+    private final FixedPointFormat format;  // Format for prices and units.
+
+    private final OnProductClickListener productClickListener;  // Listener for clicks on products.
+    private Cursor cursor;                                      // Cursor with the products.
+
+    // Cursors with a single product that has changed after the main cursor was loaded, by _id.
+    // They must have the same columns as the main cursor, except for the snippet.
+    private final LongSparseArray<Cursor> rowCursors = new LongSparseArray<>();
+
+    // Indexes of the columns of the current cursor, resolved every time the cursor is set.
+    private int idColumnIndex;
+    private int versionColumnIndex;
+    private int productColumnIndex;
+    private int imageColumnIndex;
+    private int providerColumnIndex;
+    private int priceColumnIndex;
+    private int quantityColumnIndex;
+    private int snippetColumnIndex;
+
+    // "Sale 1 unit" button listener, shared by all the rows. The product is taken from the tag of
+    // the button.
+    private final View.OnClickListener saleClickListener = new View.OnClickListener() {
+        public void onClick(View v) {
+            // The quantity is decreased by the content provider on the writer thread, so the
+            // quantity shown in the row is never written back to the database.
+            ViewHolder holder = (ViewHolder) v.getTag();
+            InventoryWriteExecutor.getInstance(v.getContext()).adjustQuantity(holder.productId, -1, null);
+        }
+    };
+
+    // Row click listener, shared by all the rows. The product is taken from the tag of the row.
+    private final View.OnClickListener rowClickListener = new View.OnClickListener() {
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            if (productClickListener != null) productClickListener.onProductClick(holder.productId);
+        }
+    };
 
     /**
      * Constructor for this class.
      *
-     * @param context is the context.
-     * @param c       is the cursor from which to get the data.
+     * @param context  is the context.
+     * @param c        is the cursor from which to get the data.
+     * @param listener is the listener for clicks on products, or null.
+     */
+    public InventoryCursorAdapter(Context context, Cursor c, OnProductClickListener listener) {
+        productClickListener = listener;
+        cursor = c;
+        setHasStableIds(true);
+
+        // Resolve texts and resources only once.
+        pricePrefix = (context.getString(R.string.list_item_price) + " ").toCharArray();
+        priceSuffix = " €".toCharArray();
+        unitsPrefix = (context.getString(R.string.list_item_units) + " ").toCharArray();
+        format = new FixedPointFormat(Locale.getDefault());
+        resolveColumnIndexes(c);
+    }
+
+    /**
+     * Set a new cursor, returning the old one. The old cursor is not closed and observers are not
+     * notified, so the caller must notify the changes between both cursors.
+     *
+     * @param newCursor is the new cursor to be used.
+     * @return the previously set cursor, or null if there was not one.
      */
-    public InventoryCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0);
+    public Cursor setCursor(Cursor newCursor) {
+        Cursor oldCursor = cursor;
+        cursor = newCursor;
+        resolveColumnIndexes(newCursor);
+        return oldCursor;
     }
 
     /**
-     * Makes a new view to hold the data pointed to by cursor.
+     * Set a newer version of a single product than the one in the main cursor. The product is
+     * shown from this cursor until the main cursor has the same version of the product or a newer
+     * one, so a changed product can be refreshed without reloading the whole list.
      *
-     * @param context is the interface to application's global information.
-     * @param cursor  is the cursor from which to get the data. The cursor is already moved to the
-     *                correct position.
-     * @param parent  is the parent to which the new view is attached to.
-     * @return the newly created view.
+     * @param productId is the _id of the product.
+     * @param rowCursor is a cursor positioned on the product, with the same columns as the main
+     *                  cursor. The adapter owns it from now on.
+     * @return true if the cursor is newer than the version shown and the product must be bound
+     * again, false if it has been discarded.
+     */
+    public boolean setRowCursor(long productId, Cursor rowCursor) {
+        Cursor current = rowCursors.get(productId);
+        if (versionColumnIndex == -1 || (current != null && current.getLong(versionColumnIndex) >= rowCursor.getLong(versionColumnIndex))) {
+            rowCursor.close();
+            return false;
+        }
+        if (current != null) current.close();
+        rowCursors.put(productId, rowCursor);
+        return true;
+    }
+
+    /**
+     * Discard the cursor of a single product if the main cursor already has the same version of
+     * the product or a newer one.
+     *
+     * @param productId is the _id of the product.
+     * @param version   is the version of the product in the main cursor.
+     */
+    public void discardRowCursor(long productId, long version) {
+        Cursor current = rowCursors.get(productId);
+        if (current != null && current.getLong(versionColumnIndex) <= version) {
+            current.close();
+            rowCursors.remove(productId);
+        }
+    }
+
+    /**
+     * Discard the cursors of all the single products.
+     */
+    public void clearRowCursors() {
+        for (int i = 0; i < rowCursors.size(); i++) rowCursors.valueAt(i).close();
+        rowCursors.clear();
+    }
+
+    /**
+     * Returns the total number of items in the data set held by the adapter.
+     *
+     * @return the number of products in the current cursor.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public int getItemCount() {
+        return (cursor == null || cursor.isClosed()) ? 0 : cursor.getCount();
     }
 
     /**
-     * Bind an existing view to the data pointed to by cursor.
+     * Return the stable ID for the item at position.
      *
-     * @param view    is the existing view, returned earlier by newView.
-     * @param context is the interface to application's global information.
-     * @param cursor  is the cursor from which to get the data. The cursor is already moved to the
-     *                correct position.
+     * @param position is the adapter position to query.
+     * @return the _id of the product at the given position.
      */
     @Override
-    public void bindView(View view, final Context context, final Cursor cursor) {
-        // Read the Cursor and get current product information.
-        String product = cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRODUCT));
-        String image = cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_IMAGE));
-        String provider = cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT));
-        Float price = cursor.getFloat(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRICE));
-        final int quantity = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_QUANTITY));
+    public long getItemId(int position) {
+        return cursor.moveToPosition(position) ? cursor.getLong(idColumnIndex) : RecyclerView.NO_ID;
+    }
+
+    /**
+     * Called when RecyclerView needs a new ViewHolder to represent a product.
+     *
+     * @param parent   is the ViewGroup into which the new view will be added.
+     * @param viewType is the view type of the new view.
+     * @return a new ViewHolder that holds a view for a product.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        holder.saleButton.setTag(holder);
+        holder.saleButton.setOnClickListener(saleClickListener);
+        view.setTag(holder);
+        view.setOnClickListener(rowClickListener);
+        return holder;
+    }
+
+    /**
+     * Called by RecyclerView to display the product at the specified position. This method is
+     * called for every row that is scrolled into view or has changed, so it only works with buffers
+     * owned by the view holder.
+     *
+     * @param holder   is the ViewHolder which should be updated.
+     * @param position is the position of the product in the cursor.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if (!cursor.moveToPosition(position)) return;
+        holder.productId = cursor.getLong(idColumnIndex);
+
+        // Use the newest version of the product.
+        Cursor row = cursor;
+        Cursor rowCursor = rowCursors.get(holder.productId);
+        if (rowCursor != null && rowCursor.getLong(versionColumnIndex) > cursor.getLong(versionColumnIndex))
+            row = rowCursor;
 
         // Show product name.
-        TextView productTextView = (TextView) view.findViewById(R.id.list_item_product);
-        productTextView.setText(product);
+        row.copyStringToBuffer(productColumnIndex, holder.productBuffer);
+        holder.productTextView.setText(holder.productBuffer.data, 0, holder.productBuffer.sizeCopied);
 
-        // Show image.
-        ImageView productImageView = (ImageView) view.findViewById(R.id.list_item_image);
-        productImageView.setImageDrawable(context.getDrawable(context.getResources().getIdentifier(image, "drawable", context.getPackageName())));
+        // Show image. ImageView decodes a new drawable on every setImageResource(), so it is only
+        // called when the row shows a different image type.
+        int imageType = row.getInt(imageColumnIndex);
+        if (imageType != holder.imageType) {
+            holder.productImageView.setImageResource(ImageTypes.getDrawable(imageType));
+            holder.imageType = imageType;
+        }
 
-        // Show product provider name.
-        TextView providerTextView = (TextView) view.findViewById(R.id.list_item_provider);
-        providerTextView.setText(provider);
+        // Show product provider name or, for search results, the text matching the search.
+        if (snippetColumnIndex != -1 && !cursor.isNull(snippetColumnIndex)) {
+            holder.providerTextView.setText(highlightSnippet(holder.snippetBuilder, cursor.getString(snippetColumnIndex)));
+        } else {
+            row.copyStringToBuffer(providerColumnIndex, holder.providerBuffer);
+            holder.providerTextView.setText(holder.providerBuffer.data, 0, holder.providerBuffer.sizeCopied);
+        }
 
         // Show price for the product. Prices are stored in euro cents, but displayed as euros (2 decimals).
-        TextView priceTextView = (TextView) view.findViewById(R.id.list_item_price);
-        DecimalFormat form = new DecimalFormat("0.00");
-        priceTextView.setText(context.getResources().getString(R.string.list_item_price) + " " + form.format(price / 100) + " €");
+        int length = append(holder.priceBuffer, 0, pricePrefix);
+        length = format.appendCents(holder.priceBuffer, length, row.getLong(priceColumnIndex));
+        length = append(holder.priceBuffer, length, priceSuffix);
+        holder.priceTextView.setText(holder.priceBuffer, 0, length);
 
         // Show current quantity for the product.
-        TextView quantityTextView = (TextView) view.findViewById(R.id.list_item_quantity);
-        quantityTextView.setText(context.getResources().getString(R.string.list_item_units) + " " + quantity);
-
-        // "Sale 1 unit" button.
-        Button saleButton = (Button) view.findViewById(R.id.list_item_sell);
-        saleButton.setOnClickListener(new View.OnClickListener() {
-            public void onClick(View v) {
-                if (quantity > 0) {
-                    // Create a ContentValues object to update the product quantity into the database.
-                    ContentValues values = new ContentValues();
-                    values.put(ProductEntry.COLUMN_NAME_QUANTITY, quantity - 1);
-
-                    // Create URI pointing to the current product and update it with given ContentValues.
-                    int id = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_NAME_ID));
-                    Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
-                    context.getContentResolver().update(uri, values, null, null);
+        length = append(holder.quantityBuffer, 0, unitsPrefix);
+        length = format.appendUnits(holder.quantityBuffer, length, row.getLong(quantityColumnIndex));
+        holder.quantityTextView.setText(holder.quantityBuffer, 0, length);
+    }
+
+    /**
+     * Helper method to get the indexes of the columns of a cursor.
+     *
+     * @param cursor is the cursor.
+     */
+    private void resolveColumnIndexes(Cursor cursor) {
+        if (cursor == null) return;
+        idColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_ID);
+        versionColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_VERSION);
+        productColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRODUCT);
+        imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_IMAGE);
+        providerColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT);
+        priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_PRICE);
+        quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_QUANTITY);
+        snippetColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_NAME_SNIPPET);
+    }
+
+    /**
+     * Helper method to build the text of a search snippet, with its matching terms in bold. The
+     * snippet is plain text with the matching terms between SNIPPET_MATCH_START and
+     * SNIPPET_MATCH_END, so the text of the product is never interpreted as markup.
+     *
+     * @param builder is the builder of the text, which is cleared first.
+     * @param snippet is the snippet returned by the search.
+     * @return the builder, with the text of the snippet and the matching terms in bold.
+     */
+    private static CharSequence highlightSnippet(SpannableStringBuilder builder, String snippet) {
+        builder.clear();
+        builder.clearSpans();
+        int matchStart = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == ProductEntry.SNIPPET_MATCH_START) {
+                matchStart = builder.length();
+            } else if (c == ProductEntry.SNIPPET_MATCH_END) {
+                if (matchStart != -1 && matchStart < builder.length()) {
+                    builder.setSpan(new StyleSpan(Typeface.BOLD), matchStart, builder.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
+                matchStart = -1;
+            } else {
+                builder.append(c);
             }
-        });
+        }
+        return builder;
+    }
+
+    /**
+     * Helper method to append a text to a buffer.
+     *
+     * @param buffer is the buffer.
+     * @param offset is the position of the buffer where the text is appended.
+     * @param text   is the text to append.
+     * @return the position of the buffer right after the appended text.
+     */
+    private static int append(char[] buffer, int offset, char[] text) {
+        System.arraycopy(text, 0, buffer, offset, text.length);
+        return offset + text.length;
+    }
+
+    /**
+     * Views and text buffers of a single row of the list.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView productTextView;
+        final ImageView productImageView;
+        final TextView providerTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+
+        // Buffers for the texts shown in the row.
+        final CharArrayBuffer productBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer providerBuffer = new CharArrayBuffer(64);
+        final char[] priceBuffer = new char[64];
+        final char[] quantityBuffer = new char[64];
+        final SpannableStringBuilder snippetBuilder = new SpannableStringBuilder();
+
+        long productId;     // _id of the product shown in the row.
+        int imageType = -1; // Image type shown in the row, or -1 if no image has been set yet.
+
+        ViewHolder(View view) {
+            super(view);
+            productTextView = (TextView) view.findViewById(R.id.list_item_product);
+            productImageView = (ImageView) view.findViewById(R.id.list_item_image);
+            providerTextView = (TextView) view.findViewById(R.id.list_item_provider);
+            priceTextView = (TextView) view.findViewById(R.id.list_item_price);
+            quantityTextView = (TextView) view.findViewById(R.id.list_item_quantity);
+            saleButton = (Button) view.findViewById(R.id.list_item_sell);
+        }
     }
 }
@@ -2,38 +2,174 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
+import android.content.ClipData;
+import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.InventoryContract;
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
 import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryWriteExecutor;
+import com.example.android.inventoryapp.data.ProductImporter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    private static final int INVENTORY_LOADER = 0;  // Identifier for the loader.
+    private static final String LOG_TAG = MainActivity.class.getSimpleName();  // String for logcat.
+
+    private static final int INVENTORY_LOADER = 0;  // Identifier for the loader of the first page.
+    private static final int STATS_LOADER = -1;     // Identifier for the loader of the inventory summary.
+    private static final String ARG_SEARCH = "search";  // Loader argument with the text to search.
+    private static final String ARG_AFTER = "after";    // Loader argument with the sort key of the previous page.
+    private static final String ARG_AFTER_ID = "after_id";  // Loader argument with the _id of the previous page.
+    private static final String STATE_PAGE_ARGS = "page_args";  // Saved state key for the pages.
+    private static final long SEARCH_DELAY_MS = 300;    // Delay between typing and searching.
+    private static final int PAGE_SIZE = 50;            // Number of products in every page.
+    private static final int IMPORT_REQUEST = 1;        // Request code for picking a file to import.
+    private static final int BACKUP_REQUEST = 2;        // Request code for creating a backup file.
+    private static final int RESTORE_REQUEST = 3;       // Request code for picking a backup to restore.
+    private static final String BACKUP_FILE_NAME = "inventory.snapshot";  // Default name of backup files.
+    private static final int BACKUP_BUFFER_SIZE = 65536;    // Size of the buffer for copying backups.
+    private static final int PAGE_PREFETCH = 10;        // Rows left to show when the next page is loaded.
+    private static final String PAGE_SORT_COLUMN = ProductEntry._ID;    // Sort column for the pages.
+
+    // Columns of the table "products" that we need for the list. The version is used for finding
+    // the products that have changed.
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_VERSION,          // Version of the product.
+            ProductEntry.COLUMN_NAME_PRODUCT,          // Name of the product.
+            ProductEntry.COLUMN_NAME_IMAGE,            // Product image.
+            ProductEntry.COLUMN_NAME_PRICE,            // Price of the product.
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, // Name of the supplier.
+            ProductEntry.COLUMN_NAME_QUANTITY};        // Current units in stock.
+
+    // Columns of the inventory summary shown in the header of the list.
+    private static final String[] STATS_PROJECTION = {
+            InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT,
+            InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS,
+            InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE,
+            InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT};
+
+    // Import running on the writer thread, if any. It is static so it outlives the activity that
+    // started it, and a recreated activity keeps showing its progress.
+    private static PendingImport pendingImport = null;
+
     // Annotate fields with @BindView and views ID for Butter Knife to find and automatically cast
     // the corresponding views.
     @BindView(R.id.main_empty_database)
     RelativeLayout emptyDatabaseTextView;
     @BindView(R.id.main_list_view)
-    ListView mainListView;
-    InventoryCursorAdapter inventoryCursorAdapter;  // Adapter for the ListView.
+    RecyclerView mainListView;
+    @BindView(R.id.main_stats)
+    TextView statsTextView;
+    @BindView(R.id.main_import_progress)
+    ProgressBar importProgressBar;
+    InventoryCursorAdapter inventoryCursorAdapter;  // Adapter for the RecyclerView.
+    LinearLayoutManager layoutManager;              // Layout manager for the RecyclerView.
+    private final Handler searchHandler = new Handler();    // Handler for delaying searches.
+    private String searchText = "";                         // Text to search, if any.
+    private ArrayList<Bundle> pageArgs;                     // Loader arguments of every page, by loader ID.
+    private final SparseArray<ProductListLoader.Page> pageCursors = new SparseArray<>();  // Loaded pages, by loader ID.
+    private final HashSet<Long> pendingProducts = new HashSet<>();  // Products being queried again.
+    private final HashSet<Long> staleProducts = new HashSet<>();    // Products changed while being queried.
+    private AsyncQueryHandler productQueryHandler;                  // Handler for querying single products.
+    private final FixedPointFormat statsFormat = new FixedPointFormat(Locale.getDefault());    // Format for the summary.
+    private final char[] statsBuffer = new char[FixedPointFormat.MAX_LENGTH];                  // Buffer for the summary amounts.
+
+    // Observer for changes in single products. Lists are only reloaded when products are inserted
+    // or deleted, so products changed in place are queried again one by one.
+    private final ContentObserver productObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            refreshProduct(ProductEntry.parseProductId(uri));
+        }
+    };
+
+    // Callbacks for the loader of the inventory summary. The summary is a single row maintained by
+    // the database, so it is read again on every change without aggregating the products.
+    private final LoaderManager.LoaderCallbacks<Cursor> statsLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            return new CursorLoader(MainActivity.this, ProductEntry.STATS_URI, STATS_PROJECTION, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+            if (data == null || !data.moveToFirst()) {
+                statsTextView.setText("");
+                return;
+            }
+            String totalUnits = new String(statsBuffer, 0, statsFormat.appendUnits(statsBuffer, 0, data.getLong(1)));
+            String totalValue = new String(statsBuffer, 0, statsFormat.appendCents(statsBuffer, 0, data.getLong(2)));
+            statsTextView.setText(getString(R.string.main_stats, data.getLong(0), totalUnits, totalValue, data.getLong(3)));
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            statsTextView.setText("");
+        }
+    };
+
+    // Restart the loader for searching the current text.
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Bundle args = new Bundle();
+            args.putString(ARG_SEARCH, searchText);
+            truncatePages(INVENTORY_LOADER + 1);
+            updateAdapterCursor();
+            pageArgs.set(INVENTORY_LOADER, args);
+            getLoaderManager().restartLoader(INVENTORY_LOADER, args, MainActivity.this);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -41,8 +177,37 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
 
-        setMainListView();                                              // Set the List View.
-        getLoaderManager().initLoader(INVENTORY_LOADER, null, this);    // Init the loader.
+        setMainListView();      // Set the Recycler View.
+        setProductObserver();   // Refresh single products when they change.
+        StockCompactionJobService.schedule(this);   // Keep the stock ledger bounded.
+
+        // Init the loaders of the pages that were loaded before the activity was recreated, or of
+        // the first page otherwise.
+        if (savedInstanceState != null)
+            pageArgs = savedInstanceState.getParcelableArrayList(STATE_PAGE_ARGS);
+        if (pageArgs == null || pageArgs.isEmpty()) {
+            pageArgs = new ArrayList<>();
+            pageArgs.add(new Bundle());
+        }
+        searchText = pageArgs.get(INVENTORY_LOADER).getString(ARG_SEARCH, "");
+        for (int page = INVENTORY_LOADER; page < pageArgs.size(); page++)
+            getLoaderManager().initLoader(page, pageArgs.get(page), this);
+        getLoaderManager().initLoader(STATS_LOADER, null, statsLoaderCallbacks);
+
+        // Take over the progress of an import started by a previous instance of the activity.
+        if (pendingImport != null) pendingImport.activity = this;
+        showImportProgress();
+    }
+
+    /**
+     * Called to retrieve per-instance state from an activity before being killed.
+     *
+     * @param outState is the Bundle in which to place the saved state.
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelableArrayList(STATE_PAGE_ARGS, pageArgs);
     }
 
     /**
@@ -55,9 +220,41 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main_menu, menu);
+        setSearchView(menu.findItem(R.id.main_menu_search));
         return true;
     }
 
+    /**
+     * Prepare the options menu to be displayed.
+     *
+     * @param menu is the options menu as last shown or first initialized by onCreateOptionsMenu().
+     * @return true for the menu to be displayed; if we return false it will not be shown.
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+
+        // Only one import can run at a time.
+        menu.findItem(R.id.main_menu_import).setEnabled(pendingImport == null);
+        return true;
+    }
+
+    /**
+     * Called when the activity is being destroyed.
+     */
+    @Override
+    protected void onDestroy() {
+        // Cancel any pending search and stop refreshing single products.
+        searchHandler.removeCallbacks(searchRunnable);
+        getContentResolver().unregisterContentObserver(productObserver);
+        productQueryHandler.cancelOperation(0);
+        inventoryCursorAdapter.clearRowCursors();
+
+        // A running import goes on without this instance of the activity.
+        if (pendingImport != null && pendingImport.activity == this) pendingImport.activity = null;
+        super.onDestroy();
+    }
+
     /**
      * This hook is called whenever an item in the options menu is selected.
      *
@@ -77,12 +274,42 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 // Delete all products in the database.
                 warnForClearDatabase();
                 return true;
+
+            case R.id.main_menu_import:
+                // Pick a CSV or JSON file and import its products.
+                Intent importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                importIntent.setType("*/*");
+                importIntent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{ProductEntry.CONTENT_CSV_TYPE,
+                        ProductEntry.CONTENT_JSON_TYPE, "text/comma-separated-values", "text/plain"});
+                startActivityForResult(importIntent, IMPORT_REQUEST);
+                return true;
+
+            case R.id.main_menu_export:
+                // Share all products as a CSV file.
+                exportProducts();
+                return true;
+
+            case R.id.main_menu_backup:
+                // Create a file and save a snapshot of all products into it.
+                Intent backupIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                backupIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                backupIntent.setType("application/octet-stream");
+                backupIntent.putExtra(Intent.EXTRA_TITLE, BACKUP_FILE_NAME);
+                startActivityForResult(backupIntent, BACKUP_REQUEST);
+                return true;
+
+            case R.id.main_menu_restore:
+                // Replace all products with the ones of a snapshot.
+                warnForRestore();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     /**
-     * Instantiate and return a new Loader for the given ID.
+     * Instantiate and return a new Loader for the given ID. Every page of products has its own
+     * loader, whose ID is the number of the page.
      *
      * @param id   The ID whose loader is to be created.
      * @param args Any arguments supplied by the caller.
@@ -90,19 +317,27 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection to show the columns of the table "products" that we need for the
-        // ListView.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_NAME_PRODUCT,          // Name of the product.
-                ProductEntry.COLUMN_NAME_IMAGE,            // Product image.
-                ProductEntry.COLUMN_NAME_PRICE,            // Price of the product.
-                ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, // Name of the supplier.
-                ProductEntry.COLUMN_NAME_QUANTITY};        // Current units in stock.
-
-        // Execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(this,       // Parent activity context.
-                ProductEntry.CONTENT_URI,   // Provider content URI to query.
+        String[] projection = LIST_PROJECTION;
+
+        // If there is a text to search, query the search URI instead of the whole table. Search
+        // results are not paged and also include a snippet of the matching text. Otherwise, query
+        // the page of products right after the last product of the previous page.
+        Uri uri;
+        String search = args == null ? null : args.getString(ARG_SEARCH);
+        if (!TextUtils.isEmpty(search)) {
+            uri = ProductEntry.buildSearchUri(search);
+            projection = Arrays.copyOf(projection, projection.length + 1);
+            projection[projection.length - 1] = ProductEntry.COLUMN_NAME_SNIPPET;
+        } else if (args != null && args.containsKey(ARG_AFTER)) {
+            uri = ProductEntry.buildPageUri(PAGE_SORT_COLUMN, PAGE_SIZE, args.getString(ARG_AFTER), args.getLong(ARG_AFTER_ID));
+        } else {
+            uri = ProductEntry.buildPageUri(PAGE_SORT_COLUMN, PAGE_SIZE, null, 0);
+        }
+
+        // Execute the ContentProvider's query method on a background thread, and compare the
+        // result with the previous one there too.
+        return new ProductListLoader(this,  // Parent activity context.
+                uri,                        // Provider content URI to query.
                 projection,                 // Columns to include in the resulting Cursor.
                 null,                       // No selection clause.
                 null,                       // No selection arguments.
@@ -117,8 +352,40 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update inventoryCursorAdapter with this new cursor containing updated product data.
-        inventoryCursorAdapter.swapCursor(data);
+        int page = loader.getId();
+        if (page >= pageArgs.size()) return;
+        ProductListLoader.Page newPage = (ProductListLoader.Page) data;
+        DiffUtil.DiffResult diff = newPage == null ? null : newPage.getDiffFrom(pageCursors.get(page));
+        int offset = getPageOffset(page);
+        int oldCount = getShownCount(page);
+        if (newPage == null) pageCursors.remove(page);
+        else pageCursors.put(page, newPage);
+
+        // Products refreshed one by one are shown from the page again if it is up to date.
+        for (int row = 0; newPage != null && row < newPage.getRowCount(); row++)
+            inventoryCursorAdapter.discardRowCursor(newPage.getProductId(row), newPage.getVersion(row));
+
+        // Notify the list about the changes in this page, if it is shown. If the page has been
+        // compared with the one shown, only the products that have changed are bound again.
+        if (offset != -1) {
+            if (diff != null) {
+                diff.dispatchUpdatesTo(new OffsetListUpdateCallback(inventoryCursorAdapter, offset));
+            } else {
+                if (oldCount > 0) inventoryCursorAdapter.notifyItemRangeRemoved(offset, oldCount);
+                int newCount = getShownCount(page);
+                if (newCount > 0) inventoryCursorAdapter.notifyItemRangeInserted(offset, newCount);
+            }
+        }
+
+        // If the last product of this page has changed, the next pages don't start where they
+        // should anymore. Discard them and load them again.
+        if (page + 1 < pageArgs.size() && !isSamePageKey(getNextPageArgs(newPage), pageArgs.get(page + 1))) {
+            truncatePages(page + 1);
+            loadNextPage();
+        }
+
+        // Update inventoryCursorAdapter with the updated product data.
+        updateAdapterCursor();
     }
 
     /**
@@ -131,36 +398,545 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted.
-        inventoryCursorAdapter.swapCursor(null);
+        int page = loader.getId();
+        if (pageCursors.get(page) == null) return;
+        removePages(page, page + 1);
+        updateAdapterCursor();
     }
 
     /**
-     * Helper method to set the List View in which the products are going to be shown.
+     * Helper method to show all the loaded pages of products in the list. The changes must have
+     * been notified to the adapter already.
      */
-    private void setMainListView() {
-        // Set the view to show when the list is empty.
-        mainListView.setEmptyView(emptyDatabaseTextView);
+    private void updateAdapterCursor() {
+        // Join the pages in order, up to the first page that is not loaded yet.
+        ArrayList<Cursor> cursors = new ArrayList<>();
+        for (int page = INVENTORY_LOADER; page < pageArgs.size() && pageCursors.get(page) != null; page++)
+            cursors.add(pageCursors.get(page));
 
-        // Setup an Adapter to create a list item for each row of product data in the Cursor.
-        inventoryCursorAdapter = new InventoryCursorAdapter(this, null);
-        mainListView.setAdapter(inventoryCursorAdapter);
+        // The adapter doesn't own the cursors of the pages, so the previous cursor is not closed.
+        if (cursors.isEmpty()) inventoryCursorAdapter.setCursor(null);
+        else inventoryCursorAdapter.setCursor(new MergeCursor(cursors.toArray(new Cursor[cursors.size()])));
+
+        // Show the empty view if there are no products.
+        emptyDatabaseTextView.setVisibility(inventoryCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Helper method to get the position of the first product of a page in the list.
+     *
+     * @param page is the page.
+     * @return the position of its first product, or -1 if the page is not shown because a previous
+     * page is not loaded yet.
+     */
+    private int getPageOffset(int page) {
+        int offset = 0;
+        for (int previous = INVENTORY_LOADER; previous < page; previous++) {
+            if (previous >= pageArgs.size() || pageCursors.get(previous) == null) return -1;
+            offset += pageCursors.get(previous).getRowCount();
+        }
+        return offset;
+    }
+
+    /**
+     * Helper method to get the number of products shown in the list from a page onwards.
+     *
+     * @param firstPage is the first page to count.
+     * @return the number of products shown from the first product of the given page.
+     */
+    private int getShownCount(int firstPage) {
+        if (getPageOffset(firstPage) == -1) return 0;
+        int count = 0;
+        for (int page = firstPage; page < pageArgs.size() && pageCursors.get(page) != null; page++)
+            count += pageCursors.get(page).getRowCount();
+        return count;
+    }
+
+    /**
+     * Helper method to get the position of a product in the list.
+     *
+     * @param productId is the _id of the product.
+     * @return the position of the product, or -1 if it is not shown.
+     */
+    private int getProductPosition(long productId) {
+        int offset = 0;
+        for (int page = INVENTORY_LOADER; page < pageArgs.size() && pageCursors.get(page) != null; page++) {
+            int row = pageCursors.get(page).indexOf(productId);
+            if (row != -1) return offset + row;
+            offset += pageCursors.get(page).getRowCount();
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to query again a single product shown in the list, after it has changed. If
+     * the product is already being queried, it is queried again when the current query finishes.
+     *
+     * @param productId is the _id of the product, or -1.
+     */
+    private void refreshProduct(long productId) {
+        if (productId == -1 || getProductPosition(productId) == -1) return;
+        if (!pendingProducts.add(productId)) {
+            staleProducts.add(productId);
+            return;
+        }
+        productQueryHandler.startQuery(0, productId, ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId),
+                LIST_PROJECTION, null, null, null);
+    }
 
-        // Define behaviour of every list item.
-        mainListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+    /**
+     * Helper method to register the observer for changes in single products, and to set the
+     * handler that queries them.
+     */
+    private void setProductObserver() {
+        productQueryHandler = new AsyncQueryHandler(getContentResolver()) {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                long productId = (Long) cookie;
+                pendingProducts.remove(productId);
+
+                // Show the new version of the product, if it is still in the list. If it has been
+                // deleted, the list is reloaded anyway.
+                if (cursor != null && (isDestroyed() || !cursor.moveToFirst())) {
+                    cursor.close();
+                    inventoryCursorAdapter.discardRowCursor(productId, Long.MAX_VALUE);
+                } else if (cursor != null && inventoryCursorAdapter.setRowCursor(productId, cursor)) {
+                    int position = getProductPosition(productId);
+                    if (position != -1) inventoryCursorAdapter.notifyItemChanged(position);
+                }
 
+                // Query the product again if it has changed during this query.
+                if (staleProducts.remove(productId) && !isDestroyed()) refreshProduct(productId);
+            }
+        };
+        getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, productObserver);
+    }
 
+    /**
+     * Helper method to discard loaded pages and notify the list about the products removed.
+     *
+     * @param firstPage is the first page to discard.
+     * @param endPage   is the page after the last page to discard.
+     */
+    private void removePages(int firstPage, int endPage) {
+        int offset = getPageOffset(firstPage);
+        int oldCount = getShownCount(firstPage);
+        for (int page = firstPage; page < endPage; page++) pageCursors.remove(page);
+        if (offset == -1) return;
+
+        // Pages after the discarded ones may not be shown anymore either.
+        int newCount = getShownCount(firstPage);
+        if (oldCount > newCount) inventoryCursorAdapter.notifyItemRangeRemoved(offset + newCount, oldCount - newCount);
+    }
+
+    /**
+     * Helper method to start loading the next page of products, if the last page is already loaded
+     * and it is full.
+     */
+    private void loadNextPage() {
+        int lastPage = pageArgs.size() - 1;
+        Bundle args = getNextPageArgs(pageCursors.get(lastPage));
+        if (args == null || !TextUtils.isEmpty(searchText)) return;
+        pageArgs.add(args);
+        getLoaderManager().initLoader(lastPage + 1, args, this);
+    }
+
+    /**
+     * Helper method to discard pages of products and stop their loaders.
+     *
+     * @param firstPage is the first page to discard. All the following pages are also discarded.
+     */
+    private void truncatePages(int firstPage) {
+        int pages = pageArgs.size();
+        removePages(firstPage, pages);
+        while (pageArgs.size() > firstPage) pageArgs.remove(pageArgs.size() - 1);
+        for (int page = firstPage; page < pages; page++) getLoaderManager().destroyLoader(page);
+    }
+
+    /**
+     * Helper method to get the loader arguments for the page that follows a given page.
+     *
+     * @param page is the cursor of the given page.
+     * @return the loader arguments of the next page, or null if the given page is not loaded yet
+     * or it is the last one.
+     */
+    private static Bundle getNextPageArgs(Cursor page) {
+        if (page == null || page.isClosed() || page.getCount() < PAGE_SIZE || !page.moveToLast())
+            return null;
+        Bundle args = new Bundle();
+        args.putString(ARG_AFTER, page.getString(page.getColumnIndex(PAGE_SORT_COLUMN)));
+        args.putLong(ARG_AFTER_ID, page.getLong(page.getColumnIndex(ProductEntry._ID)));
+        return args;
+    }
+
+    /**
+     * Helper method to determine whether two pages start at the same product.
+     *
+     * @param args1 is the loader arguments of the first page.
+     * @param args2 is the loader arguments of the second page.
+     * @return true if both pages start after the same product, false otherwise.
+     */
+    private static boolean isSamePageKey(Bundle args1, Bundle args2) {
+        return args1 != null && args2 != null &&
+                args1.getLong(ARG_AFTER_ID) == args2.getLong(ARG_AFTER_ID) &&
+                TextUtils.equals(args1.getString(ARG_AFTER), args2.getString(ARG_AFTER));
+    }
+
+    /**
+     * Helper method to set the Recycler View in which the products are going to be shown.
+     */
+    private void setMainListView() {
+        // Setup an Adapter to create a list item for each row of product data in the Cursor.
+        inventoryCursorAdapter = new InventoryCursorAdapter(this, null, new InventoryCursorAdapter.OnProductClickListener() {
+            @Override
+            public void onProductClick(long productId) {
                 Intent intent = new Intent(MainActivity.this, ProductActivity.class);
 
                 // Create the URI "content://com.example.android.inventoryapp/products/id" and save
                 // it into the data field of the intent.
-                intent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+                intent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
 
                 // Navigate to the edit product activity, for editing the current product.
                 startActivity(intent);
             }
         });
+        layoutManager = new LinearLayoutManager(this);
+        mainListView.setLayoutManager(layoutManager);
+        mainListView.setHasFixedSize(true);
+        mainListView.setAdapter(inventoryCursorAdapter);
+
+        // Rebind changed rows in place, instead of cross-fading them with a new view.
+        ((SimpleItemAnimator) mainListView.getItemAnimator()).setSupportsChangeAnimations(false);
+
+        // Load the next page of products when the user is about to reach the end of the list.
+        mainListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = inventoryCursorAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition() + 1 >= totalItemCount - PAGE_PREFETCH)
+                    loadNextPage();
+            }
+        });
+        updateAdapterCursor();
+    }
+
+    /**
+     * Helper method to set the search view of the options menu. Searches are delayed until the user
+     * stops typing for SEARCH_DELAY_MS, so a single query is run for every word typed.
+     *
+     * @param searchItem is the menu item of the search view.
+     */
+    private void setSearchView(MenuItem searchItem) {
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.main_menu_search));
+
+        // Restore the current search, if any.
+        if (!searchText.isEmpty()) {
+            String text = searchText;
+            searchItem.expandActionView();
+            searchView.setQuery(text, false);
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Search immediately.
+                searchText = query.trim();
+                searchHandler.removeCallbacks(searchRunnable);
+                searchRunnable.run();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Search when the user stops typing.
+                if (searchText.equals(newText.trim())) return true;
+                searchText = newText.trim();
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Called when the file to import, the backup file to create or the backup to restore has been
+     * picked.
+     *
+     * @param requestCode is the request code passed to startActivityForResult().
+     * @param resultCode  is the result code returned by the picker.
+     * @param data        is the intent with the URI of the picked file.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        switch (requestCode) {
+            case IMPORT_REQUEST:
+                importProducts(data.getData());
+                break;
+
+            case BACKUP_REQUEST:
+                backupProducts(getApplicationContext(), data.getData());
+                break;
+
+            case RESTORE_REQUEST:
+                restoreProducts(data.getData());
+                break;
+
+            default:
+                super.onActivityResult(requestCode, resultCode, data);
+                break;
+        }
+    }
+
+    /**
+     * Helper method to import the products of a file on the writer thread. Every chunk of the file
+     * is queued as a separate write, so other writes don't wait for the whole import. The lists and
+     * the summary are refreshed after every committed chunk, a progress bar shows how much of the
+     * file has been read, and a toast reports the result.
+     *
+     * @param uri is the URI of the file.
+     */
+    private void importProducts(Uri uri) {
+        if (pendingImport != null) return;
+
+        Context context = getApplicationContext();
+        pendingImport = new PendingImport(this, uri, new ProductImporter(context.getContentResolver()).newImport(uri, null));
+        showImportProgress();
+        invalidateOptionsMenu();
+        queueImportChunk(context, pendingImport);
+    }
+
+    /**
+     * Helper method to queue the next chunk of an import on the writer thread. The chunk after it
+     * is queued when this one completes, behind any other write queued in the meantime. It is
+     * static, so the import never holds a reference to a destroyed activity.
+     *
+     * @param context is the application context.
+     * @param pending is the import.
+     */
+    private static void queueImportChunk(final Context context, final PendingImport pending) {
+        InventoryWriteExecutor.getInstance(context).execute(new InventoryWriteExecutor.Write<Boolean>() {
+            @Override
+            public Boolean run(ContentResolver contentResolver) {
+                Boolean finished = null;
+                try {
+                    finished = pending.fileImport.importNextChunk();
+                    return finished;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error importing " + pending.uri + ": " + e);
+                    return null;
+                } finally {
+                    // Close the file once the import has finished or failed.
+                    if (!Boolean.FALSE.equals(finished)) closeQuietly(pending.fileImport);
+                }
+            }
+        }, new InventoryWriteExecutor.Callback<Boolean>() {
+            @Override
+            public void onWriteComplete(Boolean finished) {
+                if (Boolean.FALSE.equals(finished)) {
+                    // Show the progress and go on with the next chunk.
+                    pending.progress = pending.fileImport.getProgress();
+                    if (pending.activity != null) pending.activity.showImportProgress();
+                    queueImportChunk(context, pending);
+                    return;
+                }
+
+                pendingImport = null;
+                if (pending.activity != null) {
+                    pending.activity.showImportProgress();
+                    pending.activity.invalidateOptionsMenu();
+                }
+                ProductImporter.Result result = finished == null ? null : pending.fileImport.getResult();
+                if (result == null) {
+                    Toast.makeText(context, context.getString(R.string.toast_import_error), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(context, context.getString(R.string.toast_import_ok, result.getInserted(), result.getRows(),
+                            result.getRejected(), result.getRowsPerSecond()), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Helper method to show the progress of the running import, or to hide the progress bar if
+     * there is none.
+     */
+    private void showImportProgress() {
+        if (pendingImport == null) {
+            importProgressBar.setVisibility(View.GONE);
+            return;
+        }
+        importProgressBar.setIndeterminate(pendingImport.progress < 0);
+        if (pendingImport.progress >= 0) importProgressBar.setProgress(pendingImport.progress);
+        importProgressBar.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Helper method to save a snapshot of all the products into a file. The snapshot is written
+     * into a local cache file on the writer thread, so none of the writes of the app change the
+     * products while it is being written, and it is then copied to the backup file on a background
+     * thread, so the writes of the app don't wait for the backup file, which may be remote. A
+     * toast reports the result, which is only a success if the content provider has written the
+     * whole snapshot without errors and the backup file has been written and closed.
+     *
+     * @param context is the application context.
+     * @param uri     is the URI of the backup file.
+     */
+    private static void backupProducts(final Context context, final Uri uri) {
+        InventoryWriteExecutor.getInstance(context).execute(new InventoryWriteExecutor.Write<File>() {
+            @Override
+            public File run(ContentResolver contentResolver) {
+                ParcelFileDescriptor snapshot = null;
+                InputStream input = null;
+                OutputStream output = null;
+                File file = null;
+                boolean saved = false;
+                try {
+                    file = File.createTempFile("backup", ".snapshot", context.getCacheDir());
+                    snapshot = contentResolver.openFileDescriptor(ProductEntry.SNAPSHOT_URI, "r");
+                    if (snapshot == null) return null;
+                    input = new ParcelFileDescriptor.AutoCloseInputStream(snapshot);
+                    output = new FileOutputStream(file);
+                    copy(input, output);
+
+                    // A snapshot whose writer has failed ends early, but its pipe is closed with
+                    // an error.
+                    snapshot.checkError();
+                    output.close();
+                    output = null;
+                    saved = true;
+                    return file;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing snapshot for " + uri + ": " + e);
+                    return null;
+                } finally {
+                    closeQuietly(output);
+                    closeQuietly(input != null ? input : snapshot);
+                    if (!saved && file != null && !file.delete()) Log.w(LOG_TAG, "Can't delete " + file);
+                }
+            }
+        }, new InventoryWriteExecutor.Callback<File>() {
+            @Override
+            public void onWriteComplete(File file) {
+                if (file == null) {
+                    Toast.makeText(context, context.getString(R.string.toast_backup_error), Toast.LENGTH_LONG).show();
+                } else {
+                    new BackupCopyTask(context, file, uri).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                }
+            }
+        });
+    }
+
+    /**
+     * Helper method to copy a stream into another one.
+     *
+     * @param input  is the stream to read.
+     * @param output is the stream to write.
+     * @return the number of bytes copied.
+     * @throws IOException if any of the streams fails.
+     */
+    private static long copy(InputStream input, OutputStream output) throws IOException {
+        long size = 0;
+        byte[] buffer = new byte[BACKUP_BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * Helper method to close a stream or a file descriptor, logging any error.
+     *
+     * @param closeable is the stream or file descriptor to close, or null.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error closing " + closeable + ": " + e);
+        }
+    }
+
+    /**
+     * Helper method to replace all the products with the ones of a snapshot file, on the writer
+     * thread. The content provider swaps them in at once, so the lists are refreshed only once, and
+     * a toast reports the result.
+     *
+     * @param uri is the URI of the backup file.
+     */
+    private void restoreProducts(final Uri uri) {
+        final Context context = getApplicationContext();
+        InventoryWriteExecutor.getInstance(this).execute(new InventoryWriteExecutor.Write<Long>() {
+            @Override
+            public Long run(ContentResolver contentResolver) {
+                try {
+                    Bundle extras = new Bundle();
+                    extras.putParcelable(InventoryContract.EXTRA_SNAPSHOT_FILE, contentResolver.openFileDescriptor(uri, "r"));
+                    Bundle result = contentResolver.call(ProductEntry.CONTENT_URI, InventoryContract.METHOD_RESTORE_SNAPSHOT,
+                            null, extras);
+                    return result == null ? null : result.getLong(InventoryContract.EXTRA_SNAPSHOT_PRODUCTS);
+                } catch (FileNotFoundException e) {
+                    Log.e(LOG_TAG, "Error opening backup " + uri + ": " + e);
+                    return null;
+                }
+            }
+        }, new InventoryWriteExecutor.Callback<Long>() {
+            @Override
+            public void onWriteComplete(Long products) {
+                if (products == null) {
+                    Toast.makeText(context, context.getString(R.string.toast_restore_error), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(context, context.getString(R.string.toast_restore_ok, products), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Helper method to ask the user for confirmation before picking a backup to restore, as
+     * restoring replaces all the products.
+     */
+    private void warnForRestore() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.dialog_restore);
+        builder.setPositiveButton(R.string.dialog_restore_positive, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Restore confirmed: pick the backup file.
+                Intent restoreIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                restoreIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                restoreIntent.setType("*/*");
+                startActivityForResult(restoreIntent, RESTORE_REQUEST);
+            }
+        });
+        builder.setNegativeButton(R.string.dialog_restore_negative, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Restore cancelled.
+                if (dialog != null) dialog.dismiss();
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Helper method to share all the products as a CSV file. The file is not built here: the
+     * receiving app streams it from the content provider, which is granted read access to the
+     * export URI only.
+     */
+    private void exportProducts() {
+        Uri uri = ProductEntry.buildExportUri(ProductEntry.EXPORT_FORMAT_CSV);
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(ProductEntry.CONTENT_CSV_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.setClipData(ClipData.newRawUri(null, uri));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.main_export_chooser)));
     }
 
     /**
@@ -191,13 +967,132 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      * Helper method to delete all the products in the database.
      */
     private void clearDatabase() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        if (rowsDeleted == 0) {
-            // Deletion failed.
-            Toast.makeText(this, getString(R.string.toast_database_deletion_error), Toast.LENGTH_LONG).show();
-        } else {
-            // Deletion ok.
-            Toast.makeText(this, getString(R.string.toast_database_deletion_ok), Toast.LENGTH_LONG).show();
+        InventoryWriteExecutor.getInstance(this).delete(ProductEntry.CONTENT_URI, null, null,
+                newClearDatabaseCallback(getApplicationContext()));
+    }
+
+    /**
+     * Helper method to build the callback that reports the deletion of all the products. It is
+     * static and only holds the application context, so the activity is not kept alive until
+     * the writer thread gets to the deletion.
+     *
+     * @param context is the application context.
+     * @return the callback.
+     */
+    private static InventoryWriteExecutor.Callback<Integer> newClearDatabaseCallback(final Context context) {
+        return new InventoryWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer rowsDeleted) {
+                if (rowsDeleted == 0) {
+                    // Deletion failed.
+                    Toast.makeText(context, context.getString(R.string.toast_database_deletion_error), Toast.LENGTH_LONG).show();
+                } else {
+                    // Deletion ok.
+                    Toast.makeText(context, context.getString(R.string.toast_database_deletion_ok), Toast.LENGTH_LONG).show();
+                }
+            }
+        };
+    }
+
+    /**
+     * Import of a file running on the writer thread, and the activity that shows its progress.
+     * Only accessed on the UI thread, except for the import itself, which is only run on the
+     * writer thread.
+     */
+    private static final class PendingImport {
+        final Uri uri;                              // URI of the file.
+        final ProductImporter.Import fileImport;    // Import of the file.
+        MainActivity activity;                      // Current instance of the activity, or null if there is none.
+        int progress = -1;                          // Percentage of the file read, or -1 if unknown.
+
+        PendingImport(MainActivity activity, Uri uri, ProductImporter.Import fileImport) {
+            this.activity = activity;
+            this.uri = uri;
+            this.fileImport = fileImport;
+        }
+    }
+
+    /**
+     * Task that copies a snapshot from the local cache file written by the writer thread to the
+     * backup file, and then deletes the cache file. A toast reports the result.
+     */
+    private static final class BackupCopyTask extends AsyncTask<Void, Void, Long> {
+        private final Context context;  // Application context.
+        private final File file;        // Local file with the snapshot.
+        private final Uri uri;          // URI of the backup file.
+
+        BackupCopyTask(Context context, File file, Uri uri) {
+            this.context = context;
+            this.file = file;
+            this.uri = uri;
+        }
+
+        @Override
+        protected Long doInBackground(Void... params) {
+            InputStream input = null;
+            OutputStream output = null;
+            try {
+                input = new FileInputStream(file);
+                output = context.getContentResolver().openOutputStream(uri, "w");
+                if (output == null) return null;
+                long size = copy(input, output);
+
+                // The backup file is only complete once it has been closed.
+                output.close();
+                output = null;
+                return size;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error saving backup to " + uri + ": " + e);
+                return null;
+            } finally {
+                closeQuietly(output);
+                closeQuietly(input);
+                if (!file.delete()) Log.w(LOG_TAG, "Can't delete " + file);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Long size) {
+            if (size == null) {
+                Toast.makeText(context, context.getString(R.string.toast_backup_error), Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(context, context.getString(R.string.toast_backup_ok, (size + 1023) / 1024),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * ListUpdateCallback that notifies the adapter about the changes in a single page, whose first
+     * product is at a given position of the list.
+     */
+    private static class OffsetListUpdateCallback implements ListUpdateCallback {
+        private final RecyclerView.Adapter adapter;
+        private final int offset;
+
+        OffsetListUpdateCallback(RecyclerView.Adapter adapter, int offset) {
+            this.adapter = adapter;
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            adapter.notifyItemRangeInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            adapter.notifyItemRangeRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            adapter.notifyItemMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            adapter.notifyItemRangeChanged(offset + position, count, payload);
         }
     }
 }
@@ -2,7 +2,9 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -10,9 +12,9 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
-import android.text.TextUtils;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -30,8 +32,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryWriteExecutor;
 
-import java.text.DecimalFormat;
 import java.util.Locale;
 
 import butterknife.BindView;
@@ -40,6 +42,12 @@ import butterknife.ButterKnife;
 public class ProductActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final int INVENTORY_LOADER = 0;              // Identifier for the loader.
+    private static final long QUANTITY_FLUSH_DELAY_MS = 500;    // Quiet period before writing quantity changes.
+
+    // Save in progress, if any. It is kept out of the activity, so its result is delivered to the
+    // current instance of the activity after it has been recreated, as on a screen rotation.
+    private static PendingSave pendingSave = null;
+
     // Annotate fields with @BindView and views ID for Butter Knife to find and automatically cast
     // the corresponding views.
     @BindView(R.id.product_name_edit_text)
@@ -72,13 +80,26 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     Button quantityDecreaseButton;
     private Uri currentProductUri = null;                       // URI of the current product, if exists one.
     private boolean unsavedChanges = false;                     // true if we are editing or creating a product.
-    private String imageType = ProductEntry.IMAGE_TYPE_NONE;    // Current image type selected on spinner.
+    private int imageType = ProductEntry.IMAGE_TYPE_NONE;       // Current image type selected on spinner.
     private String productName = "";                            // Name of the product.
-    private String productPrice = "";                           // Unit price for the product, formatted in euros and 2 decimals.
+    private long productPrice = 0;                              // Unit price for the product, in euro cents.
     private int productQuantity = 0;                            // Current number of units in the database.
+    private int pendingQuantityDelta = 0;                       // Units added or removed but not written yet.
+    private int writingQuantityDelta = 0;                       // Units added or removed being written.
+    private final Handler quantityHandler = new Handler();      // Handler for delaying quantity writes.
+
+    // Write the pending quantity changes.
+    private final Runnable flushQuantityRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushProductQuantity();
+        }
+    };
     private int orderQuantity = 1;                              // Number of units to order.
     private String providerName = "";                           // Provider name.
     private String providerEmail = "";                          // Provider e-mail.
+    private final FixedPointFormat displayFormat = new FixedPointFormat(Locale.getDefault());  // Format for shown prices.
+    private final char[] numberBuffer = new char[FixedPointFormat.MAX_LENGTH];                // Buffer for prices and units.
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -90,6 +111,31 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         setOnChangeListeners(); // Setup OnTouchListeners and OnKeyListeners to determine if there is unsaved data.
         setImageSpinner();      // Setup image selection spinner.
         setupButtons();         // Setup buttons from managing quantity and emailing suppliers.
+
+        // Take over the save started by the previous instance of the activity, if any. Its result
+        // may have arrived while there was no instance to deliver it to. A save left by an
+        // instance that was never recreated is discarded.
+        if (pendingSave != null) {
+            if (savedInstanceState != null) {
+                pendingSave.activity = this;
+                if (pendingSave.complete) onSaveComplete(pendingSave);
+            } else if (pendingSave.activity == null) {
+                pendingSave = null;
+            }
+        }
+    }
+
+    /**
+     * Called when the activity is being destroyed. A save in progress is only reported to a new
+     * instance of the activity if this one is being recreated.
+     */
+    @Override
+    protected void onDestroy() {
+        if (pendingSave != null && pendingSave.activity == this) {
+            if (isFinishing()) pendingSave = null;
+            else pendingSave.activity = null;
+        }
+        super.onDestroy();
     }
 
     /**
@@ -115,8 +161,9 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.product_menu_save:
-                // Save current product.
-                if (saveProduct()) finish();
+                // Save current product. The activity is closed when the product has been saved, and
+                // the menu item is disabled until then.
+                saveProduct();
                 return true;
 
             case R.id.product_menu_delete:
@@ -135,6 +182,17 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Called when the activity is going into the background. Pending quantity changes are written
+     * right now, so they are never lost if the activity is killed.
+     */
+    @Override
+    protected void onPause() {
+        quantityHandler.removeCallbacks(flushQuantityRunnable);
+        flushProductQuantity();
+        super.onPause();
+    }
+
     /**
      * Called when the activity has detected the user's press of the back key.
      */
@@ -159,6 +217,9 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         if (currentProductUri == null) menuItem.setVisible(false);
         else menuItem.setVisible(true);
 
+        // Disable the "Save" menu item while the product is being saved.
+        menu.findItem(R.id.product_menu_save).setEnabled(pendingSave == null);
+
         // Return true to display the menu.
         return true;
     }
@@ -203,6 +264,14 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         // Move to the first row of the cursor.
         if (data.moveToFirst()) {
+            // Show current quantity for the product, including the changes not written yet.
+            productQuantity = data.getInt(data.getColumnIndex(ProductEntry.COLUMN_NAME_QUANTITY));
+            showProductQuantity();
+
+            // If the user is editing the product, the quantity is the only field that can be
+            // refreshed without discarding unsaved changes.
+            if (unsavedChanges) return;
+
             // Show layouts for orders to supplier and for displaying the product quantity.
             productStockLayout.setVisibility(View.VISIBLE);
             supplierOrderLayout.setVisibility(View.VISIBLE);
@@ -212,62 +281,17 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
             productNameEditText.setText(productName);
 
             // Show price for the product. Prices are stored in euro cents, but displayed as euros
-            // (2 decimals).
-            DecimalFormat form = new DecimalFormat("0.00");
-            productPrice = form.format(data.getFloat(data.getColumnIndex(ProductEntry.COLUMN_NAME_PRICE)) / 100);
-            productPriceEditText.setText(productPrice);
+            // (2 decimals), in the format accepted by the price field.
+            productPrice = data.getLong(data.getColumnIndex(ProductEntry.COLUMN_NAME_PRICE));
+            productPriceEditText.setText(numberBuffer, 0, FixedPointFormat.INPUT.appendCents(numberBuffer, 0, productPrice));
 
             // Show product description.
             productDescriptionEditText.setText(data.getString(data.getColumnIndex(ProductEntry.COLUMN_NAME_DESCRIPTION)));
 
             // Show image and set the correct selection in the image type spinner.
-            String image = data.getString(data.getColumnIndex(ProductEntry.COLUMN_NAME_IMAGE));
-            productImageView.setImageDrawable(getDrawable(getResources().getIdentifier(image, "drawable", getPackageName())));
-            switch (image) {
-                case ProductEntry.IMAGE_TYPE_CULTURE:
-                    productImageSpinner.setSelection(1);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_HOTELS:
-                    productImageSpinner.setSelection(2);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_LEISURE:
-                    productImageSpinner.setSelection(3);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_NIGHT:
-                    productImageSpinner.setSelection(4);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_RESTAURANTS:
-                    productImageSpinner.setSelection(5);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_SHOPPING:
-                    productImageSpinner.setSelection(6);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_SHOWS:
-                    productImageSpinner.setSelection(7);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_TRANSPORT:
-                    productImageSpinner.setSelection(8);
-                    break;
-
-                case ProductEntry.IMAGE_TYPE_VISITS:
-                    productImageSpinner.setSelection(9);
-                    break;
-
-                default:
-                    productImageSpinner.setSelection(0);
-                    break;
-            }
-
-            // Show current quantity for the product.
-            productQuantity = data.getInt(data.getColumnIndex(ProductEntry.COLUMN_NAME_QUANTITY));
-            productQuantityTextView.setText(String.format(Locale.getDefault(), "%s", productQuantity));
+            int image = data.getInt(data.getColumnIndex(ProductEntry.COLUMN_NAME_IMAGE));
+            productImageView.setImageResource(ImageTypes.getDrawable(image));
+            productImageSpinner.setSelection(ImageTypes.getSpinnerPosition(image));
 
             // Show product provider name.
             providerName = data.getString(data.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT));
@@ -279,7 +303,7 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
 
             // Show number of units for ordering to the supplier.
             orderQuantity = data.getInt(data.getColumnIndex(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY));
-            supplierOrderQuantityEditText.setText(String.format(Locale.getDefault(), "%s", orderQuantity));
+            supplierOrderQuantityEditText.setText(numberBuffer, 0, FixedPointFormat.INPUT.appendUnits(numberBuffer, 0, orderQuantity));
             if (orderQuantity > 1)
                 supplierOrderButton.setText(getResources().getString(R.string.supplier_order_button, orderQuantity, "(s)"));
             else
@@ -434,7 +458,7 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     private void setImageSpinner() {
         // Create an ArrayAdapter using the string array and a default spinner layout, specify the
         // layout to use when the list of choices appears and apply the adapter to the spinner.
-        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(this, R.array.array_image_type, android.R.layout.simple_spinner_item);
+        ArrayAdapter<CharSequence> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, ImageTypes.getSpinnerLabels(this));
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         productImageSpinner.setAdapter(adapter);
 
@@ -450,67 +474,30 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
              */
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                String selection = (String) parent.getItemAtPosition(position);
-                if (!TextUtils.isEmpty(selection)) {
-                    if (selection.equals(getString(R.string.image_type_culture))) {
-                        // The tourist product is a culture product.
-                        imageType = ProductEntry.IMAGE_TYPE_CULTURE;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_culture));
-                    } else if (selection.equals(getString(R.string.image_type_hotels))) {
-                        // The tourist product is a hotel.
-                        imageType = ProductEntry.IMAGE_TYPE_HOTELS;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_hotels));
-                    } else if (selection.equals(getString(R.string.image_type_leisure))) {
-                        // The tourist product is a leisure product.
-                        imageType = ProductEntry.IMAGE_TYPE_LEISURE;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_leisure));
-                    } else if (selection.equals(getString(R.string.image_type_night))) {
-                        // The tourist product is a night product.
-                        imageType = ProductEntry.IMAGE_TYPE_NIGHT;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_night));
-                    } else if (selection.equals(getString(R.string.image_type_restaurants))) {
-                        // The tourist product is a restaurant.
-                        imageType = ProductEntry.IMAGE_TYPE_RESTAURANTS;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_restaurants));
-                    } else if (selection.equals(getString(R.string.image_type_shopping))) {
-                        // The tourist product is a shopping product.
-                        imageType = ProductEntry.IMAGE_TYPE_SHOPPING;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_shopping));
-                    } else if (selection.equals(getString(R.string.image_type_shows))) {
-                        // The tourist product is a show.
-                        imageType = ProductEntry.IMAGE_TYPE_SHOWS;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_shows));
-                    } else if (selection.equals(getString(R.string.image_type_transport))) {
-                        // The tourist product is a transport product.
-                        imageType = ProductEntry.IMAGE_TYPE_TRANSPORT;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_transport));
-                    } else if (selection.equals(getString(R.string.image_type_visits))) {
-                        // The tourist product is a visit.
-                        imageType = ProductEntry.IMAGE_TYPE_VISITS;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_visits));
-                    } else {
-                        // Default.
-                        imageType = ProductEntry.IMAGE_TYPE_NONE;
-                        productImageView.setImageDrawable(getDrawable(R.drawable.image_type_none));
-                    }
-                }
+                imageType = ImageTypes.fromSpinnerPosition(position);
+                productImageView.setImageResource(ImageTypes.getDrawable(imageType));
             }
 
             // Because AdapterView is an abstract class, onNothingSelected must be defined.
             @Override
             public void onNothingSelected(AdapterView<?> parent) {
                 imageType = ProductEntry.IMAGE_TYPE_NONE;
-                productImageView.setImageDrawable(getDrawable(R.drawable.image_type_none));
+                productImageView.setImageResource(ImageTypes.getDrawable(imageType));
             }
         });
     }
 
     /**
-     * Helper method for saving the current product into the database.
+     * Helper method for saving the current product into the database. The product is checked
+     * here, but written on the writer thread of InventoryWriteExecutor, and the activity is closed
+     * by onSaveComplete() when it has been correctly saved. Only one save can be in progress.
      *
-     * @return true if the changes have been correctly saved, false otherwise.
+     * @return true if the product has been queued for saving, false if it is not valid or another
+     * save is in progress.
      */
     private boolean saveProduct() {
+        if (pendingSave != null) return false;
+
         // Create a ContentValues object to insert or update the product into the database.
         ContentValues values = new ContentValues();
         values.put(ProductEntry.COLUMN_NAME_PRODUCT, productNameEditText.getText().toString().trim());
@@ -519,11 +506,14 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         values.put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, supplierNameEditText.getText().toString().trim());
         values.put(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL, supplierEmailEditText.getText().toString().trim());
 
-        // Set product quantity to 0 if is negative.
-        if (!productQuantityTextView.getText().toString().trim().isEmpty())
-            productQuantity = Integer.parseInt(productQuantityTextView.getText().toString().trim());
-        if (productQuantity < 0) values.put(ProductEntry.COLUMN_NAME_QUANTITY, 0);
-        else values.put(ProductEntry.COLUMN_NAME_QUANTITY, productQuantity);
+        // Set product quantity to 0 if is negative. The quantity of an existing product is only
+        // changed through adjustProductQuantity(), so it is not overwritten when updating.
+        if (currentProductUri == null) {
+            if (!productQuantityTextView.getText().toString().trim().isEmpty())
+                productQuantity = Integer.parseInt(productQuantityTextView.getText().toString().trim());
+            if (productQuantity < 0) values.put(ProductEntry.COLUMN_NAME_QUANTITY, 0);
+            else values.put(ProductEntry.COLUMN_NAME_QUANTITY, productQuantity);
+        }
 
         // Set order quantity to 1 if is lower than 1 or empty.
         if (!supplierOrderQuantityEditText.getText().toString().trim().isEmpty())
@@ -532,10 +522,16 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         values.put(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY, orderQuantity);
 
         // Set price to 0 if it is empty. Otherwise, store price in cents of euro.
-        if (!productPriceEditText.getText().toString().trim().isEmpty())
-            productPrice = productPriceEditText.getText().toString().trim();
-        if (TextUtils.isEmpty(productPrice)) values.put(ProductEntry.COLUMN_NAME_PRICE, 0);
-        else values.put(ProductEntry.COLUMN_NAME_PRICE, Double.parseDouble(productPrice) * 100);
+        if (!productPriceEditText.getText().toString().trim().isEmpty()) {
+            long price = displayFormat.parseCents(productPriceEditText.getText());
+            if (price == FixedPointFormat.INVALID_CENTS) {
+                Toast.makeText(this, getString(R.string.toast_invalid_product_price), Toast.LENGTH_SHORT).show();
+                productPriceEditText.requestFocus();
+                return false;
+            }
+            productPrice = price;
+        }
+        values.put(ProductEntry.COLUMN_NAME_PRICE, productPrice);
 
         // Check data from given ContentValues object.
         int res = ProductEntry.checkContentValues(values);
@@ -576,32 +572,81 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
                 return false;
         }
 
-        // Determine whether we are inserting a new product or editing an existing one.
+        // Determine whether we are inserting a new product or editing an existing one. The
+        // callbacks don't hold this instance, which may have been recreated when they are called.
+        InventoryWriteExecutor writeExecutor = InventoryWriteExecutor.getInstance(this);
+        pendingSave = new PendingSave(this, currentProductUri == null);
         if (currentProductUri == null) {
             // We are adding a new product.
-            Uri newProductURI = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-            if (newProductURI == null) {
+            writeExecutor.insert(values, newInsertCallback(pendingSave));
+        } else {
+            // We are updating an existing product.
+            writeExecutor.update(currentProductUri, values, null, null, newUpdateCallback(pendingSave));
+        }
+        invalidateOptionsMenu();
+        return true;
+    }
+
+    /**
+     * Helper method to create the callback for the insertion of a new product. It is created in
+     * a static method, so it doesn't hold any instance of the activity.
+     *
+     * @param save is the save in progress.
+     * @return the callback, which completes the save.
+     */
+    private static InventoryWriteExecutor.Callback<Uri> newInsertCallback(final PendingSave save) {
+        return new InventoryWriteExecutor.Callback<Uri>() {
+            @Override
+            public void onWriteComplete(Uri newProductUri) {
+                save.complete(newProductUri != null, newProductUri);
+            }
+        };
+    }
+
+    /**
+     * Helper method to create the callback for the update of an existing product. It is created
+     * in a static method, so it doesn't hold any instance of the activity.
+     *
+     * @param save is the save in progress.
+     * @return the callback, which completes the save.
+     */
+    private static InventoryWriteExecutor.Callback<Integer> newUpdateCallback(final PendingSave save) {
+        return new InventoryWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer rows) {
+                save.complete(rows != null && rows > 0, null);
+            }
+        };
+    }
+
+    /**
+     * Helper method to report the result of a save to the user, and close the activity if the
+     * product has been saved.
+     *
+     * @param save is the completed save.
+     */
+    private void onSaveComplete(PendingSave save) {
+        pendingSave = null;
+        if (save.insertion) {
+            if (!save.saved) {
                 // Insertion failed.
                 Toast.makeText(this, getString(R.string.toast_product_insertion_error), Toast.LENGTH_SHORT).show();
-                return false;
             } else {
                 // Insertion ok.
-                Toast.makeText(this, getString(R.string.toast_product_insertion_ok) + ": \n\n" + newProductURI, Toast.LENGTH_LONG).show();
-                return true;
+                Toast.makeText(this, getString(R.string.toast_product_insertion_ok) + ": \n\n" + save.newProductUri, Toast.LENGTH_LONG).show();
+                finish();
             }
         } else {
-            // We are updating an existing product.
-            int rows = getContentResolver().update(currentProductUri, values, null, null);
-            if (rows == 0) {
+            if (!save.saved) {
                 // Updating error.
                 Toast.makeText(this, getString(R.string.toast_product_update_error), Toast.LENGTH_SHORT).show();
-                return false;
             } else {
                 // Updating ok.
                 Toast.makeText(this, getString(R.string.toast_product_update_ok), Toast.LENGTH_SHORT).show();
-                return true;
+                finish();
             }
         }
+        invalidateOptionsMenu();
     }
 
     /**
@@ -657,18 +702,39 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
      */
     private void deleteProduct() {
         if (currentProductUri != null) {
-            // Ask the ContentResolver for deleting the current product.
-            int rowsDeleted = getContentResolver().delete(currentProductUri, null, null);
-            if (rowsDeleted == 0) {
-                // Deletion failed
-                Toast.makeText(this, getString(R.string.toast_product_deletion_error), Toast.LENGTH_SHORT).show();
-            } else {
-                // Deletion ok.
-                Toast.makeText(this, getString(R.string.toast_product_deletion_ok), Toast.LENGTH_SHORT).show();
-            }
+            // Pending quantity changes are not written anymore.
+            quantityHandler.removeCallbacks(flushQuantityRunnable);
+            pendingQuantityDelta = 0;
+
+            // Ask the ContentResolver for deleting the current product, after any previous write.
+            InventoryWriteExecutor.getInstance(this).delete(currentProductUri, null, null,
+                    newDeletionCallback(getApplicationContext()));
         }
     }
 
+    /**
+     * Helper method to build the callback that reports the deletion of the product. The activity
+     * finishes before the deletion is written, so the callback is static and only holds the
+     * application context.
+     *
+     * @param context is the application context.
+     * @return the callback.
+     */
+    private static InventoryWriteExecutor.Callback<Integer> newDeletionCallback(final Context context) {
+        return new InventoryWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer rowsDeleted) {
+                if (rowsDeleted == 0) {
+                    // Deletion failed
+                    Toast.makeText(context, context.getString(R.string.toast_product_deletion_error), Toast.LENGTH_SHORT).show();
+                } else {
+                    // Deletion ok.
+                    Toast.makeText(context, context.getString(R.string.toast_product_deletion_ok), Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
+    }
+
     /**
      * Helper method to define the behaviour of every button in activity_product.xml.
      */
@@ -681,7 +747,8 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
                 intent.setData(Uri.parse("mailto:"));
                 intent.putExtra(Intent.EXTRA_EMAIL, email);
                 intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.email_subject));
-                intent.putExtra(Intent.EXTRA_TEXT, getResources().getString(R.string.email_text, providerName, productName, productPrice, orderQuantity));
+                String price = new String(numberBuffer, 0, displayFormat.appendCents(numberBuffer, 0, productPrice));
+                intent.putExtra(Intent.EXTRA_TEXT, getResources().getString(R.string.email_text, providerName, productName, price, orderQuantity));
                 intent.setType("message/rfc822");
                 startActivity(Intent.createChooser(intent, "Email "));
             }
@@ -690,28 +757,97 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
         // Increase quantity button.
         quantityIncreaseButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
-                // Increase quantity and update product into database.
-                productQuantityTextView.setText(String.format(Locale.getDefault(), "%s", ++productQuantity));
-                if (!saveProduct())
-                    // If updating has failed, restore productQuantity.
-                    if (productQuantity > 0) {
-                        productQuantityTextView.setText(String.format(Locale.getDefault(), "%s", --productQuantity));
-                    }
+                adjustProductQuantity(1);
             }
         });
 
         // Decrease quantity button.
         quantityDecreaseButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
-                if (productQuantity > 0) {
-                    // Decrease quantity and update product into database.
-                    productQuantityTextView.setText(String.format(Locale.getDefault(), "%s", --productQuantity));
-                    if (!saveProduct()) {
-                        // If updating has failed, restore productQuantity.
-                        productQuantityTextView.setText(String.format(Locale.getDefault(), "%s", ++productQuantity));
-                    }
+                if (productQuantity + writingQuantityDelta + pendingQuantityDelta > 0) adjustProductQuantity(-1);
+            }
+        });
+    }
+
+    /**
+     * Helper method to add a number of units to the current quantity of the product. The new
+     * quantity is shown at once, but consecutive changes are accumulated and written to the
+     * database as a single adjustment when the user stops tapping for QUANTITY_FLUSH_DELAY_MS, or
+     * when the activity goes into the background.
+     *
+     * @param delta is the number of units to add (or to remove, if negative).
+     */
+    private void adjustProductQuantity(int delta) {
+        pendingQuantityDelta += delta;
+        showProductQuantity();
+        quantityHandler.removeCallbacks(flushQuantityRunnable);
+        quantityHandler.postDelayed(flushQuantityRunnable, QUANTITY_FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Helper method to write the pending quantity changes to the database, as a single atomic
+     * adjustment queued on the writer thread. Only the quantity is written, so any other unsaved
+     * changes are kept in the editor. If the adjustment fails, the changes are discarded and the
+     * quantity in the database is shown again.
+     */
+    private void flushProductQuantity() {
+        if (pendingQuantityDelta == 0 || currentProductUri == null) return;
+        final int delta = pendingQuantityDelta;
+        pendingQuantityDelta = 0;
+        writingQuantityDelta += delta;
+
+        InventoryWriteExecutor.getInstance(this).adjustQuantity(ContentUris.parseId(currentProductUri), delta, new InventoryWriteExecutor.Callback<Integer>() {
+            @Override
+            public void onWriteComplete(Integer quantity) {
+                writingQuantityDelta -= delta;
+                if (quantity == ProductEntry.QUANTITY_NOT_ADJUSTED) {
+                    // Updating error. Roll back to the quantity in the database.
+                    Toast.makeText(ProductActivity.this, getString(R.string.toast_product_update_error), Toast.LENGTH_SHORT).show();
+                } else {
+                    // Updating ok. Keep the quantity returned by the database.
+                    productQuantity = quantity;
                 }
+                showProductQuantity();
             }
         });
     }
+
+    /**
+     * Helper method to show the current quantity of the product, including the changes not
+     * written to the database yet.
+     */
+    private void showProductQuantity() {
+        productQuantityTextView.setText(numberBuffer, 0, FixedPointFormat.INPUT.appendUnits(numberBuffer, 0,
+                productQuantity + writingQuantityDelta + pendingQuantityDelta));
+    }
+
+    /**
+     * Save of a product in progress, which outlives the instance of the activity that started it.
+     */
+    private static final class PendingSave {
+        final boolean insertion;        // true if a new product is being inserted, false if updated.
+        ProductActivity activity;       // Current instance of the activity, or null while it is recreated.
+        boolean complete = false;       // true when the write has completed.
+        boolean saved = false;          // true if the product has been saved.
+        Uri newProductUri = null;       // URI of the inserted product, if any.
+
+        PendingSave(ProductActivity activity, boolean insertion) {
+            this.activity = activity;
+            this.insertion = insertion;
+        }
+
+        /**
+         * Complete the save, reporting the result to the current instance of the activity. If
+         * there is none, the result is reported when the activity has been recreated.
+         *
+         * @param saved         is true if the product has been saved, false otherwise.
+         * @param newProductUri is the URI of the inserted product, or null.
+         */
+        void complete(boolean saved, Uri newProductUri) {
+            this.complete = true;
+            this.saved = saved;
+            this.newProductUri = newProductUri;
+            if (pendingSave == this && activity != null) activity.onSaveComplete(this);
+        }
+    }
 }
@@ -0,0 +1,197 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+/**
+ * CursorLoader for a page of the list of products. Besides running the query, the background
+ * thread reads the _id and version of every product in the page and compares them with the last
+ * page delivered by this loader, so the list only has to apply the resulting item-level changes.
+ * <p>
+ * The projection must include the _id and version columns.
+ */
+public class ProductListLoader extends CursorLoader {
+
+    private volatile Page deliveredPage;    // Last page delivered by this loader.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param context       is the context.
+     * @param uri           is the URI to query.
+     * @param projection    is the list of columns to return.
+     * @param selection     is the filter declaring which rows to return.
+     * @param selectionArgs is the values for the ?s in selection.
+     * @param sortOrder     is how to order the rows.
+     */
+    public ProductListLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Called on a worker thread to perform the actual load.
+     *
+     * @return a Page with the products and the changes since the last delivered page, or null.
+     */
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) return null;
+        return new Page(cursor, deliveredPage);
+    }
+
+    /**
+     * Called when there is new data to deliver to the client.
+     *
+     * @param cursor is the new data.
+     */
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset() && cursor instanceof Page) deliveredPage = (Page) cursor;
+        super.deliverResult(cursor);
+    }
+
+    /**
+     * Called when the loader is reset. Next pages are not compared with the previous ones.
+     */
+    @Override
+    protected void onReset() {
+        super.onReset();
+        deliveredPage = null;
+    }
+
+    /**
+     * Page of products returned by a ProductListLoader. The keys of the rows are read when the page
+     * is created, so they are still available after the cursor has been closed.
+     */
+    public static class Page extends CursorWrapper {
+        private final long[] ids;                   // _id of every row.
+        private final long[] versions;              // Version of every row.
+        private final long[] baseIds;               // _id of every row of the page compared with.
+        private final DiffUtil.DiffResult diff;     // Changes since the page compared with, or null.
+
+        /**
+         * Constructor for this class. Must be called on a worker thread.
+         *
+         * @param cursor   is the cursor of the page.
+         * @param basePage is the page to compare with, or null.
+         */
+        Page(Cursor cursor, Page basePage) {
+            super(cursor);
+            int count = cursor.getCount();
+            ids = new long[count];
+            versions = new long[count];
+            int idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            int versionColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_NAME_VERSION);
+            for (int row = 0; cursor.moveToPosition(row); row++) {
+                ids[row] = cursor.getLong(idColumnIndex);
+                versions[row] = cursor.getLong(versionColumnIndex);
+            }
+            cursor.moveToPosition(-1);
+
+            if (basePage == null) {
+                baseIds = null;
+                diff = null;
+            } else {
+                baseIds = basePage.ids;
+                diff = DiffUtil.calculateDiff(new KeyDiffCallback(basePage.ids, basePage.versions, ids, versions), false);
+            }
+        }
+
+        /**
+         * Get the number of rows of the page. Unlike getCount(), it can be called after the cursor
+         * has been closed.
+         *
+         * @return the number of rows.
+         */
+        public int getRowCount() {
+            return ids.length;
+        }
+
+        /**
+         * Get the position of a product in the page.
+         *
+         * @param productId is the _id of the product.
+         * @return the position of the product, or -1 if it is not in the page.
+         */
+        public int indexOf(long productId) {
+            for (int row = 0; row < ids.length; row++) {
+                if (ids[row] == productId) return row;
+            }
+            return -1;
+        }
+
+        /**
+         * Get the version of the product at a position of the page.
+         *
+         * @param row is the position of the product.
+         * @return the version of the product.
+         */
+        public long getVersion(int row) {
+            return versions[row];
+        }
+
+        /**
+         * Get the _id of the product at a position of the page.
+         *
+         * @param row is the position of the product.
+         * @return the _id of the product.
+         */
+        public long getProductId(int row) {
+            return ids[row];
+        }
+
+        /**
+         * Get the changes from a page to this page.
+         *
+         * @param page is the page currently shown.
+         * @return the changes, or null if this page was not compared with the given page.
+         */
+        public DiffUtil.DiffResult getDiffFrom(Page page) {
+            return (page != null && page.ids == baseIds) ? diff : null;
+        }
+    }
+
+    /**
+     * DiffUtil callback comparing two lists of rows by their _id and version.
+     */
+    private static class KeyDiffCallback extends DiffUtil.Callback {
+        private final long[] oldIds;
+        private final long[] oldVersions;
+        private final long[] newIds;
+        private final long[] newVersions;
+
+        KeyDiffCallback(long[] oldIds, long[] oldVersions, long[] newIds, long[] newVersions) {
+            this.oldIds = oldIds;
+            this.oldVersions = oldVersions;
+            this.newIds = newIds;
+            this.newVersions = newVersions;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldIds[oldItemPosition] == newIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldVersions[oldItemPosition] == newVersions[newItemPosition];
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.inventoryapp;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract;
+import com.example.android.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.InventoryWriteExecutor;
+
+/**
+ * Periodic job that folds the old stock movements into the stock snapshots, so the ledger stays
+ * bounded, and then verifies that the current quantity of every product still matches the ledger.
+ * The work is queued on the InventoryWriteExecutor, so it never runs concurrently with other writes.
+ */
+public class StockCompactionJobService extends JobService {
+
+    private static final String LOG_TAG = StockCompactionJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;                                    // Id of the job.
+    private static final long JOB_INTERVAL_MS = 24L * 60 * 60 * 1000;       // Time between runs.
+
+    /**
+     * Schedule the job, if it is not scheduled yet. The job runs once a day, while the device is
+     * idle and charging, and it stays scheduled after the device reboots.
+     *
+     * @param context is the context.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) return;
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, StockCompactionJobService.class))
+                .setPeriodic(JOB_INTERVAL_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS)
+            Log.e(LOG_TAG, "Error scheduling the stock compaction job");
+    }
+
+    /**
+     * Called when the job starts. The work is done on the writer thread.
+     *
+     * @param params are the parameters of the job.
+     * @return true, as the job goes on running on the writer thread.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        InventoryWriteExecutor.getInstance(this).execute(new InventoryWriteExecutor.Write<Bundle>() {
+            @Override
+            public Bundle run(ContentResolver contentResolver) {
+                StockMovementEntry.compact(contentResolver, System.currentTimeMillis() - StockMovementEntry.RETENTION_MS);
+                return StockMovementEntry.verify(contentResolver);
+            }
+        }, new InventoryWriteExecutor.Callback<Bundle>() {
+            @Override
+            public void onWriteComplete(Bundle result) {
+                if (result != null) {
+                    long[] driftProductIds = result.getLongArray(InventoryContract.EXTRA_DRIFT_PRODUCT_IDS);
+                    if (driftProductIds != null && driftProductIds.length > 0)
+                        Log.e(LOG_TAG, "Stock ledger doesn't match " + driftProductIds.length + " products");
+                }
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called when the job must stop before it has finished. Compaction runs in a single transaction,
+     * so it is either fully applied or not at all.
+     *
+     * @param params are the parameters of the job.
+     * @return true, so the job is retried later.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return true;
+    }
+}
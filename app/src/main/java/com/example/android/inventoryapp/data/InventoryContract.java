@@ -7,8 +7,11 @@ package com.example.android.inventoryapp.data;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 public final class InventoryContract {
 
     // Name for the content supplier.
@@ -23,6 +26,70 @@ public final class InventoryContract {
     // elements of that table.
     public static final String PATH_PRODUCTS = "products";
 
+    // Path appended to the products path for full-text searches, as in
+    // "content://com.example.android.inventoryapp/products/search?q=text".
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_LIST = "list";
+
+    // Path appended to the products path for the inventory summary, as in
+    // "content://com.example.android.inventoryapp/products/stats".
+    public static final String PATH_STATS = "stats";
+
+    // Path appended to the products path for the metrics of the content provider, as in
+    // "content://com.example.android.inventoryapp/products/metrics".
+    public static final String PATH_METRICS = "metrics";
+
+    // Path appended to the products path for exporting all the products as a file, as in
+    // "content://com.example.android.inventoryapp/products/export?format=csv".
+    public static final String PATH_EXPORT = "export";
+
+    // Path appended to the products path for binary snapshots of all the products, as in
+    // "content://com.example.android.inventoryapp/products/snapshot".
+    public static final String PATH_SNAPSHOT = "snapshot";
+
+    // Path for the stock movements ledger, as in
+    // "content://com.example.android.inventoryapp/stock_movements".
+    public static final String PATH_STOCK_MOVEMENTS = "stock_movements";
+
+    // Methods available through ContentResolver.call() for operations that can't be expressed as
+    // a plain insert, update or delete on a content URI.
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+    public static final String METHOD_BULK_INSERT = "bulk_insert";
+    public static final String METHOD_COMPACT_STOCK_MOVEMENTS = "compact_stock_movements";
+    public static final String METHOD_VERIFY_STOCK = "verify_stock";
+    public static final String METHOD_GET_PRODUCT_CACHE_STATS = "get_product_cache_stats";
+    public static final String METHOD_IMPORT_CHUNK = "import_chunk";
+    public static final String METHOD_GET_IMPORT_CHECKPOINT = "get_import_checkpoint";
+    public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+
+    // Keys for the extras of the Bundles sent to and returned by ContentResolver.call().
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+    public static final String EXTRA_QUANTITY = "quantity";
+    public static final String EXTRA_BULK_VALUES = "bulk_values";
+    public static final String EXTRA_BULK_INSERTED = "bulk_inserted";
+    public static final String EXTRA_REJECTED_ROWS = "rejected_rows";
+    public static final String EXTRA_REJECTED_ERRORS = "rejected_errors";
+    public static final String EXTRA_REJECTED_VIOLATIONS = "rejected_violations";
+    public static final String EXTRA_COMPACT_BEFORE = "compact_before";
+    public static final String EXTRA_MOVEMENTS_COMPACTED = "movements_compacted";
+    public static final String EXTRA_PRODUCTS_CHECKED = "products_checked";
+    public static final String EXTRA_DRIFT_PRODUCT_IDS = "drift_product_ids";
+    public static final String EXTRA_DRIFT_QUANTITIES = "drift_quantities";
+    public static final String EXTRA_DRIFT_LEDGER_QUANTITIES = "drift_ledger_quantities";
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+    public static final String EXTRA_CACHE_INVALIDATIONS = "cache_invalidations";
+    public static final String EXTRA_IMPORT_FIRST_ROW = "import_first_row";
+    public static final String EXTRA_IMPORT_NEXT_ROW = "import_next_row";
+    public static final String EXTRA_IMPORT_VALUES = "import_values";
+    public static final String EXTRA_IMPORT_INSERTED = "import_inserted";
+    public static final String EXTRA_IMPORT_REJECTED = "import_rejected";
+    public static final String EXTRA_IMPORT_LAST = "import_last";
+    public static final String EXTRA_IMPORT_COMPLETED = "import_completed";
+    public static final String EXTRA_SNAPSHOT_FILE = "snapshot_file";
+    public static final String EXTRA_SNAPSHOT_PRODUCTS = "snapshot_products";
+
     /**
      * To prevent someone from accidentally instantiating the contract class, give it an empty
      * constructor.
@@ -37,27 +104,87 @@ public final class InventoryContract {
      * _id (INTEGER PRIMARY KEY AUTOINCREMENT) is the index of the table.
      * name (TEXT NOT NULL) is the name of the product.
      * description (TEXT) is the optional description of the product.
-     * image (TEXT NOT NULL DEFAULT 1) is the index of the image, relative to a drawable resource.
+     * image (INTEGER NOT NULL DEFAULT 0) is the code of the image type, one of the IMAGE_TYPE_* values.
      * price (INTEGER NOT NULL DEFAULT 0) is the price of the product, stored in cents of euro.
      * current_quantity (INTEGER NOT NULL DEFAULT 0) is the current amount of units of the product in the inventory.
      * supplier_name (TEXT NOT NULL) is the name of the supplier of the product.
      * supplier_email (TEXT NOT NULL) is the email address of the supplier of the product.
      * supplier_order_quantity (INTEGER DEFAULT 1) is the default number of units for setting orders to the product supplier..
+     * version (INTEGER NOT NULL DEFAULT 0) is increased every time the product is updated.
      */
     public static final class ProductEntry implements BaseColumns {
 
         // Content URI to access the product data in the supplier.
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        // Content URI to search products by name and description.
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        // URI notified when lists of products must be queried again: products have been inserted
+        // or deleted, or their sort or search keys have changed. Cursors with several products are
+        // only notified through this URI, while every single product is notified through its own
+        // URI (CONTENT_URI/_id), so selling a unit doesn't reload the lists. It can't be queried.
+        public static final Uri LIST_NOTIFICATION_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LIST);
+
+        // Content URI to read the inventory summary: a single row with the columns of
+        // InventorySummaryEntry, read in constant time.
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        // Content URI to export all the products as a CSV or JSON file, streamed through a pipe by
+        // ContentResolver.openInputStream() or openTypedAssetFileDescriptor(). Querying it returns
+        // the OpenableColumns of the file.
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        // Content URI to back up all the products as a compact binary snapshot, streamed through a
+        // pipe by ContentResolver.openInputStream(). Snapshots are restored with the
+        // METHOD_RESTORE_SNAPSHOT call, which replaces all the products at once.
+        public static final Uri SNAPSHOT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SNAPSHOT);
+
+        // Query parameter of SEARCH_URI with the text to search. Search results are limited to the
+        // best ranked QUERY_PARAMETER_LIMIT products, DEFAULT_SEARCH_LIMIT by default.
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+        public static final int DEFAULT_SEARCH_LIMIT = 100;
+
+        // Query parameter of EXPORT_URI with the format of the file, EXPORT_FORMAT_CSV by default.
+        // Typed requests, like openTypedAssetFileDescriptor(), may choose the format by its MIME
+        // type instead.
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_JSON = "json";
+
+        // MIME types of the export formats.
+        public static final String CONTENT_CSV_TYPE = "text/csv";
+        public static final String CONTENT_JSON_TYPE = "application/json";
+
+        // MIME type of the SNAPSHOT_URI for binary snapshots.
+        public static final String CONTENT_SNAPSHOT_TYPE = "application/vnd." + CONTENT_AUTHORITY + ".snapshot";
+
+        // Query parameters of CONTENT_URI for reading the products one page at a time. Pages are
+        // sorted by QUERY_PARAMETER_SORT (_id by default, name or supplier_name) and then
+        // by _id. Every page starts right after the row whose sort column value and _id are given
+        // by QUERY_PARAMETER_AFTER and QUERY_PARAMETER_AFTER_ID, which are omitted for the first
+        // page, and contains at most QUERY_PARAMETER_LIMIT rows. Pages can't be given a sort order,
+        // and queries with a sort order or an incomplete key return null.
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_AFTER = "after";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
         // MIME type of the CONTENT_URI for a single product.
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
         // MIME type of the CONTENT_URI for a list of products.
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        // MIME type of the STATS_URI for the inventory summary.
+        public static final String CONTENT_STATS_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
         // Name of the table.
         public final static String TABLE_NAME = "products";
 
+        // Name of the full-text search table for the name and the description of the products.
+        public final static String FTS_TABLE_NAME = "products_fts";
+
         // Names of the columns.
         public final static String COLUMN_NAME_ID = BaseColumns._ID;
         public final static String COLUMN_NAME_PRODUCT = "name";
@@ -68,40 +195,52 @@ public final class InventoryContract {
         public final static String COLUMN_NAME_SUPPLIER_CONTACT = "supplier_name";
         public final static String COLUMN_NAME_SUPPLIER_EMAIL = "supplier_address";
         public final static String COLUMN_NAME_SUPPLIER_ORDER_QUANTITY = "supplier_order_quantity";
+        public final static String COLUMN_NAME_VERSION = "version";
+
+        // Name of the column only available when querying SEARCH_URI, with a fragment of the text
+        // that matches the search. The snippet is plain text, not markup: matching terms are
+        // surrounded by the control characters SNIPPET_MATCH_START and SNIPPET_MATCH_END.
+        public final static String COLUMN_NAME_SNIPPET = "snippet";
+        public final static char SNIPPET_MATCH_START = '\u0002';
+        public final static char SNIPPET_MATCH_END = '\u0003';
 
         // Data types of the columns.
         public final static String COLUMN_TYPE_ID = "INTEGER";
         public final static String COLUMN_TYPE_PRODUCT = "TEXT";
         public final static String COLUMN_TYPE_DESCRIPTION = "TEXT";
-        public final static String COLUMN_TYPE_IMAGE = "TEXT";
+        public final static String COLUMN_TYPE_IMAGE = "INTEGER";
         public final static String COLUMN_TYPE_PRICE = "INTEGER";
         public final static String COLUMN_TYPE_QUANTITY = "INTEGER";
         public final static String COLUMN_TYPE_SUPPLIER_CONTACT = "TEXT";
         public final static String COLUMN_TYPE_SUPPLIER_EMAIL = "TEXT";
         public final static String COLUMN_TYPE_SUPPLIER_ORDER_QUANTITY = "INTEGER";
+        public final static String COLUMN_TYPE_VERSION = "INTEGER";
 
         // Constraints of the columns.
         public final static String COLUMN_CONSTRAINTS_ID = "PRIMARY KEY AUTOINCREMENT";
         public final static String COLUMN_CONSTRAINTS_PRODUCT = "NOT NULL";
         public final static String COLUMN_CONSTRAINTS_DESCRIPTION = "";
-        public final static String COLUMN_CONSTRAINTS_IMAGE = "NOT NULL DEFAULT \"image_type_none\"";
+        public final static String COLUMN_CONSTRAINTS_IMAGE = "NOT NULL DEFAULT 0";
         public final static String COLUMN_CONSTRAINTS_PRICE = "NOT NULL DEFAULT 0";
         public final static String COLUMN_CONSTRAINTS_QUANTITY = "NOT NULL DEFAULT 0";
         public final static String COLUMN_CONSTRAINTS_SUPPLIER_CONTACT = "NOT NULL";
         public final static String COLUMN_CONSTRAINTS_SUPPLIER_EMAIL = "NOT NULL";
         public final static String COLUMN_CONSTRAINTS_SUPPLIER_ORDER_QUANTITY = "DEFAULT 1";
+        public final static String COLUMN_CONSTRAINTS_VERSION = "NOT NULL DEFAULT 0";
 
-        // Possible image types for the tourist product.
-        public static final String IMAGE_TYPE_NONE = "image_type_none";
-        public static final String IMAGE_TYPE_HOTELS = "image_type_hotels";
-        public static final String IMAGE_TYPE_NIGHT = "image_type_night";
-        public static final String IMAGE_TYPE_SHOPPING = "image_type_shopping";
-        public static final String IMAGE_TYPE_VISITS = "image_type_visits";
-        public static final String IMAGE_TYPE_SHOWS = "image_type_shows";
-        public static final String IMAGE_TYPE_RESTAURANTS = "image_type_restaurants";
-        public static final String IMAGE_TYPE_LEISURE = "image_type_leisure";
-        public static final String IMAGE_TYPE_TRANSPORT = "image_type_transport";
-        public static final String IMAGE_TYPE_CULTURE = "image_type_culture";
+        // Possible image types for the tourist product. Codes are stored in the database, so they
+        // must never change; new image types must be added at the end, before IMAGE_TYPE_COUNT.
+        public static final int IMAGE_TYPE_NONE = 0;
+        public static final int IMAGE_TYPE_CULTURE = 1;
+        public static final int IMAGE_TYPE_HOTELS = 2;
+        public static final int IMAGE_TYPE_LEISURE = 3;
+        public static final int IMAGE_TYPE_NIGHT = 4;
+        public static final int IMAGE_TYPE_RESTAURANTS = 5;
+        public static final int IMAGE_TYPE_SHOPPING = 6;
+        public static final int IMAGE_TYPE_SHOWS = 7;
+        public static final int IMAGE_TYPE_TRANSPORT = 8;
+        public static final int IMAGE_TYPE_VISITS = 9;
+        public static final int IMAGE_TYPE_COUNT = 10;     // Number of image types.
 
         // Possible results when inserting, updating or deleting this table.
         public static final int SQL_OK = 1;
@@ -112,6 +251,123 @@ public final class InventoryContract {
         public static final int SQL_ERROR_SUPPLIER_NAME = -5;
         public static final int SQL_ERROR_SUPPLIER_EMAIL = -6;
         public static final int SQL_ERROR_SUPPLIER_ORDER_QUANTITY = -7;
+        public static final int SQL_ERROR_UNKNOWN_COLUMN = -8;
+        public static final int SQL_ERROR_PRODUCT_QUANTITY = -9;
+        public static final int SQL_ERROR_CONSTRAINT = -10;    // Valid values rejected by a constraint of the table.
+
+        // Value returned when the current quantity of a product can't be adjusted.
+        public static final int QUANTITY_NOT_ADJUSTED = -1;
+
+        /**
+         * Helper method to add a number of units to the current quantity of a product. The
+         * adjustment is applied atomically by the content provider, so concurrent sales and
+         * restocks never overwrite each other.
+         *
+         * @param contentResolver is the ContentResolver used to reach the content provider.
+         * @param productId       is the _id of the product.
+         * @param delta           is the number of units to add (or to remove, if negative).
+         * @return the new current quantity of the product, or QUANTITY_NOT_ADJUSTED if the product
+         * doesn't exist or if its quantity would become negative.
+         */
+        public static int adjustQuantity(ContentResolver contentResolver, long productId, int delta) {
+            Bundle extras = new Bundle();
+            extras.putInt(EXTRA_QUANTITY_DELTA, delta);
+            Bundle result = contentResolver.call(CONTENT_URI, METHOD_ADJUST_QUANTITY, String.valueOf(productId), extras);
+            if (result == null) return QUANTITY_NOT_ADJUSTED;
+            return result.getInt(EXTRA_QUANTITY, QUANTITY_NOT_ADJUSTED);
+        }
+
+        /**
+         * Helper method to insert a set of products within a single transaction, as bulkInsert()
+         * does, and find out which rows have been rejected and why.
+         *
+         * @param contentResolver is the ContentResolver used to reach the content provider.
+         * @param values          are the values of the products.
+         * @return a Bundle with the number of products inserted (EXTRA_BULK_INSERTED) and, for
+         * every rejected row, its index in values (EXTRA_REJECTED_ROWS), its SQL_ERROR_* code
+         * (EXTRA_REJECTED_ERRORS) and its ProductValidator.VIOLATION_* bits
+         * (EXTRA_REJECTED_VIOLATIONS), or null if the products couldn't be inserted.
+         */
+        public static Bundle bulkInsert(ContentResolver contentResolver, ContentValues[] values) {
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(EXTRA_BULK_VALUES, values);
+            return contentResolver.call(CONTENT_URI, METHOD_BULK_INSERT, null, extras);
+        }
+
+        /**
+         * Get the _ID of the product of a single product URI, like the ones notified when a single
+         * product changes.
+         *
+         * @param uri is the URI.
+         * @return the _ID of the product, or -1 if the URI is not a single product URI.
+         */
+        public static long parseProductId(Uri uri) {
+            if (uri == null || !CONTENT_AUTHORITY.equals(uri.getAuthority())) return -1;
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2 || !PATH_PRODUCTS.equals(segments.get(0))) return -1;
+            try {
+                return Long.parseLong(segments.get(1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Builds the URI for searching products by name and description.
+         *
+         * @param text is the text to search. Every word is matched as a prefix.
+         * @return the URI to query for the search results.
+         */
+        public static Uri buildSearchUri(String text) {
+            return SEARCH_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_SEARCH, text).build();
+        }
+
+        /**
+         * Builds the URI for searching products by name and description, returning at most a
+         * given number of products.
+         *
+         * @param text  is the text to search. Every word is matched as a prefix.
+         * @param limit is the maximum number of products returned.
+         * @return the URI to query for the search results.
+         */
+        public static Uri buildSearchUri(String text, int limit) {
+            return SEARCH_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+        }
+
+        /**
+         * Builds the URI for exporting all the products in a given format.
+         *
+         * @param format is the format of the file, EXPORT_FORMAT_CSV or EXPORT_FORMAT_JSON.
+         * @return the export URI.
+         */
+        public static Uri buildExportUri(String format) {
+            return EXPORT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
+
+        /**
+         * Builds the URI for reading a page of products sorted by a column.
+         *
+         * @param sortColumn is the column used for sorting the products. It must be _id, name or
+         *                   supplier_name. Pages can't be sorted by current_quantity, as changes of
+         *                   the quantity don't notify the lists.
+         * @param pageSize   is the maximum number of products in the page.
+         * @param afterValue is the value of the sort column for the last product of the previous
+         *                   page, or null for the first page.
+         * @param afterId    is the _id of the last product of the previous page. It is ignored for
+         *                   the first page.
+         * @return the URI to query for the page.
+         */
+        public static Uri buildPageUri(String sortColumn, int pageSize, String afterValue, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize));
+            if (afterValue != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterValue)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
 
         /**
          * Determines whether an image type is valid or not.
@@ -119,113 +375,249 @@ public final class InventoryContract {
          * @param imageType is the type of the image.
          * @return true if the image type represents a valid tourist product, false otherwise.
          */
-        public static boolean isValidImage(String imageType) {
-            switch (imageType) {
-                case IMAGE_TYPE_HOTELS:
-                case IMAGE_TYPE_NIGHT:
-                case IMAGE_TYPE_SHOPPING:
-                case IMAGE_TYPE_VISITS:
-                case IMAGE_TYPE_SHOWS:
-                case IMAGE_TYPE_RESTAURANTS:
-                case IMAGE_TYPE_LEISURE:
-                case IMAGE_TYPE_TRANSPORT:
-                case IMAGE_TYPE_CULTURE:
-                    // Valid tourist product types. Return true.
-                    return true;
-
-                default:
-                    // Return false otherwise.
-                    return false;
-            }
+        public static boolean isValidImage(int imageType) {
+            // Every code but IMAGE_TYPE_NONE represents a tourist product type.
+            return imageType > IMAGE_TYPE_NONE && imageType < IMAGE_TYPE_COUNT;
         }
 
         /**
-         * Helper method to check whether all the required content values are present or not.
+         * Helper method to check whether all the required content values are present or not. The
+         * values are checked by ProductValidator, which reports every violation at once; this
+         * method only returns the first one, and ignores values for unknown columns.
          *
          * @param contentValues is the set of column_name/value pairs to add to the database.
          * @return SQL_OK if all the required content values are present and valid
          * SQL_ERROR_PRODUCT_NAME if the product name is missing.
+         * SQL_ERROR_PRODUCT_PRICE if the product price is missing, zero or negative.
          * SQL_ERROR_PRODUCT_IMAGE if the product image is missing.
          * SQL_ERROR_PRODUCT_IMAGE_INVALID if the product image is not valid.
-         * SQL_ERROR_PRODUCT_PRICE if the product price is missing.
          * SQL_ERROR_SUPPLIER_NAME if the supplier name is missing.
          * SQL_ERROR_SUPPLIER_EMAIL if the supplier email is missing.
-         * SQL_ERROR_SUPPLIER_ORDER_QUANTITY if the supplier email is missing.
+         * SQL_ERROR_SUPPLIER_ORDER_QUANTITY if the supplier order quantity is missing.
+         * SQL_ERROR_PRODUCT_QUANTITY if the current quantity is negative or not an integer.
          */
         public static int checkContentValues(ContentValues contentValues) {
-            String data;
-
-            // Check product name.
-            if (contentValues.containsKey(COLUMN_NAME_PRODUCT)) {
-                // Column name COLUMN_NAME_PRODUCT is always present when inserting a new product, but
-                // may be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_PRODUCT);
-                if (data.isEmpty()) {
-                    // If present, product name must not be empty.
-                    return SQL_ERROR_PRODUCT_NAME;
-                }
-            }
+            int violations = ProductValidator.validate(contentValues);
+            return ProductValidator.getErrorCode(violations & ~ProductValidator.VIOLATION_UNKNOWN_COLUMN);
+        }
+    }
 
-            // Check product price.
-            if (contentValues.containsKey(COLUMN_NAME_PRICE)) {
-                // Column name COLUMN_NAME_PRICE is always present when inserting a new product, but may
-                // be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_PRICE);
-                if (data.isEmpty() || (data.equals("0"))) {
-                    // If present, product price must not be empty or zero.
-                    return SQL_ERROR_PRODUCT_PRICE;
-                }
-            }
+    /**
+     * Class for "inventory_summary" table, which stores a single row with counters for all the
+     * products in the inventory. The counters are kept up to date by triggers of the "products"
+     * table, so they never have to be aggregated again. It has the following columns:
+     * <p>
+     * _id (INTEGER PRIMARY KEY) is always 1.
+     * product_count (INTEGER NOT NULL) is the number of products.
+     * total_units (INTEGER NOT NULL) is the sum of the current quantity of every product.
+     * total_value (INTEGER NOT NULL) is the sum of price * current_quantity of every product, in cents of euro.
+     * low_stock_count (INTEGER NOT NULL) is the number of products with LOW_STOCK_QUANTITY units or less.
+     */
+    public static final class InventorySummaryEntry implements BaseColumns {
 
-            // Check image.
-            if (contentValues.containsKey(COLUMN_NAME_IMAGE)) {
-                // Column name COLUMN_NAME_IMAGE is always present when inserting a new product, but may
-                // be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_IMAGE);
-                if (data.isEmpty()) {
-                    // If present, image must not be empty.
-                    return SQL_ERROR_PRODUCT_IMAGE;
-                } else if (!isValidImage(data)) {
-                    // If present and has no null value, image must be valid.
-                    return SQL_ERROR_PRODUCT_IMAGE_INVALID;
-                }
-            }
+        // Name of the table.
+        public final static String TABLE_NAME = "inventory_summary";
 
-            // Check supplier name.
-            if (contentValues.containsKey(COLUMN_NAME_SUPPLIER_CONTACT)) {
-                // Column name COLUMN_NAME_SUPPLIER_CONTACT is always present when inserting a new
-                // product, but may be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_SUPPLIER_CONTACT);
-                if (data.isEmpty()) {
-                    // If present, supplier name must not be empty.
-                    return SQL_ERROR_SUPPLIER_NAME;
-                }
-            }
+        // Names of the columns.
+        public final static String COLUMN_NAME_PRODUCT_COUNT = "product_count";
+        public final static String COLUMN_NAME_TOTAL_UNITS = "total_units";
+        public final static String COLUMN_NAME_TOTAL_VALUE = "total_value";
+        public final static String COLUMN_NAME_LOW_STOCK_COUNT = "low_stock_count";
 
-            // Check supplier e-mail.
-            if (contentValues.containsKey(COLUMN_NAME_SUPPLIER_EMAIL)) {
-                // Column name COLUMN_NAME_SUPPLIER_EMAIL is always present when inserting a new
-                // product, but may be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_SUPPLIER_EMAIL);
-                if (data.isEmpty()) {
-                    // If present, supplier email must not be empty.
-                    return SQL_ERROR_SUPPLIER_EMAIL;
-                }
-            }
+        // Maximum current quantity of a product with low stock. It is part of the triggers that
+        // maintain the summary, so changing it requires a migration that counts the products again.
+        public static final int LOW_STOCK_QUANTITY = 5;
 
-            // Check number of units for new orders to supplier.
-            if (contentValues.containsKey(COLUMN_NAME_SUPPLIER_ORDER_QUANTITY)) {
-                // Column name COLUMN_NAME_SUPPLIER_ORDER_QUANTITY is always present when inserting a
-                // new product, but may be not present when updating an existing product.
-                data = contentValues.getAsString(COLUMN_NAME_SUPPLIER_ORDER_QUANTITY);
-                if (data.isEmpty()) {
-                    // If present, number of units for new orders to supplier must not be empty.
-                    return SQL_ERROR_SUPPLIER_ORDER_QUANTITY;
-                }
-            }
+        /**
+         * To prevent someone from accidentally instantiating this class, give it an empty
+         * constructor.
+         */
+        private InventorySummaryEntry() {
+        }
+    }
+
+    /**
+     * Class for the metrics of the content provider, which are kept in memory since the provider
+     * was started or since they were last reset. Querying CONTENT_URI returns a row for every URI
+     * and operation that has been called, with the following columns:
+     * <p>
+     * uri (TEXT) is the matched URI pattern, like "products/#", or "unknown" if no pattern matched.
+     * operation (TEXT) is the operation: "query", "insert", "bulk_insert", "update", "delete" or "get_type".
+     * calls (INTEGER) is the number of calls.
+     * rows (INTEGER) is the number of rows returned or affected by all the calls.
+     * total_us (INTEGER) is the total time of all the calls, in microseconds.
+     * max_us (INTEGER) is the time of the slowest call, in microseconds.
+     * p50_us, p90_us and p99_us (INTEGER) are upper bounds of the 50th, 90th and 99th percentiles of the time of a call, in microseconds.
+     * histogram (TEXT) is the comma-separated number of calls in every latency bucket. Bucket 0
+     * counts calls under 1024 ns, every other bucket doubles the limit of the previous one, and the
+     * last bucket also counts all the slower calls.
+     * <p>
+     * Deleting CONTENT_URI resets all the metrics.
+     */
+    public static final class ProviderMetricsEntry {
+
+        // Content URI to read or reset the metrics.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_METRICS);
+
+        // MIME type of the CONTENT_URI.
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        // Names of the columns.
+        public final static String COLUMN_NAME_URI = "uri";
+        public final static String COLUMN_NAME_OPERATION = "operation";
+        public final static String COLUMN_NAME_CALLS = "calls";
+        public final static String COLUMN_NAME_ROWS = "rows";
+        public final static String COLUMN_NAME_TOTAL_US = "total_us";
+        public final static String COLUMN_NAME_MAX_US = "max_us";
+        public final static String COLUMN_NAME_P50_US = "p50_us";
+        public final static String COLUMN_NAME_P90_US = "p90_us";
+        public final static String COLUMN_NAME_P99_US = "p99_us";
+        public final static String COLUMN_NAME_HISTOGRAM = "histogram";
+
+        /**
+         * To prevent someone from accidentally instantiating this class, give it an empty
+         * constructor.
+         */
+        private ProviderMetricsEntry() {
+        }
+
+        /**
+         * Helper method to reset all the metrics of the content provider.
+         *
+         * @param contentResolver is the ContentResolver used to reach the content provider.
+         */
+        public static void reset(ContentResolver contentResolver) {
+            contentResolver.delete(CONTENT_URI, null, null);
+        }
+    }
+
+    /**
+     * Class for "import_checkpoints" table, which stores the progress of every bulk import, so an
+     * interrupted import can go on from the last committed chunk. Every chunk of rows and the new
+     * checkpoint are written in the same transaction. All the checkpoints are deleted together
+     * with all the products, or when a snapshot is restored. It has the following columns:
+     * <p>
+     * source (TEXT PRIMARY KEY) identifies the imported file, by URI, size and time of last change.
+     * next_row (INTEGER NOT NULL) is the number of rows of the file already processed.
+     * inserted (INTEGER NOT NULL) is the number of products inserted so far.
+     * rejected (INTEGER NOT NULL) is the number of rows rejected so far.
+     * completed (INTEGER NOT NULL) is 1 if the whole file has been imported, 0 otherwise.
+     * timestamp (INTEGER NOT NULL) is the time of the last committed chunk, in milliseconds since the epoch.
+     */
+    public static final class ImportCheckpointEntry {
+
+        // Name of the table.
+        public final static String TABLE_NAME = "import_checkpoints";
+
+        // Names of the columns.
+        public final static String COLUMN_NAME_SOURCE = "source";
+        public final static String COLUMN_NAME_NEXT_ROW = "next_row";
+        public final static String COLUMN_NAME_INSERTED = "inserted";
+        public final static String COLUMN_NAME_REJECTED = "rejected";
+        public final static String COLUMN_NAME_COMPLETED = "completed";
+        public final static String COLUMN_NAME_TIMESTAMP = "timestamp";
+
+        /**
+         * To prevent someone from accidentally instantiating this class, give it an empty
+         * constructor.
+         */
+        private ImportCheckpointEntry() {
+        }
+    }
 
-            // Default value.
-            return SQL_OK;
+    /**
+     * Class for "stock_movements" table, the append-only ledger of every change to the current
+     * quantity of the products. Rows are written by triggers of the "products" table, in the same
+     * transaction as the change itself, so the ledger can't miss any sale or restock. It has the
+     * following columns:
+     * <p>
+     * _id (INTEGER PRIMARY KEY AUTOINCREMENT) is the index of the table, in the order of the changes.
+     * product_id (INTEGER NOT NULL) is the _id of the product.
+     * delta (INTEGER NOT NULL) is the number of units added to the product (or removed, if negative).
+     * timestamp (INTEGER NOT NULL) is the time of the change, in milliseconds since the epoch.
+     * <p>
+     * Old movements are periodically folded into the "stock_snapshots" table, so the current
+     * quantity of a product is always its snapshot quantity plus the movements after the snapshot.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        // Content URI for calling the methods of the ledger. It can't be queried.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK_MOVEMENTS);
+
+        // Name of the table.
+        public final static String TABLE_NAME = "stock_movements";
+
+        // Names of the columns.
+        public final static String COLUMN_NAME_PRODUCT_ID = "product_id";
+        public final static String COLUMN_NAME_DELTA = "delta";
+        public final static String COLUMN_NAME_TIMESTAMP = "timestamp";
+
+        // Time that movements are kept in the ledger before being folded into the snapshots.
+        public static final long RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+
+        /**
+         * To prevent someone from accidentally instantiating this class, give it an empty
+         * constructor.
+         */
+        private StockMovementEntry() {
+        }
+
+        /**
+         * Helper method to fold the movements older than a given time into the snapshots of their
+         * products.
+         *
+         * @param contentResolver is the ContentResolver used to reach the content provider.
+         * @param before          is the time, in milliseconds since the epoch. Movements made
+         *                        before it are compacted.
+         * @return the number of movements compacted.
+         */
+        public static int compact(ContentResolver contentResolver, long before) {
+            Bundle extras = new Bundle();
+            extras.putLong(EXTRA_COMPACT_BEFORE, before);
+            Bundle result = contentResolver.call(CONTENT_URI, METHOD_COMPACT_STOCK_MOVEMENTS, null, extras);
+            if (result == null) return 0;
+            return result.getInt(EXTRA_MOVEMENTS_COMPACTED);
+        }
+
+        /**
+         * Helper method to rebuild the current quantity of every product from its snapshot and the
+         * movements after it, and to compare it with the current quantity stored in the "products"
+         * table.
+         *
+         * @param contentResolver is the ContentResolver used to reach the content provider.
+         * @return a Bundle with the number of products checked (EXTRA_PRODUCTS_CHECKED) and, for
+         * every product whose quantities differ, its _id (EXTRA_DRIFT_PRODUCT_IDS), its stored
+         * quantity (EXTRA_DRIFT_QUANTITIES) and its quantity rebuilt from the ledger
+         * (EXTRA_DRIFT_LEDGER_QUANTITIES), or null if the verification couldn't be run.
+         */
+        public static Bundle verify(ContentResolver contentResolver) {
+            return contentResolver.call(CONTENT_URI, METHOD_VERIFY_STOCK, null, null);
+        }
+    }
+
+    /**
+     * Class for "stock_snapshots" table, which stores the quantity of every product folded from its
+     * compacted stock movements. It has the following columns:
+     * <p>
+     * product_id (INTEGER PRIMARY KEY) is the _id of the product.
+     * quantity (INTEGER NOT NULL) is the quantity of the product after the last folded movement.
+     * last_movement_id (INTEGER NOT NULL) is the _id of the last movement folded into the snapshot.
+     */
+    public static final class StockSnapshotEntry {
+
+        // Name of the table.
+        public final static String TABLE_NAME = "stock_snapshots";
+
+        // Names of the columns.
+        public final static String COLUMN_NAME_PRODUCT_ID = "product_id";
+        public final static String COLUMN_NAME_QUANTITY = "quantity";
+        public final static String COLUMN_NAME_LAST_MOVEMENT_ID = "last_movement_id";
+
+        /**
+         * To prevent someone from accidentally instantiating this class, give it an empty
+         * constructor.
+         */
+        private StockSnapshotEntry() {
         }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,15 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.inventoryapp.data.InventoryContract.ImportCheckpointEntry;
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
 import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockSnapshotEntry;
 
 /**
  * Created by David on 18/07/2017.
@@ -12,7 +17,57 @@ import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
 
 public class InventoryDbHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "inventory.db";  // Database filename.
-    public static final int DATABASE_VERSION = 1;               // Current version of the database.
+    public static final int DATABASE_VERSION = 8;               // Current version of the database.
+    public static final int DATABASE_CACHE_SIZE_KB = 2048;      // Page cache size of the primary connection, in KiB.
+
+    // Names of the indexes of the "products" table.
+    public static final String INDEX_PRODUCT = "products_name_index";
+    public static final String INDEX_SUPPLIER_CONTACT = "products_supplier_name_index";
+    public static final String INDEX_QUANTITY = "products_current_quantity_index";
+
+    // Names of the triggers that keep the full-text search table in sync with the "products" table.
+    public static final String TRIGGER_FTS_AFTER_INSERT = "products_fts_after_insert";
+    public static final String TRIGGER_FTS_BEFORE_UPDATE = "products_fts_before_update";
+    public static final String TRIGGER_FTS_AFTER_UPDATE = "products_fts_after_update";
+    public static final String TRIGGER_FTS_BEFORE_DELETE = "products_fts_before_delete";
+
+    // Name of the trigger that increases the version of a product when it is updated.
+    public static final String TRIGGER_VERSION_AFTER_UPDATE = "products_version_after_update";
+
+    // Names of the triggers that write the stock movements ledger and the indexes for reading the
+    // movements of a product and the movements made before a given time.
+    public static final String TRIGGER_STOCK_AFTER_INSERT = "products_stock_after_insert";
+    public static final String TRIGGER_STOCK_AFTER_UPDATE = "products_stock_after_update";
+    public static final String TRIGGER_STOCK_AFTER_DELETE = "products_stock_after_delete";
+    public static final String INDEX_STOCK_MOVEMENTS_PRODUCT = "stock_movements_product_id_index";
+    public static final String INDEX_STOCK_MOVEMENTS_TIMESTAMP = "stock_movements_timestamp_index";
+
+    // Names of the triggers that keep the inventory summary up to date.
+    public static final String TRIGGER_SUMMARY_AFTER_INSERT = "products_summary_after_insert";
+    public static final String TRIGGER_SUMMARY_AFTER_UPDATE = "products_summary_after_update";
+    public static final String TRIGGER_SUMMARY_AFTER_DELETE = "products_summary_after_delete";
+
+    // Name of the table where snapshots are restored before replacing the "products" table.
+    public static final String TABLE_PRODUCTS_STAGING = "products_staging";
+
+    // SQL expression for the current time, in milliseconds since the epoch.
+    private static final String SQL_NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // Columns of the "products" table indexed by the full-text search table.
+    private static final String FTS_COLUMNS = ProductEntry.COLUMN_NAME_PRODUCT + ", " + ProductEntry.COLUMN_NAME_DESCRIPTION;
+
+    // SQL statement for creating the "products" table in version 1 of the database. It must never
+    // change, as new databases are created with it and then upgraded to the current version.
+    private static final String SQL_CREATE_PRODUCTS_V1 = "CREATE TABLE products (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT NOT NULL, " +
+            "description TEXT , " +
+            "image TEXT NOT NULL DEFAULT \"image_type_none\", " +
+            "price INTEGER NOT NULL DEFAULT 0, " +
+            "current_quantity INTEGER NOT NULL DEFAULT 0, " +
+            "supplier_name TEXT NOT NULL, " +
+            "supplier_address TEXT NOT NULL, " +
+            "supplier_order_quantity INTEGER DEFAULT 1)";
 
     /**
      * Constructor for this class.
@@ -23,33 +78,55 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Called when the database connection is being configured, before the database is created,
+     * upgraded or opened.
+     * <p>
+     * Write-ahead logging lets the CursorLoaders keep reading while a product is being written, so
+     * the sale button never blocks the lists. With write-ahead logging, synchronous=NORMAL is still
+     * safe against corruption and only syncs the log on checkpoints.
+     * <p>
+     * The PRAGMA statements only apply to the primary connection, which runs every write: the
+     * read connections that the framework opens later for write-ahead logging keep the default
+     * cache size and synchronous mode, and the framework has no API to configure them. Readers
+     * don't write, so synchronous doesn't matter for them.
+     * The larger cache is still worth it for writes, which walk the indexes and the triggers of
+     * the products. InventoryConcurrencyBenchmark reports the settings of both kinds of connection.
+     *
+     * @param db is the database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.enableWriteAheadLogging();
+        db.setForeignKeyConstraintsEnabled(true);
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = -" + DATABASE_CACHE_SIZE_KB);
+    }
+
     /**
      * Called when the database is created for the first time. This is where the creation of tables
      * and the initial population of the tables should happen.
+     * <p>
+     * The database is created with the schema of version 1 and then upgraded through the same
+     * migrations used for existing databases, so new and upgraded databases are always identical.
      *
      * @param db is the database.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // SQL statement for creating the "products" table.
-        String SQL_CREATE_ENTRIES = "CREATE TABLE " + ProductEntry.TABLE_NAME + " (" +
-                ProductEntry.COLUMN_NAME_ID + " " + ProductEntry.COLUMN_TYPE_ID + " " + ProductEntry.COLUMN_CONSTRAINTS_ID + ", " +
-                ProductEntry.COLUMN_NAME_PRODUCT + " " + ProductEntry.COLUMN_TYPE_PRODUCT + " " + ProductEntry.COLUMN_CONSTRAINTS_PRODUCT + ", " +
-                ProductEntry.COLUMN_NAME_DESCRIPTION + " " + ProductEntry.COLUMN_TYPE_DESCRIPTION + " " + ProductEntry.COLUMN_CONSTRAINTS_DESCRIPTION + ", " +
-                ProductEntry.COLUMN_NAME_IMAGE + " " + ProductEntry.COLUMN_TYPE_IMAGE + " " + ProductEntry.COLUMN_CONSTRAINTS_IMAGE + ", " +
-                ProductEntry.COLUMN_NAME_PRICE + " " + ProductEntry.COLUMN_TYPE_PRICE + " " + ProductEntry.COLUMN_CONSTRAINTS_PRICE + ", " +
-                ProductEntry.COLUMN_NAME_QUANTITY + " " + ProductEntry.COLUMN_TYPE_QUANTITY + " " + ProductEntry.COLUMN_CONSTRAINTS_QUANTITY + ", " +
-                ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT + " " + ProductEntry.COLUMN_TYPE_SUPPLIER_CONTACT + " " + ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_CONTACT + ", " +
-                ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL + " " + ProductEntry.COLUMN_TYPE_SUPPLIER_EMAIL + " " + ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_EMAIL + ", " +
-                ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY + " " + ProductEntry.COLUMN_TYPE_SUPPLIER_ORDER_QUANTITY + " " + ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_ORDER_QUANTITY + ")";
-
-        // Execute the SQL statement.
-        db.execSQL(SQL_CREATE_ENTRIES);
+        // Create the "products" table of version 1 and upgrade it to the current version.
+        db.execSQL(SQL_CREATE_PRODUCTS_V1);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
      * Called when the database needs to be upgraded. The implementation should use this method to
      * drop tables, add tables, or do anything else it needs to upgrade to the new schema version.
+     * <p>
+     * Migrations are applied one version at a time and in order, all of them within the
+     * transaction opened by SQLiteOpenHelper, so a failed upgrade leaves the database untouched.
+     * Every migration must keep the existing data.
      *
      * @param db         is the database.
      * @param oldVersion is the old database version.
@@ -57,6 +134,416 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 1:
+                    // Version 2 adds indexes for filtering and sorting products.
+                    upgradeToVersion2(db);
+                    break;
+
+                case 2:
+                    // Version 3 adds the full-text search table.
+                    upgradeToVersion3(db);
+                    break;
+
+                case 3:
+                    // Version 4 stores image types as integer codes.
+                    upgradeToVersion4(db);
+                    break;
+
+                case 4:
+                    // Version 5 adds the version of every product.
+                    upgradeToVersion5(db);
+                    break;
+
+                case 5:
+                    // Version 6 adds the stock movements ledger.
+                    upgradeToVersion6(db);
+                    break;
+
+                case 6:
+                    // Version 7 adds the inventory summary.
+                    upgradeToVersion7(db);
+                    break;
+
+                case 7:
+                    // Version 8 adds the checkpoints of bulk imports.
+                    upgradeToVersion8(db);
+                    break;
+
+                default:
+                    throw new IllegalStateException("No migration from version " + version);
+            }
+        }
+    }
+
+    /**
+     * Upgrade the database from version 1 to version 2, creating secondary indexes on the product
+     * name (used for sorting the list), on the supplier name and on the current quantity (used for
+     * filtering products).
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        createProductIndexes(db);
+    }
+
+    /**
+     * Upgrade the database from version 2 to version 3, creating a full-text search table for the
+     * name and the description of the products. The search table doesn't store a copy of the text
+     * (it reads it from the "products" table) and it is kept in sync by triggers that only fire
+     * when the indexed columns change, so quantity updates don't touch it.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        // Full-text search table, with prefix indexes for search-as-you-type queries.
+        db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4(content=\"" +
+                ProductEntry.TABLE_NAME + "\", " + FTS_COLUMNS + ", prefix=\"2,3\")");
+        createFtsTriggers(db);
+
+        // Index the existing products.
+        db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (" + ProductEntry.FTS_TABLE_NAME + ") VALUES ('rebuild')");
+    }
+
+    /**
+     * Upgrade the database from version 3 to version 4, replacing the names of the image types
+     * stored in the "products" table with their integer codes. SQLite can't change the type of a
+     * column, so the table is copied into a new one with the schema of version 4, keeping the _id of
+     * every product, and its indexes and triggers are created again. The full-text search table
+     * doesn't need to be rebuilt, as the indexed texts and their _id are the same.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        String newTable = ProductEntry.TABLE_NAME + "_new";
+        String columns = ProductEntry._ID + ", " +
+                ProductEntry.COLUMN_NAME_PRODUCT + ", " +
+                ProductEntry.COLUMN_NAME_DESCRIPTION + ", " +
+                ProductEntry.COLUMN_NAME_IMAGE + ", " +
+                ProductEntry.COLUMN_NAME_PRICE + ", " +
+                ProductEntry.COLUMN_NAME_QUANTITY + ", " +
+                ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT + ", " +
+                ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL + ", " +
+                ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY;
+
+        // Names of the image types in versions 1 to 3, in the order of their integer codes.
+        String[] imageNames = {"image_type_none", "image_type_culture", "image_type_hotels",
+                "image_type_leisure", "image_type_night", "image_type_restaurants", "image_type_shopping",
+                "image_type_shows", "image_type_transport", "image_type_visits"};
+        StringBuilder imageCode = new StringBuilder("CASE " + ProductEntry.COLUMN_NAME_IMAGE);
+        for (int code = 0; code < imageNames.length; code++)
+            imageCode.append(" WHEN '").append(imageNames[code]).append("' THEN ").append(code);
+        imageCode.append(" ELSE ").append(ProductEntry.IMAGE_TYPE_NONE).append(" END");
+
+        // Keep the last _id used, so _id values of deleted products are never reused.
+        long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = ?",
+                new String[]{ProductEntry.TABLE_NAME});
+
+        // Copy the products into a new table and replace the old table with it.
+        db.execSQL("CREATE TABLE " + newTable + " (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "name TEXT NOT NULL, " +
+                "description TEXT , " +
+                "image INTEGER NOT NULL DEFAULT 0, " +
+                "price INTEGER NOT NULL DEFAULT 0, " +
+                "current_quantity INTEGER NOT NULL DEFAULT 0, " +
+                "supplier_name TEXT NOT NULL, " +
+                "supplier_address TEXT NOT NULL, " +
+                "supplier_order_quantity INTEGER DEFAULT 1)");
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " +
+                columns.replace(ProductEntry.COLUMN_NAME_IMAGE + ",", imageCode + ",") + " FROM " + ProductEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE " + ProductEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + ProductEntry.TABLE_NAME);
+        setLastProductId(db, lastId);
+
+        // Dropping the old table has also dropped its indexes and triggers.
+        createProductIndexes(db);
+        createFtsTriggers(db);
+    }
+
+    /**
+     * Upgrade the database from version 4 to version 5, adding the version of every product. The
+     * version is increased every time a product is updated, so lists can tell which rows have
+     * changed between two queries by comparing just their _id and version.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " + ProductEntry.COLUMN_NAME_VERSION + " " +
+                ProductEntry.COLUMN_TYPE_VERSION + " " + ProductEntry.COLUMN_CONSTRAINTS_VERSION);
+        createVersionTrigger(db);
+    }
+
+    /**
+     * Upgrade the database from version 5 to version 6, adding the stock movements ledger and the
+     * stock snapshots. Every existing product gets a snapshot with its current quantity, so the
+     * ledger starts from the current stock. From then on, triggers append a movement for every
+     * change of the current quantity, within the same statement (and so the same transaction) as
+     * the change, including a final movement down to zero for deleted products.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StockMovementEntry.TABLE_NAME + " (" +
+                StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                StockMovementEntry.COLUMN_NAME_PRODUCT_ID + " INTEGER NOT NULL, " +
+                StockMovementEntry.COLUMN_NAME_DELTA + " INTEGER NOT NULL, " +
+                StockMovementEntry.COLUMN_NAME_TIMESTAMP + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + INDEX_STOCK_MOVEMENTS_PRODUCT + " ON " + StockMovementEntry.TABLE_NAME +
+                " (" + StockMovementEntry.COLUMN_NAME_PRODUCT_ID + ", " + StockMovementEntry._ID + ")");
+        db.execSQL("CREATE INDEX " + INDEX_STOCK_MOVEMENTS_TIMESTAMP + " ON " + StockMovementEntry.TABLE_NAME +
+                " (" + StockMovementEntry.COLUMN_NAME_TIMESTAMP + ")");
+        db.execSQL("CREATE TABLE " + StockSnapshotEntry.TABLE_NAME + " (" +
+                StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " INTEGER PRIMARY KEY, " +
+                StockSnapshotEntry.COLUMN_NAME_QUANTITY + " INTEGER NOT NULL, " +
+                StockSnapshotEntry.COLUMN_NAME_LAST_MOVEMENT_ID + " INTEGER NOT NULL)");
+
+        // Start the ledger from the current quantity of the existing products.
+        insertStockSnapshots(db);
+        createStockTriggers(db);
+    }
+
+    /**
+     * Upgrade the database from version 6 to version 7, adding the inventory summary. Its single
+     * row is computed once from the existing products, and from then on triggers add the changes
+     * of every inserted, updated or deleted product, so reading the summary never scans the
+     * "products" table.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + InventorySummaryEntry.TABLE_NAME + " (" +
+                InventorySummaryEntry._ID + " INTEGER PRIMARY KEY, " +
+                InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT + " INTEGER NOT NULL, " +
+                InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS + " INTEGER NOT NULL, " +
+                InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE + " INTEGER NOT NULL, " +
+                InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT + " INTEGER NOT NULL)");
+        computeSummary(db);
+        createSummaryTriggers(db);
+    }
+
+    /**
+     * Upgrade the database from version 7 to version 8, adding the table where bulk imports record
+     * how far they have got.
+     *
+     * @param db is the database.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ImportCheckpointEntry.TABLE_NAME + " (" +
+                ImportCheckpointEntry.COLUMN_NAME_SOURCE + " TEXT PRIMARY KEY, " +
+                ImportCheckpointEntry.COLUMN_NAME_NEXT_ROW + " INTEGER NOT NULL, " +
+                ImportCheckpointEntry.COLUMN_NAME_INSERTED + " INTEGER NOT NULL, " +
+                ImportCheckpointEntry.COLUMN_NAME_REJECTED + " INTEGER NOT NULL, " +
+                ImportCheckpointEntry.COLUMN_NAME_COMPLETED + " INTEGER NOT NULL, " +
+                ImportCheckpointEntry.COLUMN_NAME_TIMESTAMP + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Create an empty TABLE_PRODUCTS_STAGING table with the same columns and constraints as the
+     * "products" table, dropping any table left by a restore that didn't finish. It has no indexes
+     * or triggers, so rows are loaded into it as fast as possible.
+     *
+     * @param db is the database.
+     */
+    static void createStagingProducts(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PRODUCTS_STAGING);
+        String sql = DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{ProductEntry.TABLE_NAME});
+        db.execSQL("CREATE TABLE " + TABLE_PRODUCTS_STAGING + " " + sql.substring(sql.indexOf('(')));
+    }
+
+    /**
+     * Replace the "products" table with the TABLE_PRODUCTS_STAGING table, within the transaction of
+     * the caller, so other connections see either all the old products or all the new ones. The
+     * indexes and triggers are created again on the new table and everything derived from the
+     * products is rebuilt: the full-text search table, the stock ledger (which starts again from
+     * the current quantities), the inventory summary and the last _id used. Checkpoints of bulk
+     * imports are removed, as the products they inserted are gone.
+     *
+     * @param db     is the database.
+     * @param lastId is the last _id used by the restored products. _id values up to the greatest
+     *               of this one and the one of the current products are never reused.
+     */
+    static void replaceProducts(SQLiteDatabase db, long lastId) {
+        lastId = Math.max(lastId, DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence " +
+                "WHERE name IN (?, ?)", new String[]{ProductEntry.TABLE_NAME, TABLE_PRODUCTS_STAGING}));
+
+        // Dropping the old table also drops its indexes and triggers, without firing them.
+        db.execSQL("DROP TABLE " + ProductEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + TABLE_PRODUCTS_STAGING + " RENAME TO " + ProductEntry.TABLE_NAME);
+        setLastProductId(db, lastId);
+        createProductIndexes(db);
+        createFtsTriggers(db);
+        createVersionTrigger(db);
+        createStockTriggers(db);
+        createSummaryTriggers(db);
+
+        // Rebuild everything derived from the products.
+        db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (" + ProductEntry.FTS_TABLE_NAME + ") VALUES ('rebuild')");
+        db.execSQL("DELETE FROM " + StockMovementEntry.TABLE_NAME);
+        db.execSQL("DELETE FROM " + StockSnapshotEntry.TABLE_NAME);
+        insertStockSnapshots(db);
+        computeSummary(db);
+        db.execSQL("DELETE FROM " + ImportCheckpointEntry.TABLE_NAME);
+    }
+
+    /**
+     * Helper method to set the last _id used in the "products" table, so the next product gets the
+     * following one.
+     *
+     * @param db     is the database.
+     * @param lastId is the last _id used.
+     */
+    private static void setLastProductId(SQLiteDatabase db, long lastId) {
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{ProductEntry.TABLE_NAME});
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)", new Object[]{ProductEntry.TABLE_NAME, lastId});
+    }
+
+    /**
+     * Helper method to add a stock snapshot with the current quantity of every product, so the
+     * stock ledger starts from the current stock.
+     *
+     * @param db is the database.
+     */
+    private static void insertStockSnapshots(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + StockSnapshotEntry.TABLE_NAME + " (" + StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID +
+                ", " + StockSnapshotEntry.COLUMN_NAME_QUANTITY + ", " + StockSnapshotEntry.COLUMN_NAME_LAST_MOVEMENT_ID +
+                ") SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_NAME_QUANTITY + ", 0 FROM " + ProductEntry.TABLE_NAME);
+    }
+
+    /**
+     * Helper method to compute the single row of the inventory summary from all the products,
+     * replacing the previous one.
+     *
+     * @param db is the database.
+     */
+    private static void computeSummary(SQLiteDatabase db) {
+        db.execSQL("INSERT OR REPLACE INTO " + InventorySummaryEntry.TABLE_NAME + " (" + InventorySummaryEntry._ID + ", " +
+                InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT + ", " + InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS + ", " +
+                InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE + ", " + InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT +
+                ") SELECT 1, COUNT(*), IFNULL(SUM(" + ProductEntry.COLUMN_NAME_QUANTITY + "), 0), IFNULL(SUM(" +
+                ProductEntry.COLUMN_NAME_PRICE + " * " + ProductEntry.COLUMN_NAME_QUANTITY + "), 0), IFNULL(SUM(" +
+                isLowStock("") + "), 0) FROM " + ProductEntry.TABLE_NAME);
+    }
+
+    /**
+     * Helper method to create the secondary indexes of the "products" table: the product name
+     * (used for sorting the list), the supplier name and the current quantity (used for filtering
+     * products).
+     *
+     * @param db is the database.
+     */
+    private static void createProductIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCT + " ON " + ProductEntry.TABLE_NAME +
+                " (" + ProductEntry.COLUMN_NAME_PRODUCT + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SUPPLIER_CONTACT + " ON " + ProductEntry.TABLE_NAME +
+                " (" + ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_QUANTITY + " ON " + ProductEntry.TABLE_NAME +
+                " (" + ProductEntry.COLUMN_NAME_QUANTITY + ")");
+    }
+
+    /**
+     * Helper method to create the triggers that keep the full-text search table in sync with the
+     * "products" table. They only fire when the indexed columns change, so quantity updates don't
+     * touch the search table.
+     *
+     * @param db is the database.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        String newValues = "new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_NAME_PRODUCT +
+                ", new." + ProductEntry.COLUMN_NAME_DESCRIPTION;
+        String deleteOld = "DELETE FROM " + ProductEntry.FTS_TABLE_NAME + " WHERE docid = old." + ProductEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ") VALUES (" + newValues + "); ";
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_AFTER_INSERT + " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + insertNew + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_BEFORE_UPDATE + " BEFORE UPDATE OF " + FTS_COLUMNS + " ON " +
+                ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_AFTER_UPDATE + " AFTER UPDATE OF " + FTS_COLUMNS + " ON " +
+                ProductEntry.TABLE_NAME + " BEGIN " + insertNew + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_BEFORE_DELETE + " BEFORE DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + deleteOld + "END");
+    }
+
+    /**
+     * Helper method to create the trigger that increases the version of a product every time it is
+     * updated. Statements that already increase the version themselves, like the quantity
+     * adjustments of InventoryProvider, don't fire it.
+     *
+     * @param db is the database.
+     */
+    private static void createVersionTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + TRIGGER_VERSION_AFTER_UPDATE + " AFTER UPDATE ON " + ProductEntry.TABLE_NAME +
+                " WHEN new." + ProductEntry.COLUMN_NAME_VERSION + " = old." + ProductEntry.COLUMN_NAME_VERSION +
+                " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_NAME_VERSION + " = old." +
+                ProductEntry.COLUMN_NAME_VERSION + " + 1 WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; END");
+    }
+
+    /**
+     * Helper method to create the triggers that append a stock movement for every change of the
+     * current quantity of a product, including the initial quantity of new products and a final
+     * movement that takes deleted products down to zero. The ledger of deleted products is kept
+     * until compaction folds it and removes their snapshots, and it is not linked to the
+     * "products" table by a foreign key, so rebuilding the table never cascades into the ledger.
+     *
+     * @param db is the database.
+     */
+    private static void createStockTriggers(SQLiteDatabase db) {
+        String insertMovement = "INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" +
+                StockMovementEntry.COLUMN_NAME_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_NAME_DELTA + ", " +
+                StockMovementEntry.COLUMN_NAME_TIMESTAMP + ") VALUES (%s." + ProductEntry._ID + ", %s, " + SQL_NOW_MS + "); ";
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_STOCK_AFTER_INSERT + " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " WHEN new." + ProductEntry.COLUMN_NAME_QUANTITY + " != 0 BEGIN " +
+                String.format(insertMovement, "new", "new." + ProductEntry.COLUMN_NAME_QUANTITY) + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_STOCK_AFTER_UPDATE + " AFTER UPDATE OF " + ProductEntry.COLUMN_NAME_QUANTITY +
+                " ON " + ProductEntry.TABLE_NAME + " WHEN new." + ProductEntry.COLUMN_NAME_QUANTITY + " != old." +
+                ProductEntry.COLUMN_NAME_QUANTITY + " BEGIN " + String.format(insertMovement, "new", "new." +
+                ProductEntry.COLUMN_NAME_QUANTITY + " - old." + ProductEntry.COLUMN_NAME_QUANTITY) + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_STOCK_AFTER_DELETE + " AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                " WHEN old." + ProductEntry.COLUMN_NAME_QUANTITY + " != 0 BEGIN " +
+                String.format(insertMovement, "old", "-old." + ProductEntry.COLUMN_NAME_QUANTITY) + "END");
+    }
+
+    /**
+     * Helper method to create the triggers that add the changes of every inserted, updated or
+     * deleted product to the inventory summary. Updates only fire the trigger when the price or the
+     * current quantity change.
+     *
+     * @param db is the database.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        String updateSummary = "UPDATE " + InventorySummaryEntry.TABLE_NAME + " SET " +
+                InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT + " = " + InventorySummaryEntry.COLUMN_NAME_PRODUCT_COUNT + " %1$s, " +
+                InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS + " = " + InventorySummaryEntry.COLUMN_NAME_TOTAL_UNITS + " %2$s, " +
+                InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE + " = " + InventorySummaryEntry.COLUMN_NAME_TOTAL_VALUE + " %3$s, " +
+                InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT + " = " + InventorySummaryEntry.COLUMN_NAME_LOW_STOCK_COUNT + " %4$s" +
+                " WHERE " + InventorySummaryEntry._ID + " = 1; ";
+        String newUnits = "new." + ProductEntry.COLUMN_NAME_QUANTITY;
+        String oldUnits = "old." + ProductEntry.COLUMN_NAME_QUANTITY;
+        String newValue = "new." + ProductEntry.COLUMN_NAME_PRICE + " * " + newUnits;
+        String oldValue = "old." + ProductEntry.COLUMN_NAME_PRICE + " * " + oldUnits;
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_AFTER_INSERT + " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + String.format(updateSummary, "+ 1", "+ " + newUnits, "+ " + newValue,
+                "+ " + isLowStock("new.")) + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_AFTER_UPDATE + " AFTER UPDATE OF " + ProductEntry.COLUMN_NAME_PRICE +
+                ", " + ProductEntry.COLUMN_NAME_QUANTITY + " ON " + ProductEntry.TABLE_NAME + " BEGIN " +
+                String.format(updateSummary, "+ 0", "+ " + newUnits + " - " + oldUnits, "+ " + newValue + " - " + oldValue,
+                        "+ " + isLowStock("new.") + " - " + isLowStock("old.")) + "END");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_AFTER_DELETE + " AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + String.format(updateSummary, "- 1", "- " + oldUnits, "- " + oldValue,
+                "- " + isLowStock("old.")) + "END");
+    }
+
+    /**
+     * Helper method to build the SQL expression that tells whether a product has low stock.
+     *
+     * @param prefix is the prefix of the current quantity column: "new.", "old." or "".
+     * @return an expression that is 1 if the product has low stock, or 0 otherwise.
+     */
+    private static String isLowStock(String prefix) {
+        return "(" + prefix + ProductEntry.COLUMN_NAME_QUANTITY + " <= " + InventorySummaryEntry.LOW_STOCK_QUANTITY + ")";
     }
 }
@@ -1,16 +1,50 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryapp.data.InventoryContract.ImportCheckpointEntry;
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
 import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.android.inventoryapp.data.InventoryContract.ProviderMetricsEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockMovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StockSnapshotEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by David on 18/07/2017.
@@ -25,6 +59,22 @@ public class InventoryProvider extends ContentProvider {
 
     private static final int PRODUCTS = 0;   // URI matcher code for the content URI for the products table.
     private static final int PRODUCT_ID = 1; // URI matcher code for the content URI for a single product.
+    private static final int SEARCH = 2;     // URI matcher code for the content URI for searching products.
+    private static final int STATS = 3;      // URI matcher code for the content URI for the inventory summary.
+    private static final int METRICS = 4;    // URI matcher code for the content URI for the provider metrics.
+    private static final int EXPORT = 5;     // URI matcher code for the content URI for exporting products.
+    private static final int SNAPSHOT = 6;   // URI matcher code for the content URI for product snapshots.
+
+    // Names of the URI matcher codes in the metrics, starting with UriMatcher.NO_MATCH.
+    private static final String[] MATCH_NAMES = {
+            "unknown",
+            InventoryContract.PATH_PRODUCTS,
+            InventoryContract.PATH_PRODUCTS + "/#",
+            InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_SEARCH,
+            InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_STATS,
+            InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_METRICS,
+            InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_EXPORT,
+            InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_SNAPSHOT};
 
     // Build up a tree of UriMatcher objects.
     static {
@@ -36,9 +86,154 @@ public class InventoryProvider extends ContentProvider {
         // map to the integer code PRODUCT_ID. This URI is used to provide access to ONE single row
         // of the products table.
         uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/search"
+        // will map to the integer code SEARCH. This URI is used to search products by name and
+        // description, with the text to search as a query parameter.
+        uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_SEARCH, SEARCH);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/stats"
+        // will map to the integer code STATS. This URI is used to read the inventory summary.
+        uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_STATS, STATS);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/metrics"
+        // will map to the integer code METRICS. This URI is used to read and reset the metrics of
+        // this content provider.
+        uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_METRICS, METRICS);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/export"
+        // will map to the integer code EXPORT. This URI is used to export all the products as a
+        // CSV or JSON file.
+        uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_EXPORT, EXPORT);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/snapshot"
+        // will map to the integer code SNAPSHOT. This URI is used to back up all the products as a
+        // binary snapshot.
+        uriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_SNAPSHOT, SNAPSHOT);
     }
 
+    // Tables joined for searching products: the full-text search table and the "products" table.
+    private static final String SEARCH_TABLES = ProductEntry.FTS_TABLE_NAME + " JOIN " + ProductEntry.TABLE_NAME +
+            " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " = " + ProductEntry.FTS_TABLE_NAME + ".docid";
+
+    // Columns available when searching products, mapped to their SQL expressions.
+    private static final HashMap<String, String> SEARCH_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        String[] columns = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_NAME_PRODUCT,
+                ProductEntry.COLUMN_NAME_DESCRIPTION,
+                ProductEntry.COLUMN_NAME_IMAGE,
+                ProductEntry.COLUMN_NAME_PRICE,
+                ProductEntry.COLUMN_NAME_QUANTITY,
+                ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+                ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+                ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY,
+                ProductEntry.COLUMN_NAME_VERSION};
+        for (String column : columns) {
+            SEARCH_PROJECTION_MAP.put(column, ProductEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        SEARCH_PROJECTION_MAP.put(ProductEntry.COLUMN_NAME_SNIPPET, "snippet(" + ProductEntry.FTS_TABLE_NAME +
+                ", '" + ProductEntry.SNIPPET_MATCH_START + "', '" + ProductEntry.SNIPPET_MATCH_END + "', '...', -1, 8) AS " +
+                ProductEntry.COLUMN_NAME_SNIPPET);
+    }
+
+    // Rank of search results: products whose name matches all the words, given as a full-text
+    // search expression restricted to the name column, go first, and then products are sorted by
+    // name. The matches are read once from the full-text index, so no function is evaluated for
+    // every matching row.
+    private static final String SEARCH_SORT_ORDER = ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " IN (SELECT docid FROM " +
+            ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?) DESC, " +
+            ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_NAME_PRODUCT + ", " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    // Selection of the search results, given the limit: the products that match the search and
+    // are among the best ranked ones. Snippets are only built for these products.
+    private static final String SEARCH_SELECTION = ProductEntry.FTS_TABLE_NAME + " MATCH ? AND " +
+            ProductEntry.FTS_TABLE_NAME + ".docid IN (SELECT " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " FROM " +
+            SEARCH_TABLES + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ? ORDER BY " + SEARCH_SORT_ORDER + " LIMIT ";
+
+    // SQL statement for reading the _id of the last stock movement made before a given time, read
+    // from the index on the timestamp.
+    private static final String SQL_SELECT_LAST_MOVEMENT_BEFORE = "SELECT IFNULL(MAX(" + StockMovementEntry._ID +
+            "), 0) FROM " + StockMovementEntry.TABLE_NAME + " WHERE " + StockMovementEntry.COLUMN_NAME_TIMESTAMP + " < ?";
+
+    // SQL statement for folding the stock movements up to a given _id into the snapshots of their
+    // products. Movements after the snapshot of a product always have a greater _id, so the new
+    // snapshot is the old one plus the sum of the folded movements.
+    private static final String SQL_FOLD_MOVEMENTS = "INSERT OR REPLACE INTO " + StockSnapshotEntry.TABLE_NAME + " (" +
+            StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + ", " + StockSnapshotEntry.COLUMN_NAME_QUANTITY + ", " +
+            StockSnapshotEntry.COLUMN_NAME_LAST_MOVEMENT_ID + ") SELECT m." + StockMovementEntry.COLUMN_NAME_PRODUCT_ID +
+            ", IFNULL(s." + StockSnapshotEntry.COLUMN_NAME_QUANTITY + ", 0) + SUM(m." + StockMovementEntry.COLUMN_NAME_DELTA +
+            "), MAX(m." + StockMovementEntry._ID + ") FROM " + StockMovementEntry.TABLE_NAME + " m LEFT JOIN " +
+            StockSnapshotEntry.TABLE_NAME + " s ON s." + StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " = m." +
+            StockMovementEntry.COLUMN_NAME_PRODUCT_ID + " WHERE m." + StockMovementEntry._ID + " <= ? GROUP BY m." +
+            StockMovementEntry.COLUMN_NAME_PRODUCT_ID;
+
+    // SQL statement for deleting the stock movements up to a given _id.
+    private static final String SQL_DELETE_MOVEMENTS = "DELETE FROM " + StockMovementEntry.TABLE_NAME +
+            " WHERE " + StockMovementEntry._ID + " <= ?";
+
+    // SQL statement for deleting the snapshots of deleted products once all their movements, up to
+    // a given _id, have been folded. The last movement of a deleted product takes it down to zero.
+    private static final String SQL_DELETE_CLOSED_SNAPSHOTS = "DELETE FROM " + StockSnapshotEntry.TABLE_NAME +
+            " WHERE " + StockSnapshotEntry.COLUMN_NAME_QUANTITY + " = 0 AND " + StockSnapshotEntry.COLUMN_NAME_LAST_MOVEMENT_ID +
+            " <= ? AND " + StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " NOT IN (SELECT " + ProductEntry._ID + " FROM " +
+            ProductEntry.TABLE_NAME + ")";
+
+    // SQL query for the _id, the current quantity and the quantity rebuilt from the stock ledger
+    // (snapshot plus later movements) of every product.
+    private static final String SQL_SELECT_LEDGER_QUANTITIES = "SELECT p." + ProductEntry._ID + ", p." +
+            ProductEntry.COLUMN_NAME_QUANTITY + ", IFNULL(s." + StockSnapshotEntry.COLUMN_NAME_QUANTITY + ", 0) + " +
+            "IFNULL((SELECT SUM(m." + StockMovementEntry.COLUMN_NAME_DELTA + ") FROM " + StockMovementEntry.TABLE_NAME +
+            " m WHERE m." + StockMovementEntry.COLUMN_NAME_PRODUCT_ID + " = p." + ProductEntry._ID + " AND m." +
+            StockMovementEntry._ID + " > IFNULL(s." + StockSnapshotEntry.COLUMN_NAME_LAST_MOVEMENT_ID + ", 0)), 0) FROM " +
+            ProductEntry.TABLE_NAME + " p LEFT JOIN " + StockSnapshotEntry.TABLE_NAME + " s ON s." +
+            StockSnapshotEntry.COLUMN_NAME_PRODUCT_ID + " = p." + ProductEntry._ID;
+
+    // SQL statement for reading the checkpoint of a bulk import.
+    private static final String SQL_SELECT_IMPORT_CHECKPOINT = "SELECT " + ImportCheckpointEntry.COLUMN_NAME_NEXT_ROW +
+            ", " + ImportCheckpointEntry.COLUMN_NAME_INSERTED + ", " + ImportCheckpointEntry.COLUMN_NAME_REJECTED + ", " +
+            ImportCheckpointEntry.COLUMN_NAME_COMPLETED + " FROM " + ImportCheckpointEntry.TABLE_NAME +
+            " WHERE " + ImportCheckpointEntry.COLUMN_NAME_SOURCE + " = ?";
+
+    // Minimum number of operations applied by applyBatch() between two yield points.
+    private static final int BATCH_YIELD_INTERVAL = 100;
+
+    // Maximum number of URIs notified separately at the end of a batch.
+    private static final int BATCH_NOTIFICATION_LIMIT = 20;
+
+    // Columns used for sorting or searching lists of products. Updating any of them changes the
+    // lists, while other columns only change the product itself.
+    private static final String[] LIST_KEY_COLUMNS = {
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT};
+
+    // Columns used for computing the inventory summary. Updating any of them changes the summary.
+    private static final String[] STATS_KEY_COLUMNS = {
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY};
+
+    // Maximum number of single product rows kept in memory.
+    private static final int PRODUCT_CACHE_SIZE = 64;
+
     private InventoryDbHelper inventoryDbHelper;    // Database helper object.
+    private ProductExportWriter exportWriter;       // Writer of exported files.
+    private ProductSnapshotWriter snapshotWriter;   // Writer of product snapshots.
+
+    // Cache of single product rows, for queries on single product URIs.
+    private final ProductRowCache productCache = new ProductRowCache(PRODUCT_CACHE_SIZE);
+
+    // Cache of compiled statements for the most common writes, for the current database.
+    private ProductStatementCache statementCache;
+
+    // Call counts, row counts and latencies of every operation, by URI matcher code.
+    private final ProviderMetrics metrics = new ProviderMetrics(MATCH_NAMES);
+
+    // URIs changed by the batch that the current thread is applying, or null if the current
+    // thread is not applying a batch. Notifications for these URIs are sent when the batch ends.
+    private final ThreadLocal<Set<Uri>> batchChanges = new ThreadLocal<>();
 
     /**
      * Initialize the content provider on startup.
@@ -48,9 +243,57 @@ public class InventoryProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         inventoryDbHelper = new InventoryDbHelper(getContext());
+        exportWriter = new ProductExportWriter(inventoryDbHelper);
+        snapshotWriter = new ProductSnapshotWriter(inventoryDbHelper);
         return true;
     }
 
+    /**
+     * Get the database helper object used by this content provider.
+     *
+     * @return the database helper object.
+     */
+    @VisibleForTesting
+    InventoryDbHelper getDbHelper() {
+        return inventoryDbHelper;
+    }
+
+    /**
+     * Get the cache of compiled statements for the current writable database, creating it if the
+     * database has been opened again.
+     *
+     * @return the cache of compiled statements.
+     */
+    @VisibleForTesting
+    synchronized ProductStatementCache getStatementCache() {
+        SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
+        if (statementCache == null || statementCache.getDatabase() != database) {
+            if (statementCache != null) statementCache.close();
+            statementCache = new ProductStatementCache(database);
+        }
+        return statementCache;
+    }
+
+    /**
+     * Get the cache of single product rows used by this content provider.
+     *
+     * @return the cache.
+     */
+    @VisibleForTesting
+    ProductRowCache getProductCache() {
+        return productCache;
+    }
+
+    /**
+     * Get the metrics of this content provider.
+     *
+     * @return the metrics.
+     */
+    @VisibleForTesting
+    ProviderMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Handle query requests from clients.
      *
@@ -71,21 +314,90 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        Cursor cursor = null;
+        try {
+            cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            // Counting the rows fills the first window of the cursor, which its client would do
+            // anyway as soon as it reads any row.
+            metrics.record(match, ProviderMetrics.OPERATION_QUERY, cursor == null ? 0 : cursor.getCount(), start);
+        }
+        return cursor;
+    }
+
+    /**
+     * Helper method to handle query requests for a URI already matched. See query().
+     *
+     * @param match is the URI matcher code of the URI.
+     * @return a Cursor or null.
+     */
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         Cursor cursor;
+        Uri notificationUri = uri;
         SQLiteDatabase database = inventoryDbHelper.getReadableDatabase();
-        switch (uriMatcher.match(uri)) {
+        switch (match) {
             case PRODUCTS:
                 // Query the products table to produce a Cursor containing multiple rows of the
-                // products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // products table, or only a page of them if a page size is given.
+                if (uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, sortOrder);
+                    if (cursor == null) return null;
+                } else {
+                    cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                }
+
+                // Lists of products are not reloaded when a single product changes.
+                notificationUri = ProductEntry.LIST_NOTIFICATION_URI;
                 break;
 
             case PRODUCT_ID:
                 // Query the products table selecting a single product. The _ID for that product is
                 // taken from selectionArgs.
+                long productId = ContentUris.parseId(uri);
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                selectionArgs = new String[]{String.valueOf(productId)};
+                if (!ProductRowCache.canProject(projection)) {
+                    cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                    break;
+                }
+
+                // Serve the product from the cache, or read all its columns and cache them.
+                cursor = productCache.get(productId, projection);
+                if (cursor == null) {
+                    long generation = productCache.getGeneration();
+                    Cursor row = database.query(ProductEntry.TABLE_NAME, ProductRowCache.COLUMNS, selection, selectionArgs, null, null, null);
+                    try {
+                        cursor = productCache.put(productId, row, generation, projection);
+                    } finally {
+                        row.close();
+                    }
+                }
+                break;
+
+            case SEARCH:
+                // Search products whose name or description match the text given as a query
+                // parameter. Search results are lists of products too.
+                cursor = searchProducts(database, uri, projection, sortOrder);
+                if (cursor == null) return null;
+                notificationUri = ProductEntry.LIST_NOTIFICATION_URI;
+                break;
+
+            case STATS:
+                // Read the single row of the inventory summary, which is kept up to date by
+                // triggers, so no products are aggregated here.
+                cursor = database.query(InventorySummaryEntry.TABLE_NAME, projection, null, null, null, null, null);
+                break;
+
+            case METRICS:
+                // Read the metrics of this content provider, kept in memory.
+                cursor = metrics.query(projection);
+                break;
+
+            case EXPORT:
+                // Describe the exported file, for clients that show its name before reading it.
+                cursor = queryExportFile(uri, projection);
                 break;
 
             default:
@@ -97,7 +409,7 @@ public class InventoryProvider extends ContentProvider {
         // Set notification URI on the Cursor, so we know what content URI the Cursor was created
         // for. If the data at this URI changes, then we know we need to update the Cursor.
         try {
-            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         } catch (java.lang.NullPointerException e) {
             // getContentResolver() has thrown an exception.
             Log.e(LOG_TAG, "Error in getContentResolver(): " + e);
@@ -107,6 +419,229 @@ public class InventoryProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Helper method to read a page of products. Pages are located by the key of the last row of
+     * the previous page instead of by an offset, so every page is read with an index seek no
+     * matter how deep it is, and rows are never skipped or repeated when other pages change.
+     *
+     * @param database      is the database.
+     * @param uri           is the URI to query, with the page size, the sort column and the key
+     *                      of the last row of the previous page as query parameters.
+     * @param projection    is the list of columns to put into the cursor.
+     * @param selection     is an optional filter for the rows to return.
+     * @param selectionArgs are the arguments for the optional filter.
+     * @param sortOrder     must be null, as pages are always sorted by the sort column and _id.
+     * @return a Cursor with the rows of the page, or null if the query parameters are not valid.
+     */
+    private static Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        String sortColumn = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT);
+        String afterValue = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER);
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+        if (sortColumn == null) sortColumn = ProductEntry._ID;
+
+        // Pages must have at least one row, and only indexed columns can be used for sorting them.
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            pageSize = 0;
+        }
+        if (pageSize <= 0 || !isPageSortColumn(sortColumn)) {
+            Log.e(LOG_TAG, "Invalid page query parameters: " + uri);
+            return null;
+        }
+
+        // The key of the previous page must be complete, or the first page would be returned
+        // again. Only pages sorted by _id can be located by a single value.
+        boolean idSort = sortColumn.equals(ProductEntry._ID);
+        if ((!idSort && (afterValue == null) != (afterId == null)) || (afterId != null && !isLong(afterId)) ||
+                (idSort && afterId == null && afterValue != null && !isLong(afterValue))) {
+            Log.e(LOG_TAG, "Incomplete key of the previous page: " + uri);
+            return null;
+        }
+
+        // Pages have a sort order of their own, so the sort order of the caller can't be applied.
+        if (sortOrder != null) {
+            Log.e(LOG_TAG, "Pages are sorted by the " + ProductEntry.QUERY_PARAMETER_SORT +
+                    " query parameter, not by a sort order: " + sortOrder);
+            return null;
+        }
+
+        // Rows after the last row of the previous page, if any.
+        String keySelection = null;
+        String[] keySelectionArgs = null;
+        if (idSort) {
+            if (afterId != null || afterValue != null) {
+                keySelection = ProductEntry._ID + " > ?";
+                keySelectionArgs = new String[]{afterId != null ? afterId : afterValue};
+            }
+        } else if (afterValue != null) {
+            keySelection = "(" + sortColumn + " > ? OR (" + sortColumn + " = ? AND " + ProductEntry._ID + " > ?))";
+            keySelectionArgs = new String[]{afterValue, afterValue, afterId};
+        }
+
+        // Combine the key selection with the optional filter.
+        if (keySelection != null) {
+            if (TextUtils.isEmpty(selection)) {
+                selection = keySelection;
+                selectionArgs = keySelectionArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keySelection;
+                String[] args = selectionArgs == null ? new String[0] : selectionArgs;
+                selectionArgs = Arrays.copyOf(args, args.length + keySelectionArgs.length);
+                System.arraycopy(keySelectionArgs, 0, selectionArgs, args.length, keySelectionArgs.length);
+            }
+        }
+
+        sortOrder = idSort ? ProductEntry._ID : sortColumn + ", " + ProductEntry._ID;
+        return database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder, String.valueOf(pageSize));
+    }
+
+    /**
+     * Helper method to determine whether a text is a valid long value.
+     *
+     * @param text is the text.
+     * @return true if the text can be parsed as a long, false otherwise.
+     */
+    private static boolean isLong(String text) {
+        try {
+            Long.parseLong(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to determine whether a column can be used for sorting pages of products. The
+     * column must be indexed and one of LIST_KEY_COLUMNS, so changing it notifies the lists. The
+     * current quantity is indexed, but quantity changes don't notify the lists, so pages sorted by
+     * it would keep a stale order and skip or repeat products.
+     *
+     * @param column is the name of the column.
+     * @return true if the column is _id, name or supplier_name, false otherwise.
+     */
+    private static boolean isPageSortColumn(String column) {
+        switch (column) {
+            case ProductEntry._ID:
+            case ProductEntry.COLUMN_NAME_PRODUCT:
+            case ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Helper method to search products by name and description. Only the best ranked products are
+     * returned, up to the limit given as a query parameter or DEFAULT_SEARCH_LIMIT.
+     *
+     * @param database   is the database.
+     * @param uri        is the URI to query, with the text to search and the optional limit as
+     *                   query parameters. Every word is matched as a prefix, and only products that
+     *                   match all the words are returned.
+     * @param projection is the list of columns to put into the cursor. If null all columns are
+     *                   included, including COLUMN_NAME_SNIPPET.
+     * @param sortOrder  sets how the best ranked products should be sorted in the cursor. If null,
+     *                   they are sorted by rank: products whose name matches all the words go
+     *                   first, and then products are sorted by name.
+     * @return a Cursor with the matching products, or null if the limit is not valid.
+     */
+    private static Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection, String sortOrder) {
+        String text = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SEARCH);
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        int maxProducts = ProductEntry.DEFAULT_SEARCH_LIMIT;
+        if (limit != null) {
+            try {
+                maxProducts = Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                maxProducts = 0;
+            }
+        }
+        if (maxProducts <= 0) {
+            Log.e(LOG_TAG, "Invalid search query parameters: " + uri);
+            return null;
+        }
+
+        if (projection == null) {
+            projection = SEARCH_PROJECTION_MAP.keySet().toArray(new String[SEARCH_PROJECTION_MAP.size()]);
+        }
+
+        // Nothing to search. Return an empty cursor.
+        String matchExpression = buildMatchExpression(text);
+        String nameMatchExpression = buildNameMatchExpression(text);
+        if (matchExpression == null || nameMatchExpression == null) return new MatrixCursor(projection, 0);
+
+        // Arguments in the order they appear in the statement: the search and the rank of the
+        // selection, and then the rank of the sort order.
+        String[] selectionArgs;
+        if (sortOrder == null) {
+            sortOrder = SEARCH_SORT_ORDER;
+            selectionArgs = new String[]{matchExpression, matchExpression, nameMatchExpression, nameMatchExpression};
+        } else {
+            selectionArgs = new String[]{matchExpression, matchExpression, nameMatchExpression};
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(SEARCH_TABLES);
+        queryBuilder.setProjectionMap(SEARCH_PROJECTION_MAP);
+        queryBuilder.setStrict(true);
+        return queryBuilder.query(database, projection, SEARCH_SELECTION + maxProducts + ")", selectionArgs,
+                null, null, sortOrder);
+    }
+
+    /**
+     * Helper method to convert the text typed by the user into a full-text search expression, in
+     * which every word is a quoted prefix query. Quotes are removed from the words, so the result is
+     * always a valid expression.
+     *
+     * @param text is the text typed by the user.
+     * @return the full-text search expression, or null if there are no words to search.
+     */
+    private static String buildMatchExpression(String text) {
+        if (text == null) return null;
+        StringBuilder expression = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            String term = word.replace("\"", "");
+            if (term.isEmpty()) continue;
+            if (expression.length() > 0) expression.append(' ');
+            expression.append('"').append(term).append("*\"");
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Helper method to convert the text typed by the user into a full-text search expression that
+     * only matches the name of the products. The words are split into tokens the same way the
+     * full-text index splits them, letters and digits, and every token is a prefix query on the
+     * name column. ASCII letters are lowercased, so no token is taken as an operator.
+     *
+     * @param text is the text typed by the user.
+     * @return the full-text search expression, or null if there are no tokens to search.
+     */
+    private static String buildNameMatchExpression(String text) {
+        if (text == null) return null;
+        StringBuilder expression = new StringBuilder();
+        boolean inToken = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean tokenChar = c >= 0x80 || Character.isLetterOrDigit(c);
+            if (tokenChar && !inToken) {
+                if (expression.length() > 0) expression.append(' ');
+                expression.append(ProductEntry.COLUMN_NAME_PRODUCT).append(':');
+            } else if (!tokenChar && inToken) {
+                expression.append('*');
+            }
+            if (tokenChar) expression.append(c < 0x80 ? Character.toLowerCase(c) : c);
+            inToken = tokenChar;
+        }
+        if (inToken) expression.append('*');
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
     /**
      * Handle requests to insert a new row in the database.
      *
@@ -117,12 +652,44 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        Uri newUri = null;
+        try {
+            newUri = insert(match, uri, contentValues);
+        } finally {
+            metrics.record(match, ProviderMetrics.OPERATION_INSERT, newUri == null ? 0 : 1, start);
+        }
+        return newUri;
+    }
+
+    /**
+     * Helper method to handle requests for the insertion of a new row for a URI already matched.
+     * See insert().
+     *
+     * @param match is the URI matcher code of the URI.
+     * @return the URI for the newly inserted item. This value may be null.
+     */
+    private Uri insert(int match, Uri uri, ContentValues contentValues) {
         long itemId;
-        switch (uriMatcher.match(uri)) {
+        switch (match) {
             case PRODUCTS:
-                // Insert the new product and get the id for the newly inserted item.
-                SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
-                itemId = database.insert(ProductEntry.TABLE_NAME, null, contentValues);
+                // Check the new product, including the columns that it must have.
+                int violations = validateInsertValues(contentValues);
+                if (violations != 0) {
+                    Log.e(LOG_TAG, "Invalid new product (error " + ProductValidator.getErrorCode(violations) +
+                            ", violations " + violations + "): " + uri);
+                    return null;
+                }
+
+                // Insert the new product with a compiled statement and get the id for the newly
+                // inserted item.
+                try {
+                    itemId = getStatementCache().insert(contentValues);
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Error inserting new product: " + e);
+                    itemId = -1;
+                }
                 if (itemId == -1) {
                     // Error inserting the new product.
                     Log.e(LOG_TAG, "Error inserting new product: " + uri);
@@ -136,17 +703,215 @@ public class InventoryProvider extends ContentProvider {
                 return null;
         }
 
-        // Notify all listeners that the data has changed for the product content URI and return the
-        // new URI for the new product inserted into the database.
+        // Notify the lists of products that there is a new product and return the new URI for the
+        // new product inserted into the database.
+        notifyChange(ProductEntry.LIST_NOTIFICATION_URI);
+        notifyChange(ProductEntry.STATS_URI);
+        return ContentUris.withAppendedId(uri, itemId);
+    }
+
+    /**
+     * Handle requests to insert a set of new rows in the database. All the rows are inserted
+     * within a single transaction and listeners are notified only once, at the end.
+     * <p>
+     * Rows that are not valid are skipped. This method can only return how many rows have been
+     * inserted, so the rejected rows are just logged. Callers that need to know which rows have
+     * been rejected and why must use InventoryContract.METHOD_BULK_INSERT instead, through
+     * ProductEntry.bulkInsert().
+     *
+     * @param uri    is the content:// URI of the insertion request. This must not be null.
+     * @param values is an array of sets of column_name/value pairs to add to the database. This
+     *               must not be null.
+     * @return the number of newly inserted rows.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsInserted = 0;
         try {
-            getContext().getContentResolver().notifyChange(uri, null);
-        } catch (java.lang.NullPointerException e) {
-            // getContentResolver() has thrown an exception.
-            Log.e(LOG_TAG, "Error in getContentResolver(): " + e);
+            if (match != PRODUCTS) {
+                // Default return value for this method is 0.
+                Log.e(LOG_TAG, "Bulk insertion not supported for " + uri);
+            } else {
+                rowsInserted = insertProducts(values, null);
+            }
         } finally {
-            // Return the URI for the newly inserted item.
-            return ContentUris.withAppendedId(uri, itemId);
+            metrics.record(match, ProviderMetrics.OPERATION_BULK_INSERT, rowsInserted, start);
         }
+        return rowsInserted;
+    }
+
+    /**
+     * Helper method to insert a set of new products within a single transaction, notifying the
+     * listeners only once, at the end. Rows that are not valid are skipped and logged.
+     *
+     * @param values     is an array of sets of column_name/value pairs to add to the database.
+     * @param rejections is where the index, the SQL_ERROR_* code and the VIOLATION_* bits of every
+     *                   rejected row are added, or null if they are not needed.
+     * @return the number of newly inserted rows.
+     */
+    private int insertProducts(ContentValues[] values, ArrayList<int[]> rejections) {
+        // Insert every valid row using the same compiled statement, within a single transaction.
+        int rowsInserted = 0;
+        ProductStatementCache statements = getStatementCache();
+        SQLiteDatabase database = statements.getDatabase();
+        database.beginTransaction();
+        try {
+            for (int row = 0; row < values.length; row++) {
+                int violations = validateInsertValues(values[row]);
+                if (violations != 0) {
+                    // Invalid data. Skip this row, reporting all its violations.
+                    int error = ProductValidator.getErrorCode(violations);
+                    Log.w(LOG_TAG, "Bulk insertion: row " + row + " rejected with error " + error +
+                            ", violations 0x" + Integer.toHexString(violations));
+                    if (rejections != null) rejections.add(new int[]{row, error, violations});
+                    continue;
+                }
+
+                try {
+                    statements.insert(values[row]);
+                    rowsInserted++;
+                } catch (SQLException e) {
+                    // A constraint has failed for this row. Only this row is discarded.
+                    Log.w(LOG_TAG, "Bulk insertion: row " + row + " rejected: " + e);
+                    if (rejections != null) rejections.add(new int[]{row, ProductEntry.SQL_ERROR_CONSTRAINT, 0});
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners once that the data has changed for the product content URI.
+        if (rowsInserted != 0) {
+            notifyChange(ProductEntry.LIST_NOTIFICATION_URI);
+            notifyChange(ProductEntry.STATS_URI);
+        }
+
+        // Return the number of rows inserted.
+        Log.i(LOG_TAG, "Bulk insertion: " + rowsInserted + " of " + values.length + " rows inserted");
+        return rowsInserted;
+    }
+
+    /**
+     * Helper method to insert a set of new products as bulkInsert() does, reporting the rejected
+     * rows to the caller.
+     *
+     * @param rows are the values of the products.
+     * @return a Bundle with the number of products inserted and the index, the SQL_ERROR_* code
+     * and the VIOLATION_* bits of every rejected row.
+     */
+    private Bundle bulkInsertWithRejections(Parcelable[] rows) {
+        long start = ProviderMetrics.start();
+        ContentValues[] values = new ContentValues[rows.length];
+        for (int row = 0; row < rows.length; row++)
+            values[row] = rows[row] instanceof ContentValues ? (ContentValues) rows[row] : null;
+        ArrayList<int[]> rejections = new ArrayList<>();
+        int rowsInserted = 0;
+        try {
+            rowsInserted = insertProducts(values, rejections);
+        } finally {
+            metrics.record(PRODUCTS, ProviderMetrics.OPERATION_BULK_INSERT, rowsInserted, start);
+        }
+
+        int[] rejectedRows = new int[rejections.size()];
+        int[] errors = new int[rejections.size()];
+        int[] violations = new int[rejections.size()];
+        for (int i = 0; i < rejectedRows.length; i++) {
+            int[] rejection = rejections.get(i);
+            rejectedRows[i] = rejection[0];
+            errors[i] = rejection[1];
+            violations[i] = rejection[2];
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_BULK_INSERTED, rowsInserted);
+        result.putIntArray(InventoryContract.EXTRA_REJECTED_ROWS, rejectedRows);
+        result.putIntArray(InventoryContract.EXTRA_REJECTED_ERRORS, errors);
+        result.putIntArray(InventoryContract.EXTRA_REJECTED_VIOLATIONS, violations);
+        return result;
+    }
+
+    /**
+     * Helper method to check whether a set of values is a valid new product that can be inserted
+     * with the compiled insert statements. ProductValidator only knows the columns of those
+     * statements, and reports the required columns that are missing too.
+     *
+     * @param contentValues is the set of column_name/value pairs to add to the database.
+     * @return 0 if the values are valid, or the ProductValidator.VIOLATION_* bits of every rule
+     * they break. A null set of values is reported as VIOLATION_UNKNOWN_COLUMN.
+     */
+    private static int validateInsertValues(ContentValues contentValues) {
+        if (contentValues == null) return ProductValidator.VIOLATION_UNKNOWN_COLUMN;
+        return ProductValidator.validateInsert(contentValues);
+    }
+
+    /**
+     * Apply a batch of operations within a single transaction. Listeners are notified only once,
+     * when the whole batch has been applied.
+     * <p>
+     * On long batches, the transaction may be committed and restarted at operations built with
+     * withYieldAllowed(true), so other threads can access the database in the meantime. Yield
+     * points break the all-or-nothing guarantee: if the batch fails after a yield, the operations
+     * before the last yield point stay committed and only the rest are rolled back. Listeners are
+     * notified in that case too, before the exception is thrown, so they never miss the committed
+     * part of the batch. Callers that need all-or-nothing batches must not allow yields.
+     *
+     * @param operations is the list of operations to apply. Operations can use back references to
+     *                   the results of previous operations of the same batch.
+     * @return the results of the applied operations.
+     * @throws OperationApplicationException if any operation fails.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        Set<Uri> changes = new HashSet<>();
+        boolean committed = false;
+        SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
+        batchChanges.set(changes);
+        database.beginTransaction();
+        try {
+            int operationsSinceYield = 0;
+            for (int i = 0; i < results.length; i++) {
+                ContentProviderOperation operation = operations.get(i);
+
+                // Let other threads access the database if they are waiting for it. If they were,
+                // the operations applied so far have been committed.
+                if (operation.isYieldAllowed() && operationsSinceYield >= BATCH_YIELD_INTERVAL) {
+                    if (database.yieldIfContendedSafely()) committed = true;
+                    operationsSinceYield = 0;
+                }
+
+                results[i] = operation.apply(this, results, i);
+                operationsSinceYield++;
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            batchChanges.remove();
+
+            // Rows cached while the batch was running may have been read before it was committed,
+            // or may have been rolled back.
+            for (Uri change : changes) invalidateCachedProducts(change);
+
+            // Notify all listeners once if anything has been committed, even if the batch has
+            // failed after a yield point. If too many URIs have changed, notify the product
+            // content URI instead, which also reaches the listeners of every list and every
+            // single product.
+            if (committed) {
+                if (changes.size() > BATCH_NOTIFICATION_LIMIT || changes.contains(ProductEntry.CONTENT_URI)) {
+                    notifyChange(ProductEntry.CONTENT_URI);
+                } else {
+                    for (Uri change : changes) notifyChange(change);
+                }
+            }
+        }
+
+        // Return the results of all the operations.
+        return results;
     }
 
     /**
@@ -161,12 +926,33 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public int update(@NonNull Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = update(match, uri, contentValues, selection, selectionArgs);
+        } finally {
+            metrics.record(match, ProviderMetrics.OPERATION_UPDATE, rowsUpdated, start);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Helper method to handle requests to update one or more rows for a URI already matched. See
+     * update().
+     *
+     * @param match is the URI matcher code of the URI.
+     * @return the number of rows affected.
+     */
+    private int update(int match, Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         int rowsUpdated = 0;
-        switch (uriMatcher.match(uri)) {
+        long productId = -1;
+        switch (match) {
 
             case PRODUCT_ID: // Update a single product. The product _ID is taken from selectionArgs.
+                productId = ContentUris.parseId(uri);
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(productId)};
 
                 // ... go on into case PRODUCTS.
                 //break;
@@ -181,8 +967,13 @@ public class InventoryProvider extends ContentProvider {
                 }
 
                 // Perform the update on the database and return the number of rows affected.
-                SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
-                rowsUpdated = database.update(ProductEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+                // Quantity-only updates of a single product use a compiled statement.
+                if (productId != -1 && contentValues.size() == 1 && contentValues.containsKey(ProductEntry.COLUMN_NAME_QUANTITY)) {
+                    rowsUpdated = getStatementCache().updateQuantity(productId, contentValues.get(ProductEntry.COLUMN_NAME_QUANTITY));
+                } else {
+                    SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
+                    rowsUpdated = database.update(ProductEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+                }
                 break;
 
             default:
@@ -191,19 +982,27 @@ public class InventoryProvider extends ContentProvider {
                 return 0;
         }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the given URI
-        // has changed.
+        // Remove the updated products from the cache.
         if (rowsUpdated != 0) {
-            try {
-                getContext().getContentResolver().notifyChange(uri, null);
-            } catch (java.lang.NullPointerException e) {
-                // getContentResolver() has thrown an exception.
-                Log.e(LOG_TAG, "Error in getContentResolver(): " + e);
-            } finally {
-                // Return the number of rows deleted.
-                return rowsUpdated;
+            if (productId == -1) productCache.invalidateAll();
+            else productCache.invalidate(productId);
+        }
+
+        // If a single product was updated, notify its listeners, and also the lists of products if
+        // they may have to sort it or search it again and the summary if it has changed. If any
+        // other set of products was updated, notify all listeners.
+        if (rowsUpdated != 0) {
+            if (productId == -1) {
+                notifyChange(ProductEntry.CONTENT_URI);
+            } else {
+                notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+                if (changesAny(contentValues, LIST_KEY_COLUMNS)) notifyChange(ProductEntry.LIST_NOTIFICATION_URI);
+                if (changesAny(contentValues, STATS_KEY_COLUMNS)) notifyChange(ProductEntry.STATS_URI);
             }
-        } else return 0;
+        }
+
+        // Return the number of rows updated.
+        return rowsUpdated;
     }
 
     /**
@@ -217,18 +1016,61 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+        } finally {
+            metrics.record(match, ProviderMetrics.OPERATION_DELETE, rowsDeleted, start);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Helper method to handle requests to delete one or more rows for a URI already matched. See
+     * delete().
+     *
+     * @param match is the URI matcher code of the URI.
+     * @return the number of rows affected.
+     */
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        if (match == METRICS) {
+            // Reset the metrics of this content provider. No rows are deleted.
+            metrics.reset();
+            return 0;
+        }
+
         int rowsDeleted = 0;
+        long productId = -1;
         SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
-        switch (uriMatcher.match(uri)) {
+        switch (match) {
             case PRODUCT_ID: // Delete a single product. The product _ID is taken from selectionArgs.
+                productId = ContentUris.parseId(uri);
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(productId)};
 
                 // ... go on into case PRODUCTS.
                 //break;
 
             case PRODUCTS: // Delete all rows that match the selection and selection args.
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                // Single products are deleted with a compiled statement.
+                if (productId != -1) {
+                    rowsDeleted = getStatementCache().delete(productId);
+                } else if (selection == null) {
+                    // Deleting all the products also clears the import checkpoints, as the products
+                    // they inserted are gone, so the same files can be imported again.
+                    database.beginTransaction();
+                    try {
+                        rowsDeleted = database.delete(ProductEntry.TABLE_NAME, null, null);
+                        database.delete(ImportCheckpointEntry.TABLE_NAME, null, null);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                } else {
+                    rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                }
                 break;
 
             default:
@@ -237,19 +1079,26 @@ public class InventoryProvider extends ContentProvider {
                 return 0;
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the given URI
-        // has changed.
+        // Remove the deleted products from the cache.
         if (rowsDeleted != 0) {
-            try {
-                getContext().getContentResolver().notifyChange(uri, null);
-            } catch (java.lang.NullPointerException e) {
-                // getContentResolver() has thrown an exception.
-                Log.e(LOG_TAG, "Error in getContentResolver(): " + e);
-            } finally {
-                // Return the number of rows deleted.
-                return rowsDeleted;
+            if (productId == -1) productCache.invalidateAll();
+            else productCache.invalidate(productId);
+        }
+
+        // If a single product was deleted, notify its listeners, the lists of products and the
+        // summary. If any other set of products was deleted, notify all listeners.
+        if (rowsDeleted != 0) {
+            if (productId == -1) {
+                notifyChange(ProductEntry.CONTENT_URI);
+            } else {
+                notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+                notifyChange(ProductEntry.LIST_NOTIFICATION_URI);
+                notifyChange(ProductEntry.STATS_URI);
             }
-        } else return 0;
+        }
+
+        // Return the number of rows deleted.
+        return rowsDeleted;
     }
 
     /**
@@ -260,15 +1109,629 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public String getType(@NonNull Uri uri) {
-        switch (uriMatcher.match(uri)) {
+        int match = uriMatcher.match(uri);
+        long start = ProviderMetrics.start();
+        String type;
+        switch (match) {
             case PRODUCTS:
-                return ProductEntry.CONTENT_LIST_TYPE;
+                type = ProductEntry.CONTENT_LIST_TYPE;
+                break;
 
             case PRODUCT_ID:
-                return ProductEntry.CONTENT_ITEM_TYPE;
+                type = ProductEntry.CONTENT_ITEM_TYPE;
+                break;
+
+            case SEARCH:
+                type = ProductEntry.CONTENT_LIST_TYPE;
+                break;
+
+            case STATS:
+                type = ProductEntry.CONTENT_STATS_TYPE;
+                break;
+
+            case METRICS:
+                type = ProviderMetricsEntry.CONTENT_TYPE;
+                break;
+
+            case EXPORT:
+                type = getExportType(uri);
+                break;
+
+            case SNAPSHOT:
+                type = ProductEntry.CONTENT_SNAPSHOT_TYPE;
+                break;
 
             default:
+                type = null;
+                break;
+        }
+        metrics.record(match, ProviderMetrics.OPERATION_GET_TYPE, type == null ? 0 : 1, start);
+        return type;
+    }
+
+    /**
+     * Handle requests for the MIME types of the files that can be opened for the given URI.
+     *
+     * @param uri            is the URI to query. This value must never be null.
+     * @param mimeTypeFilter is the type of data the client desires, which may be a pattern like
+     *                       "*&#47;*".
+     * @return the MIME types of the export formats that match the filter, or null if there are none.
+     */
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (uriMatcher.match(uri) != EXPORT) return null;
+
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : new String[]{ProductEntry.CONTENT_CSV_TYPE, ProductEntry.CONTENT_JSON_TYPE}) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) types.add(type);
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Handle requests to open a file. Only the export URI, whose format is given by its format
+     * query parameter, and the snapshot URI can be opened, for reading.
+     *
+     * @param uri  is the URI whose file is to be opened. This value must never be null.
+     * @param mode is the access mode. Only "r" is supported.
+     * @return the read end of a pipe where the file is being written.
+     * @throws FileNotFoundException if the URI can't be opened with the given mode.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        int match = uriMatcher.match(uri);
+        if ((match != EXPORT && match != SNAPSHOT) || !"r".equals(mode))
+            throw new FileNotFoundException("Opening not supported for " + uri + " in mode " + mode);
+        if (match == SNAPSHOT) return openReliablePipe(uri, ProductEntry.CONTENT_SNAPSHOT_TYPE, null, snapshotWriter);
+        return openReliablePipe(uri, getExportType(uri), null, exportWriter);
+    }
+
+    /**
+     * Handle requests to open a file of a given type. Only the export URI can be opened, as a CSV
+     * file or as a JSON file, so the format can be chosen by its MIME type.
+     *
+     * @param uri            is the URI whose file is to be opened. This value must never be null.
+     * @param mimeTypeFilter is the type of data the client desires, which may be a pattern like
+     *                       "*&#47;*". If it matches both formats, the format query parameter of
+     *                       the URI decides.
+     * @param opts           are the options supplied by the client.
+     * @return the read end of a pipe where the file is being written.
+     * @throws FileNotFoundException if the URI can't be opened as the given type.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (uriMatcher.match(uri) != EXPORT) return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+
+        String type = getExportType(uri);
+        if (!ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+            String[] types = getStreamTypes(uri, mimeTypeFilter);
+            if (types == null) throw new FileNotFoundException("Can't open " + uri + " as type " + mimeTypeFilter);
+            type = types[0];
+        }
+        return new AssetFileDescriptor(openReliablePipe(uri, type, opts, exportWriter), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Helper method to stream a file through a pipe, as openPipeHelper() does, but with a reliable
+     * pipe. A writer that fails closes its end with ParcelFileDescriptor.closeWithError(), so the
+     * reader gets an IOException from ParcelFileDescriptor.checkError() after reading the file,
+     * instead of taking a truncated file as a complete one.
+     *
+     * @param uri      is the URI whose file is being written.
+     * @param mimeType is the MIME type of the file.
+     * @param opts     are the options supplied by the client.
+     * @param writer   is the writer of the file, run on a background thread.
+     * @return the read end of the pipe.
+     * @throws FileNotFoundException if the pipe can't be created.
+     */
+    private static ParcelFileDescriptor openReliablePipe(final Uri uri, final String mimeType, final Bundle opts,
+                                                         final PipeDataWriter<Void> writer) throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Can't create a pipe for " + uri + ": " + e);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                writer.writeDataToPipe(pipe[1], uri, mimeType, opts, null);
+
+                // Closing a pipe already closed with an error does nothing.
+                try {
+                    pipe[1].close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing pipe for " + uri + ": " + e);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Write the metrics of this content provider to the output of
+     * "adb shell dumpsys activity provider InventoryProvider". If "--reset" is given as an
+     * argument, the metrics are reset once they have been written.
+     *
+     * @param fd     is the raw file descriptor that the dump is being sent to.
+     * @param writer is the PrintWriter to which the state should be written.
+     * @param args   are the additional arguments to the dump request.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+        if (args != null && Arrays.asList(args).contains("--reset")) {
+            metrics.reset();
+            writer.println("Metrics reset.");
+        }
+    }
+
+    /**
+     * Handle provider-specific methods that can't be expressed as a query, insert, update or
+     * delete on a content URI.
+     *
+     * @param method is the method name to call. This value must never be null.
+     * @param arg    is the method-specific argument.
+     * @param extras is a Bundle with method-specific extras.
+     * @return a Bundle with the result of the method, or null if the method is not supported.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        switch (method) {
+            case InventoryContract.METHOD_ADJUST_QUANTITY:
+                // arg is the _ID of the product and extras contains the number of units to add.
+                // Invalid arguments never throw back to the caller, which may be in another process.
+                long productId;
+                try {
+                    productId = Long.parseLong(arg);
+                } catch (NumberFormatException e) {
+                    productId = -1;
+                }
+                if (productId <= 0 || extras == null || !extras.containsKey(InventoryContract.EXTRA_QUANTITY_DELTA)) {
+                    Log.e(LOG_TAG, "Invalid arguments for " + method + ": " + arg);
+                    Bundle result = new Bundle();
+                    result.putInt(InventoryContract.EXTRA_QUANTITY, ProductEntry.QUANTITY_NOT_ADJUSTED);
+                    return result;
+                }
+                return adjustQuantity(productId, extras.getInt(InventoryContract.EXTRA_QUANTITY_DELTA));
+
+            case InventoryContract.METHOD_BULK_INSERT:
+                // extras contains the values of the products.
+                Parcelable[] rows = extras == null ? null : extras.getParcelableArray(InventoryContract.EXTRA_BULK_VALUES);
+                if (rows == null) {
+                    Log.e(LOG_TAG, "Missing arguments for " + method);
+                    return null;
+                }
+                return bulkInsertWithRejections(rows);
+
+            case InventoryContract.METHOD_COMPACT_STOCK_MOVEMENTS:
+                // extras contains the time before which movements are compacted.
+                if (extras == null) {
+                    Log.e(LOG_TAG, "Missing arguments for " + method);
+                    return null;
+                }
+                return compactStockMovements(extras.getLong(InventoryContract.EXTRA_COMPACT_BEFORE));
+
+            case InventoryContract.METHOD_VERIFY_STOCK:
+                return verifyStock();
+
+            case InventoryContract.METHOD_GET_PRODUCT_CACHE_STATS:
+                return getProductCacheStats();
+
+            case InventoryContract.METHOD_IMPORT_CHUNK:
+                // arg identifies the imported file and extras contains the rows of the chunk.
+                if (arg == null || extras == null) {
+                    Log.e(LOG_TAG, "Missing arguments for " + method);
+                    return null;
+                }
+                return importChunk(arg, extras);
+
+            case InventoryContract.METHOD_GET_IMPORT_CHECKPOINT:
+                // arg identifies the imported file.
+                if (arg == null) {
+                    Log.e(LOG_TAG, "Missing arguments for " + method);
+                    return null;
+                }
+                return readImportCheckpoint(inventoryDbHelper.getReadableDatabase(), arg);
+
+            case InventoryContract.METHOD_RESTORE_SNAPSHOT:
+                // extras contains the snapshot file, open for reading.
+                ParcelFileDescriptor file = extras == null ? null :
+                        (ParcelFileDescriptor) extras.getParcelable(InventoryContract.EXTRA_SNAPSHOT_FILE);
+                if (file == null) {
+                    Log.e(LOG_TAG, "Missing arguments for " + method);
+                    return null;
+                }
+                return restoreSnapshot(file);
+
+            default:
+                // Default return value for this method is null.
+                Log.e(LOG_TAG, "Method not supported: " + method);
+                return null;
+        }
+    }
+
+    /**
+     * Helper method to get the MIME type of the export URI, given by its format query parameter.
+     *
+     * @param uri is the export URI.
+     * @return CONTENT_JSON_TYPE for the JSON format, or CONTENT_CSV_TYPE otherwise.
+     */
+    private static String getExportType(Uri uri) {
+        String format = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_FORMAT);
+        if (ProductEntry.EXPORT_FORMAT_JSON.equals(format)) return ProductEntry.CONTENT_JSON_TYPE;
+        return ProductEntry.CONTENT_CSV_TYPE;
+    }
+
+    /**
+     * Helper method to describe the exported file with the OpenableColumns. Its size is unknown
+     * until it has been written.
+     *
+     * @param uri        is the export URI.
+     * @param projection is the list of columns to put into the cursor. If null all columns are
+     *                   included. Columns that are not OpenableColumns are ignored.
+     * @return a Cursor with a single row.
+     */
+    private static Cursor queryExportFile(Uri uri, String[] projection) {
+        if (projection == null) projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        String displayName = ProductEntry.TABLE_NAME + "." +
+                (ProductEntry.CONTENT_JSON_TYPE.equals(getExportType(uri)) ? ProductEntry.EXPORT_FORMAT_JSON : ProductEntry.EXPORT_FORMAT_CSV);
+
+        ArrayList<String> columns = new ArrayList<>();
+        ArrayList<Object> values = new ArrayList<>();
+        for (String column : projection) {
+            if (OpenableColumns.DISPLAY_NAME.equals(column)) {
+                columns.add(column);
+                values.add(displayName);
+            } else if (OpenableColumns.SIZE.equals(column)) {
+                columns.add(column);
+                values.add(null);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns.toArray(new String[columns.size()]), 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * Helper method to add a number of units to the current quantity of a single product. The
+     * addition is computed by SQLite, so it never works with a stale quantity read by the caller.
+     *
+     * @param productId is the _ID of the product.
+     * @param delta     is the number of units to add (or to remove, if negative).
+     * @return a Bundle with the new current quantity of the product, or with QUANTITY_NOT_ADJUSTED
+     * if the product doesn't exist or its quantity would become negative.
+     */
+    private Bundle adjustQuantity(long productId, int delta) {
+        int quantity;
+        ProductStatementCache statements = getStatementCache();
+        SQLiteDatabase database = statements.getDatabase();
+        database.beginTransaction();
+        try {
+            // Apply the adjustment and, if a row has been updated, read the resulting quantity
+            // inside the same transaction.
+            quantity = statements.adjustQuantity(productId, delta);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the quantity has changed, remove the product from the cache and notify the listeners
+        // of the product and of the summary.
+        // Lists of products are not notified, even when sorted by quantity, so selling units never
+        // reloads them.
+        if (quantity != ProductEntry.QUANTITY_NOT_ADJUSTED && delta != 0) {
+            productCache.invalidate(productId);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+            notifyChange(ProductEntry.STATS_URI);
+        }
+
+        // Return the new quantity.
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_QUANTITY, quantity);
+        return result;
+    }
+
+    /**
+     * Helper method to fold the stock movements made before a given time into the snapshots of
+     * their products and delete them, so the ledger only keeps the recent movements. Movements are
+     * folded in _id order, up to the last one made before the given time. Deleted products are
+     * removed from the ledger once their final movement has been folded.
+     *
+     * @param before is the time, in milliseconds since the epoch.
+     * @return a Bundle with the number of movements compacted.
+     */
+    private Bundle compactStockMovements(long before) {
+        int compacted = 0;
+        SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            long lastMovementId = DatabaseUtils.longForQuery(database, SQL_SELECT_LAST_MOVEMENT_BEFORE,
+                    new String[]{String.valueOf(before)});
+            if (lastMovementId > 0) {
+                SQLiteStatement foldStatement = database.compileStatement(SQL_FOLD_MOVEMENTS);
+                foldStatement.bindLong(1, lastMovementId);
+                foldStatement.execute();
+                foldStatement.close();
+
+                SQLiteStatement deleteStatement = database.compileStatement(SQL_DELETE_MOVEMENTS);
+                deleteStatement.bindLong(1, lastMovementId);
+                compacted = deleteStatement.executeUpdateDelete();
+                deleteStatement.close();
+
+                SQLiteStatement closedStatement = database.compileStatement(SQL_DELETE_CLOSED_SNAPSHOTS);
+                closedStatement.bindLong(1, lastMovementId);
+                closedStatement.executeUpdateDelete();
+                closedStatement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        Log.i(LOG_TAG, "Stock ledger: " + compacted + " movements compacted");
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_MOVEMENTS_COMPACTED, compacted);
+        return result;
+    }
+
+    /**
+     * Helper method to rebuild the current quantity of every product from the stock ledger and
+     * compare it with the current quantity stored in the "products" table. Both are read by the
+     * same statement, so the comparison is never affected by concurrent writes.
+     *
+     * @return a Bundle with the number of products checked and the _id, the stored quantity and
+     * the rebuilt quantity of every product whose quantities differ.
+     */
+    private Bundle verifyStock() {
+        int checked = 0;
+        ArrayList<long[]> drifts = new ArrayList<>();
+        Cursor cursor = inventoryDbHelper.getReadableDatabase().rawQuery(SQL_SELECT_LEDGER_QUANTITIES, null);
+        try {
+            while (cursor.moveToNext()) {
+                checked++;
+                if (cursor.getLong(1) != cursor.getLong(2))
+                    drifts.add(new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long[] productIds = new long[drifts.size()];
+        long[] quantities = new long[drifts.size()];
+        long[] ledgerQuantities = new long[drifts.size()];
+        for (int i = 0; i < productIds.length; i++) {
+            long[] drift = drifts.get(i);
+            productIds[i] = drift[0];
+            quantities[i] = drift[1];
+            ledgerQuantities[i] = drift[2];
+            Log.w(LOG_TAG, "Stock drift for product " + drift[0] + ": quantity " + drift[1] + ", ledger " + drift[2]);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_PRODUCTS_CHECKED, checked);
+        result.putLongArray(InventoryContract.EXTRA_DRIFT_PRODUCT_IDS, productIds);
+        result.putLongArray(InventoryContract.EXTRA_DRIFT_QUANTITIES, quantities);
+        result.putLongArray(InventoryContract.EXTRA_DRIFT_LEDGER_QUANTITIES, ledgerQuantities);
+        return result;
+    }
+
+    /**
+     * Helper method to insert a chunk of rows of a bulk import and record the new checkpoint of the
+     * import, both within the same transaction. If the process dies at any point, either the chunk
+     * and its checkpoint are committed or none of them is, so resuming the import from the
+     * checkpoint never skips or repeats a row. A chunk that has already been committed is ignored.
+     *
+     * @param source is the identifier of the imported file.
+     * @param extras contains the row number of the first row of the chunk, the row number right
+     *               after the chunk, the values of the valid rows, the number of rows already
+     *               rejected by the caller and whether this is the last chunk of the file.
+     * @return a Bundle with the checkpoint after the chunk, or null if the chunk doesn't start at
+     * the current checkpoint.
+     */
+    private Bundle importChunk(String source, Bundle extras) {
+        long firstRow = extras.getLong(InventoryContract.EXTRA_IMPORT_FIRST_ROW);
+        long nextRow = extras.getLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW);
+        Parcelable[] rows = extras.getParcelableArray(InventoryContract.EXTRA_IMPORT_VALUES);
+        int inserted = 0;
+        int rejected = extras.getInt(InventoryContract.EXTRA_IMPORT_REJECTED);
+        boolean last = extras.getBoolean(InventoryContract.EXTRA_IMPORT_LAST);
+
+        Bundle checkpoint;
+        ProductStatementCache statements = getStatementCache();
+        SQLiteDatabase database = statements.getDatabase();
+        database.beginTransaction();
+        try {
+            checkpoint = readImportCheckpoint(database, source);
+            long checkpointRow = checkpoint.getLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW);
+            if (checkpointRow >= nextRow && nextRow > firstRow) {
+                // The chunk was committed before, but its caller didn't get the result.
+                Log.w(LOG_TAG, "Import of " + source + ": rows " + firstRow + " to " + nextRow + " already imported");
+                return checkpoint;
+            }
+            if (checkpointRow != firstRow) {
+                Log.e(LOG_TAG, "Import of " + source + ": chunk starts at row " + firstRow + ", expected " + checkpointRow);
                 return null;
+            }
+
+            // Insert every valid row, as bulkInsert() does.
+            for (int row = 0; rows != null && row < rows.length; row++) {
+                ContentValues values = (ContentValues) rows[row];
+                if (validateInsertValues(values) != 0) {
+                    rejected++;
+                    continue;
+                }
+                try {
+                    statements.insert(values);
+                    inserted++;
+                } catch (SQLException e) {
+                    Log.w(LOG_TAG, "Import of " + source + ": row rejected: " + e);
+                    rejected++;
+                }
+            }
+
+            // Move the checkpoint past the chunk.
+            ContentValues values = new ContentValues();
+            values.put(ImportCheckpointEntry.COLUMN_NAME_SOURCE, source);
+            values.put(ImportCheckpointEntry.COLUMN_NAME_NEXT_ROW, nextRow);
+            values.put(ImportCheckpointEntry.COLUMN_NAME_INSERTED, checkpoint.getLong(InventoryContract.EXTRA_IMPORT_INSERTED) + inserted);
+            values.put(ImportCheckpointEntry.COLUMN_NAME_REJECTED, checkpoint.getLong(InventoryContract.EXTRA_IMPORT_REJECTED) + rejected);
+            values.put(ImportCheckpointEntry.COLUMN_NAME_COMPLETED, last ? 1 : 0);
+            values.put(ImportCheckpointEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
+            database.insertWithOnConflict(ImportCheckpointEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            checkpoint = readImportCheckpoint(database, source);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify the lists of products and the summary once per chunk.
+        if (inserted != 0) {
+            notifyChange(ProductEntry.LIST_NOTIFICATION_URI);
+            notifyChange(ProductEntry.STATS_URI);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Helper method to replace all the products with the ones of a snapshot. The snapshot is
+     * loaded row by row into a staging table, which replaces the "products" table once the whole
+     * snapshot has been read and its checksum verified, all of it within a single transaction. Other
+     * connections keep reading the old products until it commits, and a corrupted or truncated
+     * snapshot leaves the database untouched.
+     *
+     * @param file is the snapshot file, open for reading. It is closed by this method.
+     * @return a Bundle with the number of products restored, or null if the snapshot can't be read.
+     */
+    private Bundle restoreSnapshot(ParcelFileDescriptor file) {
+        long start = SystemClock.elapsedRealtime();
+        long products;
+        InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(file);
+        SQLiteDatabase database = inventoryDbHelper.getWritableDatabase();
+        try {
+            ProductSnapshotReader reader = new ProductSnapshotReader(input);
+            reader.readHeader();
+            database.beginTransaction();
+            try {
+                InventoryDbHelper.createStagingProducts(database);
+                SQLiteStatement insert = database.compileStatement(reader.getInsertSql(InventoryDbHelper.TABLE_PRODUCTS_STAGING));
+                try {
+                    while (reader.readRow(insert)) insert.executeInsert();
+                } finally {
+                    insert.close();
+                }
+                products = reader.readTrailer();
+                InventoryDbHelper.replaceProducts(database, reader.getLastId());
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (IOException | SQLException e) {
+            Log.e(LOG_TAG, "Error restoring snapshot: " + e);
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing snapshot: " + e);
+            }
+        }
+
+        // Every product may have changed.
+        productCache.invalidateAll();
+        notifyChange(ProductEntry.CONTENT_URI);
+        Log.i(LOG_TAG, "Snapshot: " + products + " products restored in " + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(InventoryContract.EXTRA_SNAPSHOT_PRODUCTS, products);
+        return result;
+    }
+
+    /**
+     * Helper method to read the checkpoint of a bulk import.
+     *
+     * @param database is the database.
+     * @param source   is the identifier of the imported file.
+     * @return a Bundle with the number of rows already processed, the number of products inserted
+     * and rows rejected so far and whether the import has been completed. All of them are zero if
+     * the import hasn't started.
+     */
+    private static Bundle readImportCheckpoint(SQLiteDatabase database, String source) {
+        Bundle checkpoint = new Bundle();
+        Cursor cursor = database.rawQuery(SQL_SELECT_IMPORT_CHECKPOINT, new String[]{source});
+        try {
+            boolean found = cursor.moveToFirst();
+            checkpoint.putLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW, found ? cursor.getLong(0) : 0);
+            checkpoint.putLong(InventoryContract.EXTRA_IMPORT_INSERTED, found ? cursor.getLong(1) : 0);
+            checkpoint.putLong(InventoryContract.EXTRA_IMPORT_REJECTED, found ? cursor.getLong(2) : 0);
+            checkpoint.putBoolean(InventoryContract.EXTRA_IMPORT_COMPLETED, found && cursor.getInt(3) != 0);
+        } finally {
+            cursor.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Helper method to read the counters of the cache of single product rows.
+     *
+     * @return a Bundle with the number of hits, misses, evictions and invalidations of the cache.
+     */
+    private Bundle getProductCacheStats() {
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_CACHE_HITS, productCache.getHitCount());
+        result.putInt(InventoryContract.EXTRA_CACHE_MISSES, productCache.getMissCount());
+        result.putInt(InventoryContract.EXTRA_CACHE_EVICTIONS, productCache.getEvictionCount());
+        result.putLong(InventoryContract.EXTRA_CACHE_INVALIDATIONS, productCache.getInvalidationCount());
+        return result;
+    }
+
+    /**
+     * Helper method to remove from the cache the products changed by a batch, given one of the
+     * URIs notified by the batch.
+     *
+     * @param uri is the notified URI.
+     */
+    private void invalidateCachedProducts(Uri uri) {
+        long productId = ProductEntry.parseProductId(uri);
+        if (productId != -1) productCache.invalidate(productId);
+        else if (uri.equals(ProductEntry.CONTENT_URI)) productCache.invalidateAll();
+    }
+
+    /**
+     * Helper method to determine whether an update changes any of a set of columns, like the ones
+     * used for sorting or searching lists of products.
+     *
+     * @param contentValues is the set of column_name/value pairs of the update.
+     * @param columns       is the set of columns.
+     * @return true if the update changes any of the columns, false otherwise.
+     */
+    private static boolean changesAny(ContentValues contentValues, String[] columns) {
+        for (String column : columns) {
+            if (contentValues.containsKey(column)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to notify all listeners that the data at the given URI has changed. If the
+     * current thread is applying a batch, the notification is delayed until the batch ends.
+     *
+     * @param uri is the URI of the changed data.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> changes = batchChanges.get();
+        if (changes != null) {
+            changes.add(uri);
+            return;
+        }
+
+        try {
+            getContext().getContentResolver().notifyChange(uri, null);
+        } catch (java.lang.NullPointerException e) {
+            // getContentResolver() has thrown an exception.
+            Log.e(LOG_TAG, "Error in getContentResolver(): " + e);
         }
     }
 }
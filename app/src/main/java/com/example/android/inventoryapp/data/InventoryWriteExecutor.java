@@ -0,0 +1,204 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor for every write to the inventory. Writes are queued and run one after another on a
+ * single background thread, so the UI thread never touches the disk and writers never contend for
+ * the database lock. Results are posted back to the UI thread.
+ */
+public final class InventoryWriteExecutor {
+
+    private static final String LOG_TAG = InventoryWriteExecutor.class.getSimpleName();
+
+    private static InventoryWriteExecutor instance;     // Executor shared by the whole app.
+
+    private final ContentResolver contentResolver;      // Resolver for running the writes.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());   // Handler for the results.
+
+    // Single writer thread.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "InventoryWriter");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    /**
+     * Interface definition for a write to run on the writer thread.
+     *
+     * @param <T> is the type of the result of the write.
+     */
+    public interface Write<T> {
+        /**
+         * Run the write. Called on the writer thread.
+         *
+         * @param contentResolver is the resolver for writing to the inventory.
+         * @return the result of the write.
+         */
+        T run(ContentResolver contentResolver);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked on the UI thread when a write completes.
+     *
+     * @param <T> is the type of the result of the write.
+     */
+    public interface Callback<T> {
+        /**
+         * Called on the UI thread when the write has completed.
+         *
+         * @param result is the result of the write.
+         */
+        void onWriteComplete(T result);
+    }
+
+    /**
+     * Constructor for this class.
+     *
+     * @param contentResolver is the resolver for running the writes.
+     */
+    @VisibleForTesting
+    InventoryWriteExecutor(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Get the executor shared by the whole app.
+     *
+     * @param context is any context of the app.
+     * @return the executor.
+     */
+    public static synchronized InventoryWriteExecutor getInstance(Context context) {
+        if (instance == null)
+            instance = new InventoryWriteExecutor(context.getApplicationContext().getContentResolver());
+        return instance;
+    }
+
+    /**
+     * Queue a write.
+     *
+     * @param write    is the write to run on the writer thread.
+     * @param callback is the callback to invoke on the UI thread with the result, or null. If the
+     *                 write throws an exception, the result is null.
+     * @param <T>      is the type of the result of the write.
+     */
+    public <T> void execute(Write<T> write, Callback<T> callback) {
+        execute(write, null, callback);
+    }
+
+    /**
+     * Queue the insertion of a new product.
+     *
+     * @param values   is the set of column_name/value pairs of the new product.
+     * @param callback is the callback with the URI of the new product, or null if it hasn't been
+     *                 inserted.
+     */
+    public void insert(final ContentValues values, Callback<Uri> callback) {
+        execute(new Write<Uri>() {
+            @Override
+            public Uri run(ContentResolver contentResolver) {
+                return contentResolver.insert(ProductEntry.CONTENT_URI, values);
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Queue the update of one or more products.
+     *
+     * @param uri           is the URI of the products to update.
+     * @param values        is the set of column_name/value pairs to update.
+     * @param selection     is an optional filter to match products to update.
+     * @param selectionArgs are the arguments for the optional selection filter.
+     * @param callback      is the callback with the number of products updated, or null.
+     */
+    public void update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs, Callback<Integer> callback) {
+        execute(new Write<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                return contentResolver.update(uri, values, selection, selectionArgs);
+            }
+        }, 0, callback);
+    }
+
+    /**
+     * Queue the deletion of one or more products.
+     *
+     * @param uri           is the URI of the products to delete.
+     * @param selection     is an optional filter to match products to delete.
+     * @param selectionArgs are the arguments for the optional selection filter.
+     * @param callback      is the callback with the number of products deleted, or null.
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs, Callback<Integer> callback) {
+        execute(new Write<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                return contentResolver.delete(uri, selection, selectionArgs);
+            }
+        }, 0, callback);
+    }
+
+    /**
+     * Queue an adjustment of the current quantity of a product.
+     *
+     * @param productId is the _ID of the product.
+     * @param delta     is the number of units to add (or to remove, if negative).
+     * @param callback  is the callback with the new quantity, or QUANTITY_NOT_ADJUSTED, or null.
+     */
+    public void adjustQuantity(final long productId, final int delta, Callback<Integer> callback) {
+        execute(new Write<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                return ProductEntry.adjustQuantity(contentResolver, productId, delta);
+            }
+        }, ProductEntry.QUANTITY_NOT_ADJUSTED, callback);
+    }
+
+    /**
+     * Helper method to queue a write.
+     *
+     * @param write         is the write to run on the writer thread.
+     * @param failureResult is the result to deliver if the write throws an exception.
+     * @param callback      is the callback to invoke on the UI thread with the result, or null.
+     * @param <T>           is the type of the result of the write.
+     */
+    private <T> void execute(final Write<T> write, final T failureResult, final Callback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                try {
+                    result = write.run(contentResolver);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error writing to the inventory: " + e);
+                    result = failureResult;
+                }
+
+                // Deliver the result on the UI thread.
+                if (callback == null) return;
+                final T deliveredResult = result;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onWriteComplete(deliveredResult);
+                    }
+                });
+            }
+        });
+    }
+}
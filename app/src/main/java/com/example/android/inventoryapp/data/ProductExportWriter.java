@@ -0,0 +1,256 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writer of the products export, used by InventoryProvider through a reliable pipe. Products are
+ * read in chunks of EXPORT_CHUNK_SIZE rows, in _id order, with one short query per chunk that
+ * starts right after the last _id written, and every chunk is written to the pipe before the next
+ * one is read. Memory use is the same for any number of products, and the client can start reading
+ * the file as soon as the first chunk is written.
+ * <p>
+ * Chunks are not read within a single transaction, so writes never wait for an export. A product
+ * changed while the file is being written shows up as it was when its chunk was read.
+ */
+final class ProductExportWriter implements ContentProvider.PipeDataWriter<Void> {
+
+    private static final String LOG_TAG = ProductExportWriter.class.getSimpleName();  // String for logcat.
+
+    private static final int EXPORT_CHUNK_SIZE = 500;       // Number of products read by every query.
+    private static final int EXPORT_BUFFER_SIZE = 8192;     // Size of the output buffer, in chars.
+
+    // Exported columns, in the order of the CSV fields.
+    private static final String[] EXPORT_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY};
+
+    private final InventoryDbHelper inventoryDbHelper;  // Database helper object.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param inventoryDbHelper is the database helper object of the content provider.
+     */
+    ProductExportWriter(InventoryDbHelper inventoryDbHelper) {
+        this.inventoryDbHelper = inventoryDbHelper;
+    }
+
+    /**
+     * Write all the products to the pipe, on the background thread started by InventoryProvider.
+     * If the export fails, the pipe is closed with an error, so the client can tell a failed export
+     * from a complete one.
+     *
+     * @param output   is the write end of the pipe. InventoryProvider closes it when this method
+     *                 returns, if it hasn't been closed with an error.
+     * @param uri      is the export URI.
+     * @param mimeType is the MIME type of the file, CONTENT_CSV_TYPE or CONTENT_JSON_TYPE.
+     * @param opts     are the options of the request. They are not used.
+     * @param args     are not used.
+     */
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                Bundle opts, Void args) {
+        boolean json = ProductEntry.CONTENT_JSON_TYPE.equals(mimeType);
+        int products = 0;
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output.getFileDescriptor()), "UTF-8"),
+                    EXPORT_BUFFER_SIZE);
+            if (json) {
+                writer.write('[');
+            } else {
+                // Header line, with the names of the columns.
+                for (int column = 0; column < EXPORT_COLUMNS.length; column++) {
+                    if (column > 0) writer.write(',');
+                    writer.write(EXPORT_COLUMNS[column]);
+                }
+                writer.write("\r\n");
+            }
+
+            SQLiteDatabase database = inventoryDbHelper.getReadableDatabase();
+            String[] selectionArgs = {"0"};
+            int rows;
+            do {
+                // Read the next chunk, right after the last product written.
+                Cursor cursor = database.query(ProductEntry.TABLE_NAME, EXPORT_COLUMNS, ProductEntry._ID + " > ?",
+                        selectionArgs, null, null, ProductEntry._ID, String.valueOf(EXPORT_CHUNK_SIZE));
+                try {
+                    rows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        if (json) writeJsonRow(writer, cursor, products == 0);
+                        else writeCsvRow(writer, cursor);
+                        products++;
+                    }
+                    if (cursor.moveToLast()) selectionArgs[0] = String.valueOf(cursor.getLong(0));
+                } finally {
+                    cursor.close();
+                }
+
+                // Let the client read the chunk.
+                writer.flush();
+            } while (rows == EXPORT_CHUNK_SIZE);
+
+            if (json) writer.write("\n]\n");
+            writer.flush();
+            Log.i(LOG_TAG, "Export: " + products + " products written as " + mimeType);
+        } catch (IOException e) {
+            // The client has closed its end of the pipe before reading the whole file.
+            Log.e(LOG_TAG, "Export interrupted after " + products + " products: " + e);
+            closeWithError(output, e);
+        } catch (RuntimeException e) {
+            // The products can't be read, as with an SQLiteException.
+            Log.e(LOG_TAG, "Export failed after " + products + " products: " + e);
+            closeWithError(output, e);
+        }
+    }
+
+    /**
+     * Helper method to close the write end of the pipe with an error, so the client gets it from
+     * ParcelFileDescriptor.checkError().
+     *
+     * @param output is the write end of the pipe.
+     * @param error  is the error.
+     */
+    static void closeWithError(ParcelFileDescriptor output, Exception error) {
+        try {
+            output.closeWithError(error.toString());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error closing pipe: " + e);
+        }
+    }
+
+    /**
+     * Helper method to write a product as a CSV line, following RFC 4180.
+     *
+     * @param writer is the output writer.
+     * @param cursor is the cursor, positioned on the product.
+     * @throws IOException if the product can't be written.
+     */
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int column = 0; column < EXPORT_COLUMNS.length; column++) {
+            if (column > 0) writer.write(',');
+            if (cursor.isNull(column)) continue;
+
+            String value = cursor.getString(column);
+            if (cursor.getType(column) == Cursor.FIELD_TYPE_STRING && needsQuotes(value)) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Helper method to determine whether a CSV field must be enclosed in double quotes.
+     *
+     * @param value is the value of the field.
+     * @return true if the value contains commas, double quotes or line breaks, or starts or ends
+     * with spaces, false otherwise.
+     */
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty()) return false;
+        if (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ') return true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to write a product as a JSON object, on its own line.
+     *
+     * @param writer is the output writer.
+     * @param cursor is the cursor, positioned on the product.
+     * @param first  is true if this is the first product of the array, false otherwise.
+     * @throws IOException if the product can't be written.
+     */
+    private static void writeJsonRow(Writer writer, Cursor cursor, boolean first) throws IOException {
+        writer.write(first ? "\n{" : ",\n{");
+        for (int column = 0; column < EXPORT_COLUMNS.length; column++) {
+            if (column > 0) writer.write(", ");
+            writeJsonString(writer, EXPORT_COLUMNS[column]);
+            writer.write(": ");
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.write("null");
+                    break;
+
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.write(String.valueOf(cursor.getLong(column)));
+                    break;
+
+                default:
+                    writeJsonString(writer, cursor.getString(column));
+                    break;
+            }
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Helper method to write a JSON string, escaping the characters that JSON doesn't allow in it.
+     *
+     * @param writer is the output writer.
+     * @param value  is the string.
+     * @throws IOException if the string can't be written.
+     */
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+
+                case '\n':
+                    writer.write("\\n");
+                    break;
+
+                case '\r':
+                    writer.write("\\r");
+                    break;
+
+                case '\t':
+                    writer.write("\\t");
+                    break;
+
+                default:
+                    if (c < 0x20) writer.write(String.format("\\u%04x", (int) c));
+                    else writer.write(c);
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+}
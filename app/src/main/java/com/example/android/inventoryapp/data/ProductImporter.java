@@ -0,0 +1,602 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk import of products from a CSV or JSON file, in the formats written by the export URI. The
+ * file is read as a stream, one row at a time, and rows are validated and sent to InventoryProvider
+ * in chunks of IMPORT_CHUNK_SIZE rows. Every chunk is committed in its own transaction together
+ * with a checkpoint of the import, so running the import of the same file again after it has been
+ * interrupted goes on right after the last committed chunk. A file is identified by its URI, size
+ * and time of last change, and deleting all the products clears the checkpoints, so a file
+ * imported again after a change or after clearing the inventory is imported from the beginning.
+ * <p>
+ * Imported products always get a new _id: the _id of the file, if any, is ignored. Imports are
+ * long-running writes and must not run on the UI thread. An Import runs one chunk per call, so the
+ * app can queue every chunk as a separate write and report the progress in between.
+ */
+public final class ProductImporter {
+
+    private static final String LOG_TAG = ProductImporter.class.getSimpleName();  // String for logcat.
+
+    // Number of rows committed by every transaction. A chunk is sent to the content provider in a
+    // single Bundle, so it must stay well below the size limit of binder transactions.
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
+    // Positions of the size and the time of the last change in the metadata of a file.
+    private static final int METADATA_SIZE = 0;
+    private static final int METADATA_LAST_MODIFIED = 1;
+
+    // Maximum number of rows committed by previous runs that are skipped by a single call to
+    // Import.importNextChunk(), so resuming a large import doesn't hold the writer thread either.
+    private static final int SKIPPED_ROWS_PER_CALL = IMPORT_CHUNK_SIZE * 20;
+
+    // Maximum number of rejected rows listed in the result of an import.
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    // Columns read from the file. Columns of the file that are not here are ignored.
+    private static final String[] TEXT_COLUMNS = {
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL};
+    private static final String[] INTEGER_COLUMNS = {
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY};
+
+    private final ContentResolver contentResolver;  // Resolver for reading the file and writing the products.
+
+    /**
+     * Result of an import.
+     */
+    public static final class Result {
+        private final long rows;                // Number of rows of the file.
+        private final long inserted;            // Number of products inserted.
+        private final long rejected;            // Number of rows rejected.
+        private final long resumedFromRow;      // Number of rows imported by previous runs.
+        private final long elapsedMillis;       // Time of this run, in milliseconds.
+        private final List<long[]> rejections;  // Row number, error code and violations of the first rejected rows of this run.
+
+        private Result(long rows, long inserted, long rejected, long resumedFromRow, long elapsedMillis, List<long[]> rejections) {
+            this.rows = rows;
+            this.inserted = inserted;
+            this.rejected = rejected;
+            this.resumedFromRow = resumedFromRow;
+            this.elapsedMillis = elapsedMillis;
+            this.rejections = rejections;
+        }
+
+        /**
+         * @return the number of rows of the file.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the number of products inserted, including previous runs of the same import.
+         */
+        public long getInserted() {
+            return inserted;
+        }
+
+        /**
+         * @return the number of rows rejected, including previous runs of the same import.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the number of rows already imported by previous runs when this run started.
+         */
+        public long getResumedFromRow() {
+            return resumedFromRow;
+        }
+
+        /**
+         * @return the time of this run, in milliseconds.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the number of rows imported per second by this run.
+         */
+        public long getRowsPerSecond() {
+            return (rows - resumedFromRow) * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        /**
+         * @return the row number (0 for the first row after the header), the SQL_ERROR_* code and
+         * all the ProductValidator.VIOLATION_* bits of the first rows rejected by this run, in
+         * order. Rows rejected by the content provider
+         * itself, like constraint failures, are only counted by getRejected().
+         */
+        public List<long[]> getRejections() {
+            return rejections;
+        }
+    }
+
+    /**
+     * Constructor for this class.
+     *
+     * @param contentResolver is the resolver for reading the file and writing the products.
+     */
+    public ProductImporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Import all the products of a file, or the products after the last committed chunk if the
+     * import of the same file has been interrupted before, as a single long-running write.
+     *
+     * @param source   is the URI of the file.
+     * @param mimeType is the MIME type of the file. JSON files are read as JSON, and any other
+     *                 file as CSV.
+     * @return the result of the import.
+     * @throws IOException if the file can't be read, or if it is not a valid CSV or JSON file. The
+     *                     chunks already committed are kept, so the import can go on later.
+     */
+    public Result importProducts(Uri source, String mimeType) throws IOException {
+        Import fileImport = newImport(source, mimeType);
+        try {
+            boolean finished = false;
+            while (!finished) finished = fileImport.importNextChunk();
+            return fileImport.getResult();
+        } finally {
+            fileImport.close();
+        }
+    }
+
+    /**
+     * Prepare the import of all the products of a file, or of the products after the last
+     * committed chunk if the import of the same file has been interrupted before. Nothing is read
+     * until the first chunk is imported, so this can be called on any thread.
+     *
+     * @param source   is the URI of the file.
+     * @param mimeType is the MIME type of the file, or null to get it from the content resolver.
+     *                 JSON files are read as JSON, and any other file as CSV.
+     * @return the import, which must be run by calling importNextChunk() until it returns true,
+     * and closed.
+     */
+    public Import newImport(Uri source, String mimeType) {
+        return new Import(source, mimeType);
+    }
+
+    /**
+     * Import of a file that is run one chunk at a time. Every chunk is a short write of its own,
+     * so the other writes of the app don't have to wait for the whole file. An import must not be
+     * used by more than one thread at a time.
+     */
+    public final class Import implements Closeable {
+        private final Uri source;               // URI of the file.
+        private String mimeType;                // MIME type of the file, or null if not known yet.
+        private final List<long[]> rejections = new ArrayList<>();  // First rejected rows of this run.
+        private long start;                     // Start time of this run, in milliseconds.
+        private String key;                     // Key of the file in the import checkpoints.
+        private long size = -1;                 // Size of the file, in bytes, or -1 if unknown.
+        private long resumedFromRow;            // Number of rows imported by previous runs.
+        private long skipToRow;                 // Number of rows to skip before importing.
+        private long row;                       // Number of the next row of the file.
+        private Bundle checkpoint;              // Last checkpoint of the import.
+        private CountingInputStream stream;     // Stream of the file, counting the bytes read.
+        private Reader input;                   // Reader of the file.
+        private RowReader reader;               // Reader of the rows of the file, once opened.
+        private Result result;                  // Result of the import, once finished.
+
+        private Import(Uri source, String mimeType) {
+            this.source = source;
+            this.mimeType = mimeType;
+        }
+
+        /**
+         * Import the next chunk of rows. The first call opens the file, and the rows committed by
+         * previous runs are skipped at most SKIPPED_ROWS_PER_CALL rows at a time, without
+         * committing anything.
+         *
+         * @return true if the import has finished, false if there are more chunks to import.
+         * @throws IOException if the file can't be read, or if it is not a valid CSV or JSON
+         *                     file. The chunks already committed are kept, so the import can go on
+         *                     later.
+         */
+        public boolean importNextChunk() throws IOException {
+            if (result != null) return true;
+            if (reader == null) return !open();
+
+            // Skip the rows committed by previous runs.
+            if (row < skipToRow) {
+                long lastSkippedRow = Math.min(skipToRow, row + SKIPPED_ROWS_PER_CALL);
+                while (row < lastSkippedRow) {
+                    if (reader.next() == null) {
+                        skipToRow = row;
+                        break;
+                    }
+                    row++;
+                }
+                return false;
+            }
+
+            // Read and validate the next chunk.
+            long firstRow = row;
+            int rejected = 0;
+            boolean last = false;
+            ArrayList<ContentValues> valid = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            while (row - firstRow < IMPORT_CHUNK_SIZE) {
+                Map<String, String> fields = reader.next();
+                if (fields == null) {
+                    last = true;
+                    break;
+                }
+
+                ContentValues values = toContentValues(fields);
+                int violations = ProductValidator.validateInsert(values);
+                if (violations == 0) {
+                    valid.add(values);
+                } else {
+                    rejected++;
+                    if (rejections.size() < MAX_REPORTED_REJECTIONS)
+                        rejections.add(new long[]{row, ProductValidator.getErrorCode(violations), violations});
+                }
+                row++;
+            }
+
+            // Commit the chunk and its checkpoint.
+            Bundle extras = new Bundle();
+            extras.putLong(InventoryContract.EXTRA_IMPORT_FIRST_ROW, firstRow);
+            extras.putLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW, row);
+            extras.putParcelableArray(InventoryContract.EXTRA_IMPORT_VALUES, valid.toArray(new ContentValues[valid.size()]));
+            extras.putInt(InventoryContract.EXTRA_IMPORT_REJECTED, rejected);
+            extras.putBoolean(InventoryContract.EXTRA_IMPORT_LAST, last);
+            checkpoint = contentResolver.call(ProductEntry.CONTENT_URI, InventoryContract.METHOD_IMPORT_CHUNK, key, extras);
+            if (checkpoint == null) throw new IOException("Can't import rows " + firstRow + " to " + row + " of " + source);
+            if (!last) return false;
+
+            result = new Result(checkpoint.getLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW),
+                    checkpoint.getLong(InventoryContract.EXTRA_IMPORT_INSERTED), checkpoint.getLong(InventoryContract.EXTRA_IMPORT_REJECTED),
+                    resumedFromRow, System.currentTimeMillis() - start, rejections);
+            Log.i(LOG_TAG, "Import of " + source + ": " + result.getRows() + " rows, " + result.getInserted() + " inserted, " +
+                    result.getRejected() + " rejected, " + result.getRowsPerSecond() + " rows/s");
+            return true;
+        }
+
+        /**
+         * @return the percentage of the file that has been read, from 0 to 100, or -1 if the size
+         * of the file is not known.
+         */
+        public int getProgress() {
+            if (result != null) return 100;
+            if (size <= 0) return -1;
+            return stream == null ? 0 : (int) Math.min(100, stream.getCount() * 100 / size);
+        }
+
+        /**
+         * @return the result of the import, or null if it hasn't finished.
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        /**
+         * Close the file. The chunks already committed are kept, so an import closed before it
+         * has finished can go on later.
+         *
+         * @throws IOException if the file can't be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (input != null) input.close();
+            else if (stream != null) stream.close();
+        }
+
+        /**
+         * Helper method to read the checkpoint of the import and open the file.
+         *
+         * @return true if the file has been opened, false if its import had already finished.
+         * @throws IOException if the checkpoint or the file can't be read.
+         */
+        private boolean open() throws IOException {
+            start = System.currentTimeMillis();
+            long[] metadata = getSourceMetadata(source);
+            size = metadata[METADATA_SIZE];
+            key = getSourceKey(source, metadata);
+            checkpoint = contentResolver.call(ProductEntry.CONTENT_URI, InventoryContract.METHOD_GET_IMPORT_CHECKPOINT, key, null);
+            if (checkpoint == null) throw new IOException("Can't read the checkpoint of " + source);
+            resumedFromRow = checkpoint.getLong(InventoryContract.EXTRA_IMPORT_NEXT_ROW);
+            skipToRow = resumedFromRow;
+            if (checkpoint.getBoolean(InventoryContract.EXTRA_IMPORT_COMPLETED)) {
+                Log.i(LOG_TAG, "Import of " + source + " already completed");
+                result = new Result(resumedFromRow, checkpoint.getLong(InventoryContract.EXTRA_IMPORT_INSERTED),
+                        checkpoint.getLong(InventoryContract.EXTRA_IMPORT_REJECTED), resumedFromRow, 0, rejections);
+                return false;
+            }
+
+            if (mimeType == null) mimeType = contentResolver.getType(source);
+            InputStream in = contentResolver.openInputStream(source);
+            if (in == null) throw new IOException("Can't open " + source);
+            stream = new CountingInputStream(in);
+            input = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+            reader = ProductEntry.CONTENT_JSON_TYPE.equals(mimeType) ? new JsonRowReader(input) : new CsvRowReader(input);
+            return true;
+        }
+    }
+
+    /**
+     * Helper method to build the key that identifies an imported file in the import checkpoints.
+     * It includes the size of the file and the time of its last change, if known, so a new version
+     * of a file at the same URI is imported from the beginning, even if it has the same size.
+     *
+     * @param source is the URI of the file.
+     * @return the key.
+     */
+    @VisibleForTesting
+    String getSourceKey(Uri source) {
+        return getSourceKey(source, getSourceMetadata(source));
+    }
+
+    /**
+     * Helper method to build the key that identifies an imported file in the import checkpoints.
+     *
+     * @param source   is the URI of the file.
+     * @param metadata is the metadata of the file, as returned by getSourceMetadata().
+     * @return the key.
+     */
+    private static String getSourceKey(Uri source, long[] metadata) {
+        return source + "#" + metadata[METADATA_SIZE] + "#" + metadata[METADATA_LAST_MODIFIED];
+    }
+
+    /**
+     * Helper method to get the size of a file and the time of its last change. Local files are
+     * read directly. Other URIs are queried without projection, as not every content provider
+     * knows the columns of documents, so each one returns the columns it has.
+     *
+     * @param source is the URI of the file.
+     * @return the size of the file, in bytes, at METADATA_SIZE, and the time of its last change,
+     * in milliseconds since the epoch, at METADATA_LAST_MODIFIED. Values that are not known are -1.
+     */
+    private long[] getSourceMetadata(Uri source) {
+        long[] metadata = {-1, -1};
+        if (ContentResolver.SCHEME_FILE.equals(source.getScheme())) {
+            File file = new File(source.getPath());
+            if (file.isFile()) {
+                metadata[METADATA_SIZE] = file.length();
+                metadata[METADATA_LAST_MODIFIED] = file.lastModified();
+            }
+            return metadata;
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = contentResolver.query(source, null, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int lastModifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex))
+                    metadata[METADATA_SIZE] = cursor.getLong(sizeIndex);
+                if (lastModifiedIndex != -1 && !cursor.isNull(lastModifiedIndex))
+                    metadata[METADATA_LAST_MODIFIED] = cursor.getLong(lastModifiedIndex);
+            }
+        } catch (RuntimeException e) {
+            // Not every file provider can be queried.
+            Log.w(LOG_TAG, "Can't read the metadata of " + source + ": " + e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return metadata;
+    }
+
+    /**
+     * Helper method to convert the fields of a row into the values of a new product. Empty fields
+     * are left out, so ProductValidator reports them if they are required, and integer fields that
+     * are not integers are kept as text, so ProductValidator reports them too.
+     *
+     * @param fields are the fields of the row, by column name.
+     * @return the values of the new product.
+     */
+    private static ContentValues toContentValues(Map<String, String> fields) {
+        ContentValues values = new ContentValues();
+        for (String column : TEXT_COLUMNS) {
+            String value = fields.get(column);
+            if (value != null && !value.isEmpty()) values.put(column, value);
+        }
+        for (String column : INTEGER_COLUMNS) {
+            String value = fields.get(column);
+            if (value == null || value.isEmpty()) continue;
+            try {
+                values.put(column, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                values.put(column, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Stream that counts the bytes read from another stream, for reporting the progress of an
+     * import.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;     // Number of bytes read or skipped.
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return the number of bytes read or skipped.
+         */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Interface definition for a reader of the rows of a file, one at a time.
+     */
+    private interface RowReader {
+        /**
+         * Read the next row.
+         *
+         * @return the fields of the row, by column name, or null if there are no more rows.
+         * @throws IOException if the file can't be read or is not valid.
+         */
+        Map<String, String> next() throws IOException;
+    }
+
+    /**
+     * Reader of CSV files following RFC 4180, with the names of the columns in the first line.
+     * Fields enclosed in double quotes may contain commas, line breaks and escaped double quotes.
+     */
+    private static final class CsvRowReader implements RowReader {
+        private final Reader input;         // File being read.
+        private final List<String> header;  // Names of the columns.
+        private int nextChar;               // Next character of the file, or -1 at the end.
+
+        CsvRowReader(Reader input) throws IOException {
+            this.input = input;
+            nextChar = input.read();
+            header = readRecord();
+            if (header == null) throw new IOException("Missing CSV header");
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            List<String> record = readRecord();
+            if (record == null) return null;
+
+            Map<String, String> fields = new HashMap<>();
+            for (int i = 0; i < record.size() && i < header.size(); i++) fields.put(header.get(i), record.get(i));
+            return fields;
+        }
+
+        /**
+         * Helper method to read the fields of the next record, skipping empty lines.
+         *
+         * @return the fields, or null at the end of the file.
+         * @throws IOException if the file can't be read or a quoted field is not closed.
+         */
+        private List<String> readRecord() throws IOException {
+            while (nextChar == '\r' || nextChar == '\n') nextChar = input.read();
+            if (nextChar == -1) return null;
+
+            List<String> record = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                int c = nextChar;
+                nextChar = input.read();
+                if (quoted) {
+                    if (c == -1) throw new IOException("Unclosed quoted CSV field");
+                    if (c == '"') {
+                        if (nextChar == '"') {
+                            field.append('"');
+                            nextChar = input.read();
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    record.add(field.toString());
+                    if (c == '\r' && nextChar == '\n') nextChar = input.read();
+                    return record;
+                } else {
+                    field.append((char) c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reader of JSON files with an array of objects, one per row. Values may be strings, numbers
+     * or null.
+     */
+    private static final class JsonRowReader implements RowReader {
+        private final JsonReader reader;    // File being read.
+        private boolean finished;           // Whether the end of the array has been read.
+
+        JsonRowReader(Reader input) throws IOException {
+            reader = new JsonReader(input);
+            reader.beginArray();
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (finished) return null;
+            if (!reader.hasNext()) {
+                reader.endArray();
+                finished = true;
+                return null;
+            }
+
+            Map<String, String> fields = new HashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    fields.put(name, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+/**
+ * Bounded LRU cache of single product rows, keyed by _id, used by InventoryProvider for queries on
+ * single product URIs. Cached rows are served as in-memory cursors, so opening the same product
+ * again doesn't touch the database.
+ * <p>
+ * Every write must invalidate the products it changes once it has been committed. Rows read from
+ * the database are only stored if no invalidation has happened since the read started, so a read
+ * that raced with a write never leaves a stale row in the cache.
+ */
+final class ProductRowCache {
+
+    // Columns of every cached row, in the order of the values stored for it.
+    static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY,
+            ProductEntry.COLUMN_NAME_VERSION};
+
+    private final LruCache<Long, Object[]> rows;    // Values of the cached rows, by _id.
+    private long generation;                        // Number of invalidations so far.
+    private long invalidations;                     // Number of cached rows invalidated.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param maxRows is the maximum number of cached rows.
+     */
+    ProductRowCache(int maxRows) {
+        rows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Determine whether the rows of a query can be served from the cache.
+     *
+     * @param projection is the list of columns of the query, or null for all of them.
+     * @return true if every column of the projection is a cached column, false otherwise.
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) return true;
+        for (String column : projection) {
+            if (indexOf(column) == -1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get a cached product.
+     *
+     * @param productId  is the _id of the product.
+     * @param projection is the list of columns to return, or null for all of them. It must be
+     *                   accepted by canProject().
+     * @return a cursor with the product, or null if it is not cached.
+     */
+    Cursor get(long productId, String[] projection) {
+        Object[] values = rows.get(productId);
+        return values == null ? null : project(values, projection);
+    }
+
+    /**
+     * Get the current generation of the cache, to be passed to put() with the row read next.
+     *
+     * @return the current generation.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Store a product read from the database, if no product has been invalidated since the given
+     * generation.
+     *
+     * @param productId  is the _id of the product.
+     * @param cursor     is the result of querying the product with the COLUMNS projection.
+     * @param generation is the generation of the cache before the query.
+     * @param projection is the list of columns to return, or null for all of them. It must be
+     *                   accepted by canProject().
+     * @return a cursor with the product, or an empty cursor if it doesn't exist.
+     */
+    Cursor put(long productId, Cursor cursor, long generation, String[] projection) {
+        if (!cursor.moveToFirst()) return new MatrixCursor(projection == null ? COLUMNS : projection, 0);
+
+        Object[] values = new Object[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    values[column] = null;
+                    break;
+
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[column] = cursor.getLong(column);
+                    break;
+
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[column] = cursor.getDouble(column);
+                    break;
+
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[column] = cursor.getBlob(column);
+                    break;
+
+                default:
+                    values[column] = cursor.getString(column);
+                    break;
+            }
+        }
+
+        synchronized (this) {
+            if (generation == this.generation) rows.put(productId, values);
+        }
+        return project(values, projection);
+    }
+
+    /**
+     * Remove a product from the cache. Must be called after every committed change to the product.
+     *
+     * @param productId is the _id of the product.
+     */
+    synchronized void invalidate(long productId) {
+        generation++;
+        if (rows.remove(productId) != null) invalidations++;
+    }
+
+    /**
+     * Remove every product from the cache. Must be called after every committed change to a set of
+     * products.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        for (Long productId : rows.snapshot().keySet()) {
+            if (rows.remove(productId) != null) invalidations++;
+        }
+    }
+
+    /**
+     * Get the number of queries served from the cache.
+     *
+     * @return the number of hits.
+     */
+    int getHitCount() {
+        return rows.hitCount();
+    }
+
+    /**
+     * Get the number of queries that had to read the database.
+     *
+     * @return the number of misses.
+     */
+    int getMissCount() {
+        return rows.missCount();
+    }
+
+    /**
+     * Get the number of rows removed from the cache to make room for other rows.
+     *
+     * @return the number of evictions.
+     */
+    int getEvictionCount() {
+        return rows.evictionCount();
+    }
+
+    /**
+     * Get the number of rows removed from the cache because the product has changed.
+     *
+     * @return the number of invalidations.
+     */
+    synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * Helper method to build a single row cursor with some of the values of a cached row.
+     *
+     * @param values     are the values of the row, in the order of COLUMNS.
+     * @param projection is the list of columns to return, or null for all of them.
+     * @return the cursor.
+     */
+    private static Cursor project(Object[] values, String[] projection) {
+        if (projection == null) projection = COLUMNS;
+        Object[] row = new Object[projection.length];
+        for (int column = 0; column < projection.length; column++)
+            row[column] = values[indexOf(projection[column])];
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Helper method to get the position of a column in COLUMNS.
+     *
+     * @param column is the name of the column.
+     * @return the position of the column, or -1 if it is not cached.
+     */
+    private static int indexOf(String column) {
+        for (int index = 0; index < COLUMNS.length; index++) {
+            if (COLUMNS[index].equals(column)) return index;
+        }
+        return -1;
+    }
+}
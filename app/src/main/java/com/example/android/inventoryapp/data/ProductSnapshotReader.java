@@ -0,0 +1,227 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reader of the binary snapshots written by ProductSnapshotWriter. Rows are decoded one at a time
+ * straight into the bindings of a compiled INSERT statement, so restoring a snapshot of any size
+ * only keeps a single buffer in memory.
+ */
+final class ProductSnapshotReader {
+
+    private static final int SNAPSHOT_BUFFER_SIZE = 65536;  // Size of the input buffer, in bytes.
+
+    // Maximum length of a string, in bytes, so a corrupted length never allocates a huge array.
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    private final InputStream input;                                // Input stream.
+    private final byte[] buffer = new byte[SNAPSHOT_BUFFER_SIZE];   // Bytes read from the input stream.
+    private final CRC32 checksum = new CRC32();                     // Checksum of the bytes consumed.
+    private int position;       // Position of the next byte to consume in the buffer.
+    private int limit;          // Number of bytes in the buffer.
+    private int checked;        // Number of bytes of the buffer already added to the checksum.
+    private long lastId;        // Last _id used when the snapshot was written.
+    private String[] columns;   // Columns of the snapshot, in order.
+    private long rows;          // Number of rows read so far.
+
+    /**
+     * Constructor for this class. The header of the snapshot is read by readHeader().
+     *
+     * @param input is the input stream. It is not closed by the reader.
+     */
+    ProductSnapshotReader(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Read and check the header of the snapshot.
+     *
+     * @throws IOException if the stream is not a snapshot, its format version is not supported or
+     *                     it has unknown columns.
+     */
+    void readHeader() throws IOException {
+        int magic = 0;
+        for (int i = 0; i < 4; i++) magic = (magic << 8) | readByte();
+        if (magic != ProductSnapshotWriter.MAGIC) throw new IOException("Not a snapshot");
+        int version = readByte();
+        if (version != ProductSnapshotWriter.FORMAT_VERSION)
+            throw new IOException("Unsupported snapshot format version " + version);
+
+        // Database version of the snapshot. Columns are restored by name, so it is not needed.
+        readVarint();
+        lastId = readVarint();
+
+        // Column names end up in the INSERT statement, so they must be known columns.
+        long count = readVarint();
+        if (count < 0 || count > ProductSnapshotWriter.SNAPSHOT_COLUMNS.length) throw new IOException("Too many columns in snapshot");
+        columns = new String[(int) count];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = readString();
+            if (!Arrays.asList(ProductSnapshotWriter.SNAPSHOT_COLUMNS).contains(columns[column]))
+                throw new IOException("Unknown column in snapshot: " + columns[column]);
+        }
+    }
+
+    /**
+     * @return the last _id used when the snapshot was written.
+     */
+    long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Build the statement for inserting the rows of the snapshot into a table.
+     *
+     * @param table is the name of the table.
+     * @return the INSERT statement, with a parameter for every column of the snapshot.
+     */
+    String getInsertSql(String table) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
+        for (int column = 0; column < columns.length; column++) sql.append(column == 0 ? "" : ", ").append(columns[column]);
+        sql.append(") VALUES (");
+        for (int column = 0; column < columns.length; column++) sql.append(column == 0 ? "?" : ", ?");
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Read the next row of the snapshot and bind its values to an INSERT statement.
+     *
+     * @param insert is the statement built from getInsertSql().
+     * @return true if a row has been read, or false if the last row has already been read.
+     * @throws IOException if the snapshot is corrupted or truncated.
+     */
+    boolean readRow(SQLiteStatement insert) throws IOException {
+        int marker = readByte();
+        if (marker == ProductSnapshotWriter.END_MARKER) return false;
+        if (marker != ProductSnapshotWriter.ROW_MARKER) throw new IOException("Corrupted snapshot at row " + rows);
+
+        for (int column = 1; column <= columns.length; column++) {
+            switch (readByte()) {
+                case ProductSnapshotWriter.TYPE_NULL:
+                    insert.bindNull(column);
+                    break;
+
+                case ProductSnapshotWriter.TYPE_INTEGER:
+                    long value = readVarint();
+                    insert.bindLong(column, (value >>> 1) ^ -(value & 1));
+                    break;
+
+                case ProductSnapshotWriter.TYPE_REAL:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) bits = (bits << 8) | readByte();
+                    insert.bindDouble(column, Double.longBitsToDouble(bits));
+                    break;
+
+                case ProductSnapshotWriter.TYPE_TEXT:
+                    insert.bindString(column, readString());
+                    break;
+
+                default:
+                    throw new IOException("Corrupted snapshot at row " + rows);
+            }
+        }
+        rows++;
+        return true;
+    }
+
+    /**
+     * Read the trailer of the snapshot, once readRow() has returned false, and check the number of
+     * rows and the checksum.
+     *
+     * @return the number of rows of the snapshot.
+     * @throws IOException if the number of rows or the checksum don't match.
+     */
+    long readTrailer() throws IOException {
+        if (readVarint() != rows) throw new IOException("Wrong number of rows in snapshot");
+        checksum.update(buffer, checked, position - checked);
+        checked = position;
+        long expected = checksum.getValue();
+
+        long actual = 0;
+        for (int i = 0; i < 4; i++) actual = (actual << 8) | readByte();
+        if (actual != expected) throw new IOException("Wrong checksum in snapshot");
+        return rows;
+    }
+
+    /**
+     * Helper method to consume a single byte.
+     *
+     * @return the byte, from 0 to 255.
+     * @throws IOException if the stream can't be read or has ended.
+     */
+    private int readByte() throws IOException {
+        if (position == limit) fill();
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Helper method to consume an unsigned LEB128 varint.
+     *
+     * @return the value.
+     * @throws IOException if the stream can't be read, has ended or the varint is too long.
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupted snapshot at row " + rows);
+    }
+
+    /**
+     * Helper method to consume a string, written as its length in bytes followed by its UTF-8
+     * bytes.
+     *
+     * @return the string.
+     * @throws IOException if the stream can't be read or has ended.
+     */
+    private String readString() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > MAX_STRING_LENGTH) throw new IOException("Corrupted snapshot at row " + rows);
+        if (length <= limit - position) {
+            // Usual case: the whole string is in the buffer.
+            String value = new String(buffer, position, (int) length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == limit) fill();
+            int count = Math.min(bytes.length - offset, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            offset += count;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method to read the next bytes of the stream into the buffer, once all its bytes have
+     * been consumed, adding them to the checksum.
+     *
+     * @throws IOException if the stream can't be read or has ended.
+     */
+    private void fill() throws IOException {
+        checksum.update(buffer, checked, limit - checked);
+        position = 0;
+        checked = 0;
+        limit = 0;
+        int count;
+        while ((count = input.read(buffer)) == 0) {
+            // Keep reading until there is a byte or the stream ends.
+        }
+        if (count < 0) throw new EOFException("Truncated snapshot at row " + rows);
+        limit = count;
+    }
+}
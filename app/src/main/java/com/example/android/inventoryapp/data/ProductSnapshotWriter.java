@@ -0,0 +1,289 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Writer of the binary snapshots of the "products" table, used by InventoryProvider through a
+ * reliable pipe and read back by ProductSnapshotReader. A snapshot only has the products, with
+ * no free pages, indexes, search table or ledger, and it is written sequentially, so it can be
+ * streamed to any file.
+ * <p>
+ * Format version 1, all integers as unsigned LEB128 varints unless stated otherwise:
+ * <pre>
+ * header:  magic (4 bytes, "INVS"), format version (1 byte), database version, last _id used,
+ *          number of columns, and the name of every column as a string.
+ * row:     ROW_MARKER (1 byte), then a value for every column of the header, in order.
+ * value:   a type byte, TYPE_NULL, TYPE_INTEGER (followed by the zigzag-encoded value),
+ *          TYPE_REAL (8 bytes, big endian) or TYPE_TEXT (followed by a string).
+ * string:  length in bytes, then the UTF-8 bytes.
+ * trailer: END_MARKER (1 byte), number of rows, and the CRC-32 of everything before it (4 bytes,
+ *          big endian).
+ * </pre>
+ * Products are read in chunks of SNAPSHOT_CHUNK_SIZE rows, in _id order, like the export. The app
+ * writes snapshots on its writer thread, so none of its own writes happen while one is written.
+ */
+final class ProductSnapshotWriter implements ContentProvider.PipeDataWriter<Void> {
+
+    private static final String LOG_TAG = ProductSnapshotWriter.class.getSimpleName();  // String for logcat.
+
+    // Constants of the format, shared with ProductSnapshotReader.
+    static final int MAGIC = 0x494E5653;    // "INVS".
+    static final int FORMAT_VERSION = 1;    // Current version of the format.
+    static final int END_MARKER = 0;        // Marker of the trailer.
+    static final int ROW_MARKER = 1;        // Marker of every row.
+    static final int TYPE_NULL = 0;         // Type byte of null values.
+    static final int TYPE_INTEGER = 1;      // Type byte of integer values.
+    static final int TYPE_REAL = 2;         // Type byte of floating point values.
+    static final int TYPE_TEXT = 3;         // Type byte of text values.
+
+    // Columns written to snapshots, in order. Snapshots can only be restored into these columns.
+    static final String[] SNAPSHOT_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY,
+            ProductEntry.COLUMN_NAME_VERSION};
+
+    private static final int SNAPSHOT_CHUNK_SIZE = 1000;    // Number of products read by every query.
+    private static final int SNAPSHOT_BUFFER_SIZE = 65536;  // Size of the output buffer, in bytes.
+
+    private final InventoryDbHelper inventoryDbHelper;  // Database helper object.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param inventoryDbHelper is the database helper object of the content provider.
+     */
+    ProductSnapshotWriter(InventoryDbHelper inventoryDbHelper) {
+        this.inventoryDbHelper = inventoryDbHelper;
+    }
+
+    /**
+     * Write a snapshot of all the products to the pipe, on the background thread started by
+     * InventoryProvider. If the snapshot fails, the pipe is closed with an error, so the client can
+     * tell a failed snapshot from a complete one.
+     *
+     * @param output   is the write end of the pipe. InventoryProvider closes it when this method
+     *                 returns, if it hasn't been closed with an error.
+     * @param uri      is the snapshot URI.
+     * @param mimeType is the MIME type of the file, CONTENT_SNAPSHOT_TYPE.
+     * @param opts     are the options of the request. They are not used.
+     * @param args     are not used.
+     */
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                Bundle opts, Void args) {
+        long products = 0;
+        try {
+            Encoder encoder = new Encoder(new FileOutputStream(output.getFileDescriptor()));
+            SQLiteDatabase database = inventoryDbHelper.getReadableDatabase();
+
+            // Header.
+            encoder.writeInt(MAGIC);
+            encoder.writeByte(FORMAT_VERSION);
+            encoder.writeVarint(InventoryDbHelper.DATABASE_VERSION);
+            encoder.writeVarint(DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence " +
+                    "WHERE name = ?", new String[]{ProductEntry.TABLE_NAME}));
+            encoder.writeVarint(SNAPSHOT_COLUMNS.length);
+            for (String column : SNAPSHOT_COLUMNS) encoder.writeString(column);
+
+            // Rows, one chunk at a time, right after the last product written.
+            String[] selectionArgs = {"0"};
+            int rows;
+            do {
+                Cursor cursor = database.query(ProductEntry.TABLE_NAME, SNAPSHOT_COLUMNS, ProductEntry._ID + " > ?",
+                        selectionArgs, null, null, ProductEntry._ID, String.valueOf(SNAPSHOT_CHUNK_SIZE));
+                try {
+                    rows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        encoder.writeByte(ROW_MARKER);
+                        for (int column = 0; column < SNAPSHOT_COLUMNS.length; column++) writeValue(encoder, cursor, column);
+                        products++;
+                    }
+                    if (cursor.moveToLast()) selectionArgs[0] = String.valueOf(cursor.getLong(0));
+                } finally {
+                    cursor.close();
+                }
+            } while (rows == SNAPSHOT_CHUNK_SIZE);
+
+            // Trailer.
+            encoder.writeByte(END_MARKER);
+            encoder.writeVarint(products);
+            encoder.writeChecksum();
+            encoder.flush();
+            Log.i(LOG_TAG, "Snapshot: " + products + " products written");
+        } catch (IOException e) {
+            // The client has closed its end of the pipe before reading the whole snapshot.
+            Log.e(LOG_TAG, "Snapshot interrupted after " + products + " products: " + e);
+            ProductExportWriter.closeWithError(output, e);
+        } catch (RuntimeException e) {
+            // The products can't be read, as with an SQLiteException.
+            Log.e(LOG_TAG, "Snapshot failed after " + products + " products: " + e);
+            ProductExportWriter.closeWithError(output, e);
+        }
+    }
+
+    /**
+     * Helper method to write a value of a product with its type.
+     *
+     * @param encoder is the encoder of the snapshot.
+     * @param cursor  is the cursor, positioned on the product.
+     * @param column  is the index of the column.
+     * @throws IOException if the value can't be written.
+     */
+    private static void writeValue(Encoder encoder, Cursor cursor, int column) throws IOException {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                encoder.writeByte(TYPE_NULL);
+                break;
+
+            case Cursor.FIELD_TYPE_INTEGER:
+                encoder.writeByte(TYPE_INTEGER);
+                long value = cursor.getLong(column);
+                encoder.writeVarint((value << 1) ^ (value >> 63));
+                break;
+
+            case Cursor.FIELD_TYPE_FLOAT:
+                encoder.writeByte(TYPE_REAL);
+                encoder.writeLong(Double.doubleToLongBits(cursor.getDouble(column)));
+                break;
+
+            default:
+                encoder.writeByte(TYPE_TEXT);
+                encoder.writeString(cursor.getString(column));
+                break;
+        }
+    }
+
+    /**
+     * Buffered encoder of the snapshot, which computes the checksum of the bytes written one
+     * buffer at a time instead of one byte at a time.
+     */
+    private static final class Encoder {
+        private final OutputStream output;                              // Output stream.
+        private final byte[] buffer = new byte[SNAPSHOT_BUFFER_SIZE];   // Bytes not written yet.
+        private final CRC32 checksum = new CRC32();                     // Checksum of the bytes written.
+        private int position;                                           // Number of bytes in the buffer.
+
+        /**
+         * Constructor for this class.
+         *
+         * @param output is the output stream. It is not closed by the encoder.
+         */
+        Encoder(OutputStream output) {
+            this.output = output;
+        }
+
+        /**
+         * Write a single byte.
+         *
+         * @param value is the byte, in its lowest 8 bits.
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeByte(int value) throws IOException {
+            if (position == buffer.length) flush();
+            buffer[position++] = (byte) value;
+        }
+
+        /**
+         * Write a 32-bit integer, big endian.
+         *
+         * @param value is the integer.
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeInt(int value) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) writeByte(value >>> shift);
+        }
+
+        /**
+         * Write a 64-bit integer, big endian.
+         *
+         * @param value is the integer.
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeLong(long value) throws IOException {
+            for (int shift = 56; shift >= 0; shift -= 8) writeByte((int) (value >>> shift));
+        }
+
+        /**
+         * Write an unsigned LEB128 varint: 7 bits per byte, lowest bits first, with the highest
+         * bit set in every byte but the last one.
+         *
+         * @param value is the value, taken as unsigned.
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        /**
+         * Write a string as its length in bytes followed by its UTF-8 bytes.
+         *
+         * @param value is the string.
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (position == buffer.length) flush();
+                int length = Math.min(bytes.length - offset, buffer.length - position);
+                System.arraycopy(bytes, offset, buffer, position, length);
+                position += length;
+                offset += length;
+            }
+        }
+
+        /**
+         * Write the checksum of all the bytes written so far.
+         *
+         * @throws IOException if the buffer can't be written.
+         */
+        void writeChecksum() throws IOException {
+            checksum.update(buffer, 0, position);
+            output.write(buffer, 0, position);
+            position = 0;
+            writeInt((int) checksum.getValue());
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+
+        /**
+         * Write the buffer to the output stream, adding its bytes to the checksum.
+         *
+         * @throws IOException if the buffer can't be written.
+         */
+        void flush() throws IOException {
+            checksum.update(buffer, 0, position);
+            output.write(buffer, 0, position);
+            position = 0;
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of compiled statements for the writes that InventoryProvider runs over and over: product
+ * inserts, quantity-only updates, deletions by _id and quantity adjustments. Arguments are bound
+ * directly to the compiled statements, so no SQL is built from ContentValues and no statement is
+ * compiled again for every call.
+ * <p>
+ * SQLiteStatement objects can't be shared by concurrent callers, so every shape keeps a pool of
+ * idle statements. A caller takes one from the pool, or compiles a new one if the pool is empty,
+ * and gives it back when it is done. Callers never wait for each other, even inside transactions.
+ * A cache belongs to a single SQLiteDatabase and must be closed with it.
+ */
+final class ProductStatementCache {
+
+    // Maximum number of idle statements kept for every shape.
+    private static final int MAX_IDLE_STATEMENTS = 4;
+
+    // Columns that can be bound by the insert statements. Every insert statement only names the
+    // columns that have a value, so it has a shape of its own for every combination of them.
+    static final String[] INSERT_COLUMNS = {
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_DESCRIPTION,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_QUANTITY,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY};
+
+    // SQL statement for setting the current quantity of a single product.
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME +
+            " SET " + ProductEntry.COLUMN_NAME_QUANTITY + " = ? WHERE " + ProductEntry._ID + " = ?";
+
+    // SQL statement for deleting a single product.
+    private static final String SQL_DELETE_PRODUCT = "DELETE FROM " + ProductEntry.TABLE_NAME +
+            " WHERE " + ProductEntry._ID + " = ?";
+
+    // SQL statement for adding a number of units to the current quantity of a single product and
+    // increasing its version. The last condition prevents the quantity from becoming negative.
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME +
+            " SET " + ProductEntry.COLUMN_NAME_QUANTITY + " = " + ProductEntry.COLUMN_NAME_QUANTITY + " + ?, " +
+            ProductEntry.COLUMN_NAME_VERSION + " = " + ProductEntry.COLUMN_NAME_VERSION + " + 1" +
+            " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_NAME_QUANTITY + " + ? >= 0";
+
+    // SQL statement for reading the current quantity of a single product.
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ProductEntry.COLUMN_NAME_QUANTITY +
+            " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private final SQLiteDatabase database;      // Database the statements are compiled for.
+
+    // Idle statements of every shape. Insert statements are indexed by their shape, and their
+    // queues are created when first used.
+    private final AtomicReferenceArray<ConcurrentLinkedQueue<SQLiteStatement>> insertStatements =
+            new AtomicReferenceArray<>(1 << INSERT_COLUMNS.length);
+    private final ConcurrentLinkedQueue<SQLiteStatement> updateQuantityStatements = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SQLiteStatement> deleteStatements = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SQLiteStatement> adjustQuantityStatements = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SQLiteStatement> selectQuantityStatements = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructor for this class.
+     *
+     * @param database is the database the statements are compiled for.
+     */
+    ProductStatementCache(SQLiteDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Get the database the statements are compiled for.
+     *
+     * @return the database.
+     */
+    SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Insert a product. Only the columns with a value, even a null one, are named by the
+     * statement, so the others take the default value of the table, exactly as with
+     * SQLiteDatabase.insert(), and the schema is the only place where default values are defined.
+     *
+     * @param contentValues is the set of column_name/value pairs of the new product. It must only
+     *                      have values for columns in INSERT_COLUMNS, as checked by
+     *                      ProductValidator.
+     * @return the _id of the new product.
+     * @throws android.database.SQLException if a constraint fails.
+     */
+    long insert(ContentValues contentValues) {
+        // The shape has a bit for every column of INSERT_COLUMNS with a value.
+        int shape = 0;
+        for (int column = 0; column < INSERT_COLUMNS.length; column++)
+            if (contentValues.containsKey(INSERT_COLUMNS[column])) shape |= 1 << column;
+
+        ConcurrentLinkedQueue<SQLiteStatement> idleStatements = insertStatements.get(shape);
+        if (idleStatements == null) {
+            insertStatements.compareAndSet(shape, null, new ConcurrentLinkedQueue<SQLiteStatement>());
+            idleStatements = insertStatements.get(shape);
+        }
+        SQLiteStatement statement = idleStatements.poll();
+        if (statement == null) statement = database.compileStatement(buildInsertSql(shape));
+        try {
+            int index = 1;
+            for (int column = 0; column < INSERT_COLUMNS.length; column++) {
+                if ((shape & (1 << column)) != 0)
+                    DatabaseUtils.bindObjectToProgram(statement, index++, contentValues.get(INSERT_COLUMNS[column]));
+            }
+            return statement.executeInsert();
+        } finally {
+            release(idleStatements, statement);
+        }
+    }
+
+    /**
+     * Set the current quantity of a single product.
+     *
+     * @param productId is the _id of the product.
+     * @param quantity  is the new quantity, as found in the ContentValues of the update.
+     * @return the number of products updated.
+     */
+    int updateQuantity(long productId, Object quantity) {
+        SQLiteStatement statement = acquire(updateQuantityStatements, SQL_UPDATE_QUANTITY);
+        try {
+            DatabaseUtils.bindObjectToProgram(statement, 1, quantity);
+            statement.bindLong(2, productId);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(updateQuantityStatements, statement);
+        }
+    }
+
+    /**
+     * Delete a single product.
+     *
+     * @param productId is the _id of the product.
+     * @return the number of products deleted.
+     */
+    int delete(long productId) {
+        SQLiteStatement statement = acquire(deleteStatements, SQL_DELETE_PRODUCT);
+        try {
+            statement.bindLong(1, productId);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(deleteStatements, statement);
+        }
+    }
+
+    /**
+     * Add a number of units to the current quantity of a single product and read the resulting
+     * quantity. Must be called within a transaction, so no other write can happen in between.
+     *
+     * @param productId is the _id of the product.
+     * @param delta     is the number of units to add (or to remove, if negative).
+     * @return the new current quantity, or QUANTITY_NOT_ADJUSTED if the product doesn't exist or
+     * its quantity would become negative.
+     */
+    int adjustQuantity(long productId, int delta) {
+        SQLiteStatement adjustStatement = acquire(adjustQuantityStatements, SQL_ADJUST_QUANTITY);
+        try {
+            adjustStatement.bindLong(1, delta);
+            adjustStatement.bindLong(2, productId);
+            adjustStatement.bindLong(3, delta);
+            if (adjustStatement.executeUpdateDelete() != 1) return ProductEntry.QUANTITY_NOT_ADJUSTED;
+        } finally {
+            release(adjustQuantityStatements, adjustStatement);
+        }
+
+        SQLiteStatement selectStatement = acquire(selectQuantityStatements, SQL_SELECT_QUANTITY);
+        try {
+            selectStatement.bindLong(1, productId);
+            return (int) selectStatement.simpleQueryForLong();
+        } finally {
+            release(selectQuantityStatements, selectStatement);
+        }
+    }
+
+    /**
+     * Close all the idle statements. Statements in use are closed when they are given back.
+     */
+    void close() {
+        for (int shape = 0; shape < insertStatements.length(); shape++) {
+            if (insertStatements.get(shape) != null) closeAll(insertStatements.get(shape));
+        }
+        closeAll(updateQuantityStatements);
+        closeAll(deleteStatements);
+        closeAll(adjustQuantityStatements);
+        closeAll(selectQuantityStatements);
+    }
+
+    /**
+     * Helper method to build the SQL statement for inserting a product with the columns of a shape.
+     *
+     * @param shape has a bit for every column of INSERT_COLUMNS named by the statement.
+     * @return the SQL statement.
+     */
+    private static String buildInsertSql(int shape) {
+        if (shape == 0) return "INSERT INTO " + ProductEntry.TABLE_NAME + " DEFAULT VALUES";
+        StringBuilder columns = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for (int column = 0; column < INSERT_COLUMNS.length; column++) {
+            if ((shape & (1 << column)) == 0) continue;
+            if (columns.length() > 0) {
+                columns.append(", ");
+                arguments.append(", ");
+            }
+            columns.append(INSERT_COLUMNS[column]);
+            arguments.append('?');
+        }
+        return "INSERT INTO " + ProductEntry.TABLE_NAME + " (" + columns + ") VALUES (" + arguments + ")";
+    }
+
+    /**
+     * Helper method to take an idle statement of a shape, or to compile a new one.
+     *
+     * @param idleStatements are the idle statements of the shape.
+     * @param sql            is the SQL of the shape.
+     * @return the statement, with no bindings.
+     */
+    private SQLiteStatement acquire(ConcurrentLinkedQueue<SQLiteStatement> idleStatements, String sql) {
+        SQLiteStatement statement = idleStatements.poll();
+        return statement != null ? statement : database.compileStatement(sql);
+    }
+
+    /**
+     * Helper method to give back a statement, keeping it for later if there is room for it and
+     * the database is still open.
+     *
+     * @param idleStatements are the idle statements of the shape.
+     * @param statement      is the statement.
+     */
+    private void release(ConcurrentLinkedQueue<SQLiteStatement> idleStatements, SQLiteStatement statement) {
+        statement.clearBindings();
+        if (database.isOpen() && idleStatements.size() < MAX_IDLE_STATEMENTS) idleStatements.offer(statement);
+        else statement.close();
+    }
+
+    /**
+     * Helper method to close all the idle statements of a shape.
+     *
+     * @param idleStatements are the idle statements of the shape.
+     */
+    private static void closeAll(ConcurrentLinkedQueue<SQLiteStatement> idleStatements) {
+        SQLiteStatement statement;
+        while ((statement = idleStatements.poll()) != null) statement.close();
+    }
+}
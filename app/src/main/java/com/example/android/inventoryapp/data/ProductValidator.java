@@ -0,0 +1,273 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validator of the values of new or updated products. The rules of every column of the products
+ * table are built once, so a set of values is checked in a single pass over its entries, reading
+ * the typed values without converting them to strings, and every violation is reported at once
+ * as a bit of an int. validate() doesn't check columns without a value, as they may be missing
+ * when updating a product; validateInsert() also reports the columns that a new product must have.
+ * The type of every column and whether it is required are taken from the COLUMN_TYPE_* and
+ * COLUMN_CONSTRAINTS_* constants of ProductEntry, so they follow the declaration of the table.
+ * <p>
+ * Single-row callers can get the legacy SQL_ERROR_* code of the violations with getErrorCode().
+ */
+public final class ProductValidator {
+
+    // Violations of the rules, as bits of the result of validate().
+    public static final int VIOLATION_PRODUCT_NAME = 1;                     // Product name is missing.
+    public static final int VIOLATION_PRODUCT_IMAGE = 1 << 1;               // Product image is missing.
+    public static final int VIOLATION_PRODUCT_IMAGE_INVALID = 1 << 2;       // Product image is not valid.
+    public static final int VIOLATION_PRODUCT_PRICE = 1 << 3;               // Product price is missing, zero or negative.
+    public static final int VIOLATION_SUPPLIER_NAME = 1 << 4;               // Supplier name is missing.
+    public static final int VIOLATION_SUPPLIER_EMAIL = 1 << 5;              // Supplier e-mail is missing.
+    public static final int VIOLATION_SUPPLIER_ORDER_QUANTITY = 1 << 6;     // Supplier order quantity is missing.
+    public static final int VIOLATION_UNKNOWN_COLUMN = 1 << 7;              // A column doesn't belong to the table.
+    public static final int VIOLATION_PRODUCT_QUANTITY = 1 << 8;            // Current quantity is negative or not an integer.
+
+    // Violations in the order they were checked by ProductEntry.checkContentValues(), and the
+    // SQL_ERROR_* code of every one of them, so single-row callers keep getting the same codes.
+    // The current quantity was not checked, so its violation goes last.
+    private static final int[] LEGACY_ORDER = {
+            VIOLATION_UNKNOWN_COLUMN,
+            VIOLATION_PRODUCT_NAME,
+            VIOLATION_PRODUCT_PRICE,
+            VIOLATION_PRODUCT_IMAGE,
+            VIOLATION_PRODUCT_IMAGE_INVALID,
+            VIOLATION_SUPPLIER_NAME,
+            VIOLATION_SUPPLIER_EMAIL,
+            VIOLATION_SUPPLIER_ORDER_QUANTITY,
+            VIOLATION_PRODUCT_QUANTITY};
+    private static final int[] LEGACY_CODES = {
+            ProductEntry.SQL_ERROR_UNKNOWN_COLUMN,
+            ProductEntry.SQL_ERROR_PRODUCT_NAME,
+            ProductEntry.SQL_ERROR_PRODUCT_PRICE,
+            ProductEntry.SQL_ERROR_PRODUCT_IMAGE,
+            ProductEntry.SQL_ERROR_PRODUCT_IMAGE_INVALID,
+            ProductEntry.SQL_ERROR_SUPPLIER_NAME,
+            ProductEntry.SQL_ERROR_SUPPLIER_EMAIL,
+            ProductEntry.SQL_ERROR_SUPPLIER_ORDER_QUANTITY,
+            ProductEntry.SQL_ERROR_PRODUCT_QUANTITY};
+
+    // Types of the columns.
+    private static final int TYPE_TEXT = 0;
+    private static final int TYPE_INTEGER = 1;
+
+    // Rules of the columns that can be written, by column name.
+    private static final Map<String, Rule> RULES = new HashMap<>();
+
+    // Rules of the columns that every new product must have.
+    private static final List<Rule> REQUIRED_RULES = new ArrayList<>();
+
+    static {
+        addRule(ProductEntry.COLUMN_NAME_PRODUCT, ProductEntry.COLUMN_TYPE_PRODUCT,
+                ProductEntry.COLUMN_CONSTRAINTS_PRODUCT, VIOLATION_PRODUCT_NAME, 0, 0, 0);
+        addRule(ProductEntry.COLUMN_NAME_DESCRIPTION, ProductEntry.COLUMN_TYPE_DESCRIPTION,
+                ProductEntry.COLUMN_CONSTRAINTS_DESCRIPTION, 0, 0, 0, 0);
+        addRule(ProductEntry.COLUMN_NAME_IMAGE, ProductEntry.COLUMN_TYPE_IMAGE,
+                ProductEntry.COLUMN_CONSTRAINTS_IMAGE, VIOLATION_PRODUCT_IMAGE, VIOLATION_PRODUCT_IMAGE_INVALID,
+                ProductEntry.IMAGE_TYPE_NONE + 1, ProductEntry.IMAGE_TYPE_COUNT - 1);
+        addRule(ProductEntry.COLUMN_NAME_PRICE, ProductEntry.COLUMN_TYPE_PRICE,
+                ProductEntry.COLUMN_CONSTRAINTS_PRICE, VIOLATION_PRODUCT_PRICE, VIOLATION_PRODUCT_PRICE, 1, Long.MAX_VALUE);
+        addRule(ProductEntry.COLUMN_NAME_QUANTITY, ProductEntry.COLUMN_TYPE_QUANTITY,
+                ProductEntry.COLUMN_CONSTRAINTS_QUANTITY, 0, VIOLATION_PRODUCT_QUANTITY, 0, Long.MAX_VALUE);
+        addRule(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, ProductEntry.COLUMN_TYPE_SUPPLIER_CONTACT,
+                ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_CONTACT, VIOLATION_SUPPLIER_NAME, 0, 0, 0);
+        addRule(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL, ProductEntry.COLUMN_TYPE_SUPPLIER_EMAIL,
+                ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_EMAIL, VIOLATION_SUPPLIER_EMAIL, 0, 0, 0);
+        addRule(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY, ProductEntry.COLUMN_TYPE_SUPPLIER_ORDER_QUANTITY,
+                ProductEntry.COLUMN_CONSTRAINTS_SUPPLIER_ORDER_QUANTITY, VIOLATION_SUPPLIER_ORDER_QUANTITY,
+                VIOLATION_SUPPLIER_ORDER_QUANTITY, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Rule of a single column.
+     */
+    private static final class Rule {
+        final String column;        // Name of the column.
+        final int type;             // TYPE_TEXT or TYPE_INTEGER.
+        final int missing;          // Violation for a null or empty value, or 0 if it is allowed.
+        final int invalid;          // Violation for an integer value out of range or not an integer, or 0 if it is allowed.
+        final long minValue;        // Minimum integer value.
+        final long maxValue;        // Maximum integer value.
+        boolean required;           // Whether new products must have a value.
+
+        Rule(String column, int type, int missing, int invalid, long minValue, long maxValue) {
+            this.column = column;
+            this.type = type;
+            this.missing = missing;
+            this.invalid = invalid;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+        }
+    }
+
+    private ProductValidator() {
+    }
+
+    /**
+     * Helper method to add the rule of a column. The column is required if a new product without
+     * a value for it would break the rule: if it can't be null and has no default value, or if its
+     * default value is not valid.
+     *
+     * @param column      is the name of the column.
+     * @param sqlType     is the SQL type of the column, TEXT or INTEGER.
+     * @param constraints are the SQL constraints of the column.
+     * @param missing     is the violation for a null or empty value, or 0 if it is allowed.
+     * @param invalid     is the violation for an integer value out of range or not an integer, or
+     *                    0 if it is allowed.
+     * @param minValue    is the minimum integer value.
+     * @param maxValue    is the maximum integer value.
+     */
+    private static void addRule(String column, String sqlType, String constraints, int missing, int invalid,
+                                long minValue, long maxValue) {
+        int type;
+        if (sqlType.equals("TEXT")) type = TYPE_TEXT;
+        else if (sqlType.equals("INTEGER")) type = TYPE_INTEGER;
+        else throw new IllegalArgumentException("Unsupported type " + sqlType + " of column " + column);
+        Rule rule = new Rule(column, type, missing, invalid, minValue, maxValue);
+        RULES.put(column, rule);
+
+        // A default value follows DEFAULT, and it is checked as if it had been written.
+        int defaultStart = constraints.indexOf("DEFAULT ");
+        if (defaultStart == -1) {
+            rule.required = missing != 0 || constraints.contains("NOT NULL");
+        } else {
+            String value = constraints.substring(defaultStart + "DEFAULT ".length()).trim();
+            if (value.length() > 1 && (value.charAt(0) == '\'' || value.charAt(0) == '"'))
+                value = value.substring(1, value.length() - 1);
+            ContentValues defaultValues = new ContentValues();
+            defaultValues.put(column, value);
+            rule.required = validate(defaultValues) != 0;
+        }
+        if (rule.required) REQUIRED_RULES.add(rule);
+    }
+
+    /**
+     * Check a set of values of a product.
+     *
+     * @param contentValues is the set of column_name/value pairs to add to the database.
+     * @return 0 if the values are valid, or the VIOLATION_* bits of every rule they break.
+     */
+    public static int validate(ContentValues contentValues) {
+        int violations = 0;
+        for (Map.Entry<String, Object> entry : contentValues.valueSet()) {
+            Rule rule = RULES.get(entry.getKey());
+            if (rule == null) {
+                violations |= VIOLATION_UNKNOWN_COLUMN;
+                continue;
+            }
+
+            Object value = entry.getValue();
+            if (value == null) {
+                violations |= rule.missing;
+            } else if (rule.type == TYPE_TEXT) {
+                if (value instanceof CharSequence && ((CharSequence) value).length() == 0)
+                    violations |= rule.missing;
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                if (number < rule.minValue || number > rule.maxValue) violations |= rule.invalid;
+            } else if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                if (number != Math.rint(number) || number < rule.minValue || number > rule.maxValue)
+                    violations |= rule.invalid;
+            } else if (value instanceof CharSequence) {
+                violations |= checkIntegerText(rule, (CharSequence) value);
+            } else {
+                violations |= rule.invalid;
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Check the values of a new product, including the columns that it must have.
+     *
+     * @param contentValues is the set of column_name/value pairs of the new product.
+     * @return 0 if the values are valid, or the VIOLATION_* bits of every rule they break.
+     */
+    public static int validateInsert(ContentValues contentValues) {
+        int violations = validate(contentValues);
+        for (int i = 0; i < REQUIRED_RULES.size(); i++) {
+            Rule rule = REQUIRED_RULES.get(i);
+            if (!contentValues.containsKey(rule.column)) violations |= rule.missing;
+        }
+        return violations;
+    }
+
+    /**
+     * Check whether new products must have a value for a column.
+     *
+     * @param column is the name of the column.
+     * @return true if the column is required, false if it is optional or unknown.
+     */
+    @VisibleForTesting
+    static boolean isRequired(String column) {
+        Rule rule = RULES.get(column);
+        return rule != null && rule.required;
+    }
+
+    /**
+     * Get the SQL type used for checking a column.
+     *
+     * @param column is the name of the column.
+     * @return TEXT or INTEGER, or null if the column is unknown.
+     */
+    @VisibleForTesting
+    static String getType(String column) {
+        Rule rule = RULES.get(column);
+        if (rule == null) return null;
+        return rule.type == TYPE_TEXT ? "TEXT" : "INTEGER";
+    }
+
+    /**
+     * Get the SQL_ERROR_* code that ProductEntry.checkContentValues() returned for the first of a
+     * set of violations.
+     *
+     * @param violations are the VIOLATION_* bits returned by validate().
+     * @return SQL_OK if there are no violations, or the SQL_ERROR_* code of the first one.
+     */
+    public static int getErrorCode(int violations) {
+        for (int i = 0; violations != 0 && i < LEGACY_ORDER.length; i++)
+            if ((violations & LEGACY_ORDER[i]) != 0) return LEGACY_CODES[i];
+        return ProductEntry.SQL_OK;
+    }
+
+    /**
+     * Helper method to check a text value of an integer column, as SQLite stores it as an
+     * integer when it is a decimal number. The text is not converted to a string.
+     *
+     * @param rule is the rule of the column.
+     * @param text is the value.
+     * @return 0 if the value is valid, or the violation of the rule.
+     */
+    private static int checkIntegerText(Rule rule, CharSequence text) {
+        int length = text.length();
+        if (length == 0) return rule.missing;
+
+        // Digits are accumulated as a negative number, so Long.MIN_VALUE can be read too.
+        boolean negative = text.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        if (start == length) return rule.invalid;
+        long number = 0;
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || number < (Long.MIN_VALUE + (c - '0')) / 10) return rule.invalid;
+            number = number * 10 - (c - '0');
+        }
+        if (!negative) {
+            if (number == Long.MIN_VALUE) return rule.invalid;
+            number = -number;
+        }
+        return number < rule.minValue || number > rule.maxValue ? rule.invalid : 0;
+    }
+}
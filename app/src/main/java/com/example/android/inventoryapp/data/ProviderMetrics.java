@@ -0,0 +1,249 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProviderMetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory metrics of InventoryProvider: number of calls, rows returned or affected and latency
+ * histogram of every operation, for every URI matcher code.
+ * <p>
+ * Recording a call is a handful of atomic additions on a preallocated array, with no locks and no
+ * allocations, so it can be done on every call. Readers may see the counters of a call that is
+ * being recorded only partially updated, which is fine for metrics.
+ */
+final class ProviderMetrics {
+
+    // Operations of the content provider.
+    static final int OPERATION_QUERY = 0;
+    static final int OPERATION_INSERT = 1;
+    static final int OPERATION_BULK_INSERT = 2;
+    static final int OPERATION_UPDATE = 3;
+    static final int OPERATION_DELETE = 4;
+    static final int OPERATION_GET_TYPE = 5;
+
+    // Names of the operations, by operation.
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulk_insert", "update", "delete", "get_type"};
+
+    // Number of latency buckets. Bucket 0 counts calls under 2^BUCKET_SHIFT ns, every other bucket
+    // doubles the limit of the previous one and the last bucket also counts all the slower calls,
+    // so the last limit is about 8.6 seconds.
+    static final int BUCKETS = 24;
+    private static final int BUCKET_SHIFT = 10;
+
+    // Position of every counter in the slot of an operation.
+    private static final int CALLS = 0;
+    private static final int ROWS = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int MAX_NANOS = 3;
+    private static final int FIRST_BUCKET = 4;
+    private static final int SLOT_SIZE = FIRST_BUCKET + BUCKETS;
+
+    // Columns of the cursor returned by query().
+    private static final String[] COLUMNS = {
+            ProviderMetricsEntry.COLUMN_NAME_URI,
+            ProviderMetricsEntry.COLUMN_NAME_OPERATION,
+            ProviderMetricsEntry.COLUMN_NAME_CALLS,
+            ProviderMetricsEntry.COLUMN_NAME_ROWS,
+            ProviderMetricsEntry.COLUMN_NAME_TOTAL_US,
+            ProviderMetricsEntry.COLUMN_NAME_MAX_US,
+            ProviderMetricsEntry.COLUMN_NAME_P50_US,
+            ProviderMetricsEntry.COLUMN_NAME_P90_US,
+            ProviderMetricsEntry.COLUMN_NAME_P99_US,
+            ProviderMetricsEntry.COLUMN_NAME_HISTOGRAM};
+
+    private final String[] matchNames;      // Names of the URI matcher codes, by code + 1.
+    private final AtomicLongArray counters; // Counters of every slot, by match code and operation.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param matchNames are the names of the URI matcher codes, like "products/#". The first name
+     *                   is for UriMatcher.NO_MATCH (-1), and the next ones are for the codes 0, 1...
+     */
+    ProviderMetrics(String[] matchNames) {
+        this.matchNames = matchNames;
+        counters = new AtomicLongArray(matchNames.length * OPERATION_NAMES.length * SLOT_SIZE);
+    }
+
+    /**
+     * Get the start time of a call, to be passed to record() when the call ends.
+     *
+     * @return the current time, in nanoseconds.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a finished call.
+     *
+     * @param match     is the URI matcher code of the call, or UriMatcher.NO_MATCH.
+     * @param operation is the operation, one of the OPERATION_* values.
+     * @param rows      is the number of rows returned or affected by the call.
+     * @param start     is the value returned by start() when the call began.
+     */
+    void record(int match, int operation, long rows, long start) {
+        long nanos = System.nanoTime() - start;
+        int slot = getSlot(match, operation);
+        counters.incrementAndGet(slot + CALLS);
+        if (rows > 0) counters.addAndGet(slot + ROWS, rows);
+        counters.addAndGet(slot + TOTAL_NANOS, nanos);
+        counters.incrementAndGet(slot + FIRST_BUCKET + getBucket(nanos));
+
+        // Only the slowest calls ever have to retry.
+        long max;
+        while (nanos > (max = counters.get(slot + MAX_NANOS))) {
+            if (counters.compareAndSet(slot + MAX_NANOS, max, nanos)) break;
+        }
+    }
+
+    /**
+     * Reset all the counters to zero.
+     */
+    void reset() {
+        for (int i = 0; i < counters.length(); i++) counters.set(i, 0);
+    }
+
+    /**
+     * Read the metrics of every URI and operation that has been called.
+     *
+     * @param projection is the list of columns to return, or null for all of them.
+     * @return a cursor with the columns of ProviderMetricsEntry.
+     * @throws IllegalArgumentException if the projection has an unknown column.
+     */
+    Cursor query(String[] projection) {
+        if (projection == null) projection = COLUMNS;
+        int[] indexes = new int[projection.length];
+        for (int column = 0; column < projection.length; column++) {
+            indexes[column] = Arrays.asList(COLUMNS).indexOf(projection[column]);
+            if (indexes[column] == -1) throw new IllegalArgumentException("Unknown column " + projection[column]);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (int match = 0; match < matchNames.length; match++) {
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+                long[] slot = readSlot(match - 1, operation);
+                if (slot[CALLS] == 0) continue;
+                Object[] values = {matchNames[match], OPERATION_NAMES[operation], slot[CALLS], slot[ROWS],
+                        slot[TOTAL_NANOS] / 1000, slot[MAX_NANOS] / 1000, getPercentile(slot, 50),
+                        getPercentile(slot, 90), getPercentile(slot, 99), getHistogram(slot)};
+                Object[] row = new Object[projection.length];
+                for (int column = 0; column < projection.length; column++) row[column] = values[indexes[column]];
+                cursor.addRow(row);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Write the metrics of every URI and operation that has been called as a human-readable table.
+     *
+     * @param writer is the writer.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("InventoryProvider metrics (times in microseconds):");
+        writer.println(String.format(Locale.US, "  %-18s %-12s %10s %12s %12s %10s %10s %10s %10s",
+                "uri", "operation", "calls", "rows", "total", "max", "p50", "p90", "p99"));
+        for (int match = 0; match < matchNames.length; match++) {
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+                long[] slot = readSlot(match - 1, operation);
+                if (slot[CALLS] == 0) continue;
+                writer.println(String.format(Locale.US, "  %-18s %-12s %10d %12d %12d %10d %10d %10d %10d",
+                        matchNames[match], OPERATION_NAMES[operation], slot[CALLS], slot[ROWS], slot[TOTAL_NANOS] / 1000,
+                        slot[MAX_NANOS] / 1000, getPercentile(slot, 50), getPercentile(slot, 90), getPercentile(slot, 99)));
+                writer.println("    histogram: " + getHistogram(slot));
+            }
+        }
+    }
+
+    /**
+     * Helper method to get the position of the first counter of a slot.
+     *
+     * @param match     is the URI matcher code, or UriMatcher.NO_MATCH.
+     * @param operation is the operation.
+     * @return the position of the first counter of the slot in the counters array.
+     */
+    private int getSlot(int match, int operation) {
+        // Unknown codes are counted as UriMatcher.NO_MATCH.
+        if (match < -1 || match + 1 >= matchNames.length) match = -1;
+        return ((match + 1) * OPERATION_NAMES.length + operation) * SLOT_SIZE;
+    }
+
+    /**
+     * Helper method to get the latency bucket of a call.
+     *
+     * @param nanos is the time of the call, in nanoseconds.
+     * @return the bucket, from 0 to BUCKETS - 1.
+     */
+    static int getBucket(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >> BUCKET_SHIFT);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Helper method to get the upper limit of a latency bucket.
+     *
+     * @param bucket is the bucket.
+     * @return the upper limit of the bucket, in microseconds.
+     */
+    static long getBucketLimit(int bucket) {
+        return (1L << (BUCKET_SHIFT + bucket)) / 1000;
+    }
+
+    /**
+     * Helper method to copy the counters of a slot.
+     *
+     * @param match     is the URI matcher code, or UriMatcher.NO_MATCH.
+     * @param operation is the operation.
+     * @return the counters of the slot.
+     */
+    private long[] readSlot(int match, int operation) {
+        int slot = getSlot(match, operation);
+        long[] values = new long[SLOT_SIZE];
+        for (int i = 0; i < SLOT_SIZE; i++) values[i] = counters.get(slot + i);
+        return values;
+    }
+
+    /**
+     * Helper method to estimate a percentile of the latency from the histogram of a slot.
+     *
+     * @param slot       are the counters of the slot.
+     * @param percentile is the percentile, from 1 to 100.
+     * @return the upper limit of the bucket that contains the percentile, in microseconds, or the
+     * maximum time if the percentile falls in the last bucket.
+     */
+    private static long getPercentile(long[] slot, int percentile) {
+        long calls = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) calls += slot[FIRST_BUCKET + bucket];
+
+        long target = (calls * percentile + 99) / 100;
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+            count += slot[FIRST_BUCKET + bucket];
+            if (count >= target) return getBucketLimit(bucket);
+        }
+        return slot[MAX_NANOS] / 1000;
+    }
+
+    /**
+     * Helper method to format the histogram of a slot.
+     *
+     * @param slot are the counters of the slot.
+     * @return the comma-separated number of calls in every bucket.
+     */
+    private static String getHistogram(long[] slot) {
+        StringBuilder histogram = new StringBuilder();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (bucket > 0) histogram.append(',');
+            histogram.append(slot[FIRST_BUCKET + bucket]);
+        }
+        return histogram.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.InventoryContract.InventorySummaryEntry;
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.Locale;
+
+/**
+ * Deterministic generator of realistic products for tests and benchmarks, shared by the JVM and
+ * the instrumentation tests. Product n only depends on the seed and on n, so any range of products
+ * can be generated again, in any order and in chunks of any size, and two databases filled with
+ * the same seed are identical.
+ * <p>
+ * Products use every valid IMAGE_TYPE_* value, with names and descriptions made from words of
+ * their type, a few suppliers that supply most of the products, prices from cents to thousands
+ * of euros and a spread of quantities: some products are out of stock, some have low stock and
+ * the rest have from a few to a thousand units. Instances are not thread-safe.
+ */
+public final class ProductGenerator {
+
+    private static final int INSERT_CHUNK_SIZE = 10000;    // Products inserted by every bulkInsert() call.
+    private static final int SUPPLIERS = 500;               // Number of different suppliers.
+
+    // Words for the names of the products of every image type, by image type.
+    private static final String[][] NAMES = {
+            {},
+            {"Museum pass", "Gallery ticket", "Heritage tour", "Cathedral visit", "Art workshop", "Library tour"},
+            {"Double room", "Single room", "Suite", "Hostel bed", "Apartment", "Boutique hotel night"},
+            {"Kayak rental", "Spa circuit", "Bike tour", "Golf round", "Climbing day", "Beach club pass"},
+            {"Pub crawl", "Cocktail class", "Jazz club entry", "Rooftop bar pass", "Night tour", "Disco ticket"},
+            {"Tasting menu", "Tapas dinner", "Wine pairing", "Cooking class", "Brunch", "Seafood lunch"},
+            {"Market tour", "Outlet voucher", "Craft workshop", "Souvenir pack", "Fashion tour", "Gift card"},
+            {"Flamenco show", "Opera ticket", "Musical ticket", "Comedy night", "Concert ticket", "Circus ticket"},
+            {"Airport transfer", "Train pass", "Car rental", "Ferry ticket", "Metro card", "Bus tour"},
+            {"City tour", "Old town walk", "Castle visit", "Day trip", "Boat trip", "Zoo ticket"}};
+
+    // Words for the names and descriptions of any product.
+    private static final String[] ADJECTIVES = {"Classic", "Premium", "Family", "Express", "Deluxe", "Evening",
+            "Private", "Guided", "Weekend", "Sunset", "Budget", "Grand"};
+    private static final String[] PLACES = {"Madrid", "Seville", "Granada", "Valencia", "Bilbao", "Toledo",
+            "Cordoba", "Malaga", "Salamanca", "Cadiz", "Ronda", "Girona"};
+    private static final String[] DESCRIPTION_WORDS = {"includes", "local", "guide", "tickets", "drinks", "hours",
+            "minutes", "pickup", "hotel", "center", "small", "group", "free", "cancellation", "children", "welcome",
+            "audio", "tasting", "views", "historic", "walking", "transfer", "meeting", "point", "daily"};
+    private static final String[] SUPPLIER_WORDS = {"Iberia", "Sol", "Mar", "Costa", "Sierra", "Plaza", "Rio",
+            "Luna", "Puerta", "Torre", "Villa", "Campo"};
+    private static final String[] SUPPLIER_KINDS = {"Tours", "Travel", "Experiences", "Hotels", "Events", "Services"};
+
+    private final long seed;    // Seed of the generator.
+    private long state;         // State of the random sequence of the current product.
+
+    /**
+     * Constructor for this class.
+     *
+     * @param seed is the seed. Generators with the same seed generate the same products.
+     */
+    public ProductGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Generate a product.
+     *
+     * @param index is the number of the product, from 0.
+     * @return the values of the product, ready to be inserted.
+     */
+    public ContentValues getProduct(long index) {
+        // Products with consecutive numbers must not share parts of their sequences.
+        state = mix(seed ^ mix(index));
+        ContentValues values = new ContentValues();
+
+        int image = ProductEntry.IMAGE_TYPE_NONE + 1 + nextInt(ProductEntry.IMAGE_TYPE_COUNT - 1);
+        values.put(ProductEntry.COLUMN_NAME_IMAGE, image);
+        values.put(ProductEntry.COLUMN_NAME_PRODUCT, String.format(Locale.US, "%s %s %s #%d", pick(ADJECTIVES),
+                pick(PLACES), pick(NAMES[image]), index));
+
+        // A fifth of the products have no description, the rest from 4 to 40 words.
+        if (nextInt(5) != 0) {
+            StringBuilder description = new StringBuilder(pick(NAMES[image]));
+            int words = 3 + nextInt(nextInt(4) == 0 ? 37 : 10);
+            for (int word = 0; word < words; word++) description.append(' ').append(pick(DESCRIPTION_WORDS));
+            values.put(ProductEntry.COLUMN_NAME_DESCRIPTION, description.append('.').toString());
+        }
+
+        // Prices from 0.50 to about 5000 euros, evenly spread on a logarithmic scale.
+        values.put(ProductEntry.COLUMN_NAME_PRICE, Math.round(50 * Math.pow(10, nextInt(1000) / 250.0)));
+
+        // Out of stock, low stock or from a few to a thousand units.
+        int stock = nextInt(100);
+        int quantity;
+        if (stock < 10) quantity = 0;
+        else if (stock < 25) quantity = 1 + nextInt(InventorySummaryEntry.LOW_STOCK_QUANTITY);
+        else quantity = (int) Math.round(Math.pow(10, 0.7 + nextInt(1000) / 434.0));
+        values.put(ProductEntry.COLUMN_NAME_QUANTITY, quantity);
+
+        // Half of the products come from 5% of the suppliers.
+        int supplier = nextInt(2) == 0 ? nextInt(SUPPLIERS / 20) : nextInt(SUPPLIERS);
+        String supplierName = SUPPLIER_WORDS[supplier % SUPPLIER_WORDS.length] + " " +
+                SUPPLIER_KINDS[(supplier / SUPPLIER_WORDS.length) % SUPPLIER_KINDS.length] + " " + supplier;
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT, supplierName);
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_EMAIL, "sales" + supplier + "@" +
+                SUPPLIER_WORDS[supplier % SUPPLIER_WORDS.length].toLowerCase(Locale.US) + ".example.com");
+        values.put(ProductEntry.COLUMN_NAME_SUPPLIER_ORDER_QUANTITY, 1 + nextInt(nextInt(2) == 0 ? 10 : 100));
+        return values;
+    }
+
+    /**
+     * Insert a range of generated products through the bulkInsert() of a content provider.
+     *
+     * @param provider is the content provider, usually an InventoryProvider.
+     * @param first    is the number of the first product.
+     * @param count    is the number of products to insert.
+     * @return the number of products inserted.
+     */
+    public long insertProducts(ContentProvider provider, long first, long count) {
+        long inserted = 0;
+        for (long chunk = 0; chunk < count; chunk += INSERT_CHUNK_SIZE) {
+            ContentValues[] values = new ContentValues[(int) Math.min(INSERT_CHUNK_SIZE, count - chunk)];
+            for (int i = 0; i < values.length; i++) values[i] = getProduct(first + chunk + i);
+            inserted += provider.bulkInsert(ProductEntry.CONTENT_URI, values);
+        }
+        return inserted;
+    }
+
+    /**
+     * Helper method to get the next value of the random sequence of the current product, with the
+     * SplitMix64 generator.
+     *
+     * @param bound is the upper bound (exclusive) of the value. It must be positive.
+     * @return a value from 0 to bound - 1.
+     */
+    private int nextInt(int bound) {
+        return (int) ((mix(state += 0x9E3779B97F4A7C15L) >>> 1) % bound);
+    }
+
+    /**
+     * Helper method to scramble the bits of a value, with the finalizer of SplitMix64.
+     *
+     * @param z is the value.
+     * @return the scrambled value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Helper method to pick a random word.
+     *
+     * @param words are the words to pick from.
+     * @return one of the words.
+     */
+    private String pick(String[] words) {
+        return words[nextInt(words.length)];
+    }
+}
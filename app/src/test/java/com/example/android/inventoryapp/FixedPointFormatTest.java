@@ -0,0 +1,63 @@
+package com.example.android.inventoryapp;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for FixedPointFormat.
+ */
+public class FixedPointFormatTest {
+
+    private final char[] buffer = new char[FixedPointFormat.MAX_LENGTH];
+
+    @Test
+    public void centsAreFormattedWithLocaleSeparators() {
+        FixedPointFormat us = new FixedPointFormat(Locale.US);
+        FixedPointFormat spain = new FixedPointFormat(new Locale("es", "ES"));
+        assertEquals("0.05", format(us, 5));
+        assertEquals("1,234,567.89", format(us, 123456789));
+        assertEquals("-1,000.00", format(us, -100000));
+        assertEquals("1.234.567,89", format(spain, 123456789));
+        assertEquals("1234567.89", format(FixedPointFormat.INPUT, 123456789));
+    }
+
+    @Test
+    public void extremeValuesAreExact() {
+        assertEquals("92233720368547758.07", format(FixedPointFormat.INPUT, Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", format(FixedPointFormat.INPUT, Long.MIN_VALUE));
+        FixedPointFormat us = new FixedPointFormat(Locale.US);
+        assertEquals("-9,223,372,036,854,775,808",
+                new String(buffer, 0, us.appendUnits(buffer, 0, Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void pricesAreParsedExactly() {
+        FixedPointFormat spain = new FixedPointFormat(new Locale("es", "ES"));
+        assertEquals(150, spain.parseCents("1.5"));
+        assertEquals(150, spain.parseCents(" 1,50 "));
+        assertEquals(100, spain.parseCents("1."));
+        assertEquals(50, spain.parseCents(".5"));
+        assertEquals(1999, spain.parseCents("19.9900"));
+        assertEquals(Long.MAX_VALUE, spain.parseCents("92233720368547758.07"));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents("92233720368547758.08"));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents("1.999"));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents("1.2.3"));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents("-1"));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents("."));
+        assertEquals(FixedPointFormat.INVALID_CENTS, spain.parseCents(""));
+    }
+
+    /**
+     * Helper method to format an amount of cents as a string.
+     *
+     * @param format is the format.
+     * @param cents  is the amount of cents.
+     * @return the formatted amount.
+     */
+    private String format(FixedPointFormat format, long cents) {
+        return new String(buffer, 0, format.appendCents(buffer, 0, cents));
+    }
+}
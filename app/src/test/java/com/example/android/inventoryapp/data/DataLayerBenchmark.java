@@ -0,0 +1,192 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM benchmark suite for InventoryProvider and InventoryDbHelper, run by Robolectric on a real
+ * SQLite database. For every table size, it measures bulk insertion of the whole table, single
+ * insertions, point queries by _id, a full-list query with the projection of MainActivity,
+ * quantity updates and the deletion of all the products.
+ * <p>
+ * The suite is slow, so it only runs when the system property inventory.benchmark is true:
+ * <pre>
+ * ./gradlew testDebugUnitTest --tests '*DataLayerBenchmark' -Dinventory.benchmark=true
+ * </pre>
+ * Table sizes are given by inventory.benchmark.sizes (1000,100000,1000000 by default). Results are
+ * written as JSON to inventory.benchmark.output (build/benchmarks/data-layer.json by default), so
+ * they can be compared between builds.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class DataLayerBenchmark {
+
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";          // Default table sizes.
+    private static final String DEFAULT_OUTPUT = "build/benchmarks/data-layer.json";  // Default output file.
+
+    private static final int WARM_UP_ROWS = 1000;       // Table size of the warm-up run, not reported.
+    private static final int SINGLE_INSERTS = 1000;     // Number of single insertions per run.
+    private static final int POINT_QUERIES = 10000;     // Number of point queries per run.
+    private static final int QUANTITY_UPDATES = 1000;   // Number of quantity updates per run.
+
+    // Columns queried by MainActivity for the list of products.
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_NAME_VERSION,
+            ProductEntry.COLUMN_NAME_PRODUCT,
+            ProductEntry.COLUMN_NAME_IMAGE,
+            ProductEntry.COLUMN_NAME_PRICE,
+            ProductEntry.COLUMN_NAME_SUPPLIER_CONTACT,
+            ProductEntry.COLUMN_NAME_QUANTITY};
+
+    private InventoryProvider provider;
+    private final ProductGenerator generator = new ProductGenerator(0);   // Generator of the products.
+    private final List<String> results = new ArrayList<>();     // JSON objects of every result.
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("inventory.benchmark"));
+    }
+
+    @After
+    public void tearDown() {
+        closeProvider();
+    }
+
+    @Test
+    public void dataLayer() throws IOException {
+        run(WARM_UP_ROWS);
+        results.clear();
+        for (String size : System.getProperty("inventory.benchmark.sizes", DEFAULT_SIZES).split(","))
+            run(Integer.parseInt(size.trim()));
+        writeResults(new File(System.getProperty("inventory.benchmark.output", DEFAULT_OUTPUT)));
+    }
+
+    /**
+     * Run all the operations against a new database with the given number of products.
+     *
+     * @param rows is the number of products in the table.
+     */
+    private void run(int rows) {
+        closeProvider();
+        RuntimeEnvironment.application.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        provider = new InventoryProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null);
+        Random random = new Random(rows);
+
+        // Bulk insertion of the whole table.
+        long start = System.nanoTime();
+        generator.insertProducts(provider, 0, rows);
+        addResult("bulk_insert", rows, rows, System.nanoTime() - start);
+
+        // Single insertions.
+        start = System.nanoTime();
+        for (int i = 0; i < SINGLE_INSERTS; i++) provider.insert(ProductEntry.CONTENT_URI, generator.getProduct(rows + i));
+        addResult("single_insert", rows, SINGLE_INSERTS, System.nanoTime() - start);
+        int total = rows + SINGLE_INSERTS;
+
+        // Point queries by _id.
+        start = System.nanoTime();
+        for (int i = 0; i < POINT_QUERIES; i++) {
+            Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(total)),
+                    null, null, null, null);
+            cursor.moveToFirst();
+            cursor.close();
+        }
+        addResult("point_query", rows, POINT_QUERIES, System.nanoTime() - start);
+
+        // Full-list query, reading every row.
+        start = System.nanoTime();
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, LIST_PROJECTION, null, null, null);
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getString(2);
+            count++;
+        }
+        cursor.close();
+        addResult("list_query", rows, count, System.nanoTime() - start);
+        assertEquals(total, count);
+
+        // Quantity updates.
+        Bundle extras = new Bundle();
+        start = System.nanoTime();
+        for (int i = 0; i < QUANTITY_UPDATES; i++) {
+            extras.putInt(InventoryContract.EXTRA_QUANTITY_DELTA, (i & 1) == 0 ? -1 : 1);
+            provider.call(InventoryContract.METHOD_ADJUST_QUANTITY, String.valueOf(1 + random.nextInt(total)), extras);
+        }
+        addResult("quantity_update", rows, QUANTITY_UPDATES, System.nanoTime() - start);
+
+        // Deletion of all the products.
+        start = System.nanoTime();
+        int deleted = provider.delete(ProductEntry.CONTENT_URI, null, null);
+        addResult("delete_all", rows, deleted, System.nanoTime() - start);
+        assertEquals(total, deleted);
+    }
+
+    /**
+     * Helper method to record the result of an operation, and print it.
+     *
+     * @param operation  is the name of the operation.
+     * @param rows       is the number of products in the table.
+     * @param operations is the number of operations (or rows, for bulk operations) measured.
+     * @param nanos      is the total time, in nanoseconds.
+     */
+    private void addResult(String operation, int rows, int operations, long nanos) {
+        double opsPerSecond = operations * 1e9 / Math.max(1, nanos);
+        results.add(String.format(Locale.US, "{\"operation\": \"%s\", \"rows\": %d, \"operations\": %d, " +
+                "\"nanos\": %d, \"ops_per_second\": %.1f}", operation, rows, operations, nanos, opsPerSecond));
+        System.out.println(String.format(Locale.US, "%-16s %8d rows: %12.1f ops/s", operation, rows, opsPerSecond));
+    }
+
+    /**
+     * Helper method to write all the results as a JSON document.
+     *
+     * @param file is the output file.
+     */
+    private void writeResults(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't create " + directory);
+
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("{\"benchmark\": \"data-layer\", \"database_version\": " + InventoryDbHelper.DATABASE_VERSION +
+                    ", \"results\": [\n");
+            for (int i = 0; i < results.size(); i++)
+                writer.write("  " + results.get(i) + (i + 1 < results.size() ? ",\n" : "\n"));
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Helper method to close the database of the current provider, if any.
+     */
+    private void closeProvider() {
+        if (provider != null) provider.getDbHelper().close();
+        provider = null;
+    }
+}